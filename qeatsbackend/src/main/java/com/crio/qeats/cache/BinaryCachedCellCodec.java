@@ -0,0 +1,86 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compact binary format of the cache entries, the default codec.
+ * Body, big endian: soft expiry, restaurant count, then the restaurant ids as length prefixed
+ * UTF-8.
+ */
+@Component
+@ConditionalOnProperty(name = "qeats.cache.codec", havingValue = "binary", matchIfMissing = true)
+public class BinaryCachedCellCodec extends VersionedCachedCellCodec {
+
+  private static final byte VERSION = 4;
+
+  public BinaryCachedCellCodec(
+      @Value("${qeats.cache.codec.compress-above-bytes:2048}") int compressAboveBytes) {
+    super(compressAboveBytes);
+  }
+
+  @Override
+  protected byte version() {
+    return VERSION;
+  }
+
+  @Override
+  protected byte[] encodeBody(CachedCell cachedCell) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(body);
+    out.writeLong(cachedCell.getSoftExpiresAt());
+    out.writeInt(cachedCell.getRestaurantIds().size());
+    for (String restaurantId : cachedCell.getRestaurantIds()) {
+      writeString(out, restaurantId);
+    }
+    return body.toByteArray();
+  }
+
+  @Override
+  protected CachedCell decodeBody(byte[] body) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+    long softExpiresAt = in.readLong();
+    int count = in.readInt();
+    List<String> restaurantIds = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      restaurantIds.add(readString(in));
+    }
+    return new CachedCell(softExpiresAt, restaurantIds);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,114 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Client of the Redis server behind the {@link RestaurantCellCache}, selected with
+ * "qeats.redis.client":
+ * - jedis: connections borrowed from the pool of the RedisConfiguration, one per batch
+ * - lettuce: a few connections shared by all threads, commands of concurrent batches are
+ *   multiplexed on them
+ * - sharded: keys spread over several nodes by their hash tag, see {@link ShardedCacheClient}
+ * Commands are sent in batches and pipelined, their replies are read from the returned
+ * suppliers once the batch is executed.
+ * Implementations must be thread safe, batches need not be.
+ */
+public interface CacheClient {
+
+  /**
+   * Checks if the cache may be used, without going to Redis.
+   */
+  boolean isAvailable();
+
+  /**
+   * Starts a batch of commands, to be closed once done. While the circuit breaker is half open,
+   * the batch is one of its probes and its execution decides whether the breaker closes.
+   * @throws CacheClientException if Redis can't be reached or the circuit breaker rejects it
+   */
+  Batch batch();
+
+  /**
+   * Listens to the messages published on the channel until shut down, resubscribing whenever
+   * the connection is lost.
+   * @param onSubscribe run on every subscription, messages published while unsubscribed are lost
+   */
+  void subscribe(String channel, Consumer<String> onMessage, Runnable onSubscribe);
+
+  interface Batch extends AutoCloseable {
+
+    /**
+     * Values of the keys, null for missing keys.
+     */
+    Supplier<List<byte[]>> mget(List<String> keys);
+
+    /**
+     * Fields of the hash, empty if missing.
+     */
+    Supplier<Map<String, String>> hgetAll(String key);
+
+    void hmset(String key, Map<String, String> hash);
+
+    void expire(String key, int seconds);
+
+    void setex(String key, int seconds, byte[] value);
+
+    /**
+     * SET with NX and PX.
+     * @return true if the key was set
+     */
+    Supplier<Boolean> setIfAbsent(String key, String value, long expiryMs);
+
+    Supplier<Long> incrBy(String key, long increment);
+
+    /**
+     * Runs a Lua script returning an integer.
+     */
+    Supplier<Long> eval(String script, List<String> keys, List<byte[]> args);
+
+    Supplier<Boolean> exists(String key);
+
+    void del(String key);
+
+    void sadd(String key, String member);
+
+    /**
+     * Members of the set, empty if missing.
+     */
+    Supplier<Set<String>> smembers(String key);
+
+    void srem(String key, Collection<String> members);
+
+    void publish(String channel, String message);
+
+    void geoadd(String key, double longitude, double latitude, String member);
+
+    /**
+     * Members of the geo set within the radius of the point, in no particular order.
+     */
+    Supplier<List<String>> georadius(String key, double longitude, double latitude,
+        double radiusInKms);
+
+    void zrem(String key, String member);
+
+    /**
+     * Sends the commands added since the last call and waits for their replies.
+     * @throws CacheClientException if Redis can't be reached or a command fails
+     */
+    void execute();
+
+    @Override
+    void close();
+  }
+}
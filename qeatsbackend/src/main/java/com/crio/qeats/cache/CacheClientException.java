@@ -0,0 +1,22 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+/**
+ * Failure of a {@link CacheClient} to reach Redis or run a command, whatever the client.
+ */
+public class CacheClientException extends RuntimeException {
+
+  public CacheClientException(String message) {
+    super(message);
+  }
+
+  public CacheClientException(Throwable cause) {
+    super(cause.getMessage(), cause);
+  }
+}
@@ -0,0 +1,28 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entry of the {@link RestaurantCellCache}, the ids of the restaurants of a cell with the time
+ * after which they are refreshed. Their bodies are stored once per restaurant, see
+ * {@link RestaurantHashes}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CachedCell {
+
+  // Epoch millis.
+  private long softExpiresAt;
+  private List<String> restaurantIds;
+}
@@ -0,0 +1,26 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import java.io.IOException;
+
+/**
+ * Encodes the entries of the {@link RestaurantCellCache} into Redis values.
+ * Implementations must be thread safe.
+ */
+public interface CachedCellCodec {
+
+  byte[] encode(CachedCell cachedCell) throws IOException;
+
+  /**
+   * Decodes a value written by {@link #encode}.
+   * @return null if the value was written in another format or version, e.g. before a deploy
+   * @throws IOException if the value is corrupt
+   */
+  CachedCell decode(byte[] value) throws IOException;
+}
@@ -0,0 +1,226 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import com.crio.qeats.configs.RedisCircuitBreaker;
+import com.crio.qeats.configs.RedisConfiguration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.GeoRadiusResponse;
+import redis.clients.jedis.GeoUnit;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * {@link CacheClient} running every batch on a pipeline of a connection borrowed from the
+ * {@link RedisConfiguration} pool. The {@link RedisCircuitBreaker} sees failures to borrow a
+ * connection and the outcome and latency of every batch execution.
+ */
+@Component
+@ConditionalOnProperty(name = "qeats.redis.client", havingValue = "jedis", matchIfMissing = true)
+public class JedisCacheClient implements CacheClient {
+
+  private final RedisConfiguration redisConfiguration;
+  private final RedisCircuitBreaker redisCircuitBreaker;
+  private final List<JedisSubscription> subscriptions = new ArrayList<>();
+
+  public JedisCacheClient(RedisConfiguration redisConfiguration,
+      RedisCircuitBreaker redisCircuitBreaker) {
+    this.redisConfiguration = redisConfiguration;
+    this.redisCircuitBreaker = redisCircuitBreaker;
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    subscriptions.forEach(JedisSubscription::stop);
+  }
+
+  @Override
+  public boolean isAvailable() {
+    return redisConfiguration.isCacheAvailable();
+  }
+
+  @Override
+  public Batch batch() {
+    if (!redisCircuitBreaker.allowRequest()) {
+      throw new CacheClientException("Redis circuit breaker is open");
+    }
+    try {
+      return new JedisBatch(redisConfiguration.getJedisPool().getResource());
+    } catch (JedisException e) {
+      redisCircuitBreaker.recordFailure();
+      throw new CacheClientException(e);
+    }
+  }
+
+  @Override
+  public synchronized void subscribe(String channel, Consumer<String> onMessage,
+      Runnable onSubscribe) {
+    JedisSubscription subscription = new JedisSubscription(RedisConfiguration.redisHost,
+        redisConfiguration.getRedisPort(), channel, onMessage, onSubscribe);
+    subscriptions.add(subscription);
+    subscription.start();
+  }
+
+  static <T> Supplier<T> replyOf(Response<T> response) {
+    return () -> {
+      try {
+        return response.get();
+      } catch (JedisException e) {
+        throw new CacheClientException(e);
+      }
+    };
+  }
+
+  static Supplier<List<String>> membersOf(Supplier<List<GeoRadiusResponse>> reply) {
+    return () -> {
+      List<String> members = new ArrayList<>();
+      reply.get().forEach(member -> members.add(member.getMemberByString()));
+      return members;
+    };
+  }
+
+  private final class JedisBatch implements Batch {
+
+    private final Jedis jedis;
+    private final Pipeline pipeline;
+
+    private JedisBatch(Jedis jedis) {
+      this.jedis = jedis;
+      this.pipeline = jedis.pipelined();
+    }
+
+    @Override
+    public Supplier<List<byte[]>> mget(List<String> keys) {
+      byte[][] rawKeys = new byte[keys.size()][];
+      for (int i = 0; i < rawKeys.length; i++) {
+        rawKeys[i] = SafeEncoder.encode(keys.get(i));
+      }
+      return replyOf(pipeline.mget(rawKeys));
+    }
+
+    @Override
+    public Supplier<Map<String, String>> hgetAll(String key) {
+      return replyOf(pipeline.hgetAll(key));
+    }
+
+    @Override
+    public void hmset(String key, Map<String, String> hash) {
+      pipeline.hmset(key, hash);
+    }
+
+    @Override
+    public void expire(String key, int seconds) {
+      pipeline.expire(key, seconds);
+    }
+
+    @Override
+    public void setex(String key, int seconds, byte[] value) {
+      pipeline.setex(SafeEncoder.encode(key), seconds, value);
+    }
+
+    @Override
+    public Supplier<Boolean> setIfAbsent(String key, String value, long expiryMs) {
+      Supplier<String> reply = replyOf(
+          pipeline.set(key, value, "NX", "PX", Math.toIntExact(expiryMs)));
+      return () -> "OK".equals(reply.get());
+    }
+
+    @Override
+    public Supplier<Long> incrBy(String key, long increment) {
+      return replyOf(pipeline.incrBy(key, increment));
+    }
+
+    @Override
+    public Supplier<Long> eval(String script, List<String> keys, List<byte[]> args) {
+      List<byte[]> rawKeys = new ArrayList<>(keys.size());
+      for (String key : keys) {
+        rawKeys.add(SafeEncoder.encode(key));
+      }
+      Supplier<Object> reply = replyOf(pipeline.eval(SafeEncoder.encode(script), rawKeys, args));
+      return () -> (Long) reply.get();
+    }
+
+    @Override
+    public Supplier<Boolean> exists(String key) {
+      return replyOf(pipeline.exists(key));
+    }
+
+    @Override
+    public void del(String key) {
+      pipeline.del(key);
+    }
+
+    @Override
+    public void sadd(String key, String member) {
+      pipeline.sadd(key, member);
+    }
+
+    @Override
+    public Supplier<Set<String>> smembers(String key) {
+      return replyOf(pipeline.smembers(key));
+    }
+
+    @Override
+    public void srem(String key, Collection<String> members) {
+      pipeline.srem(key, members.toArray(new String[0]));
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+      pipeline.publish(channel, message);
+    }
+
+    @Override
+    public void geoadd(String key, double longitude, double latitude, String member) {
+      pipeline.geoadd(key, longitude, latitude, member);
+    }
+
+    @Override
+    public Supplier<List<String>> georadius(String key, double longitude, double latitude,
+        double radiusInKms) {
+      return membersOf(replyOf(
+          pipeline.georadius(key, longitude, latitude, radiusInKms, GeoUnit.KM)));
+    }
+
+    @Override
+    public void zrem(String key, String member) {
+      pipeline.zrem(key, member);
+    }
+
+    @Override
+    public void execute() {
+      long startTime = System.nanoTime();
+      try {
+        pipeline.sync();
+      } catch (JedisException e) {
+        redisCircuitBreaker.recordFailure();
+        throw new CacheClientException(e);
+      }
+      redisCircuitBreaker.recordSuccess(
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    @Override
+    public void close() {
+      jedis.close();
+    }
+  }
+}
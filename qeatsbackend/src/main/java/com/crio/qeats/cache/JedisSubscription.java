@@ -0,0 +1,80 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import java.util.function.Consumer;
+import lombok.extern.log4j.Log4j2;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * Subscription of the Jedis based {@link CacheClient}s to a channel, on a thread of its own.
+ * Resubscribes whenever the connection to Redis is lost.
+ */
+@Log4j2
+final class JedisSubscription extends JedisPubSub implements Runnable {
+
+  private static final long RESUBSCRIBE_DELAY_MS = 1000;
+
+  private final String host;
+  private final int port;
+  private final String channel;
+  private final Consumer<String> onMessage;
+  private final Runnable onSubscribe;
+  private volatile boolean running = true;
+
+  JedisSubscription(String host, int port, String channel, Consumer<String> onMessage,
+      Runnable onSubscribe) {
+    this.host = host;
+    this.port = port;
+    this.channel = channel;
+    this.onMessage = onMessage;
+    this.onSubscribe = onSubscribe;
+  }
+
+  void start() {
+    Thread subscriberThread = new Thread(this, channel);
+    subscriberThread.setDaemon(true);
+    subscriberThread.start();
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      // Held for as long as the subscription lasts, so not taken from a pool where it would
+      // count as a slow call and take up a connection.
+      try (Jedis jedis = new Jedis(host, port)) {
+        jedis.subscribe(this, channel);
+      } catch (RuntimeException e) {
+        log.debug("Lost the subscription to {}", channel, e);
+      }
+      try {
+        Thread.sleep(RESUBSCRIBE_DELAY_MS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void onSubscribe(String channel, int subscribedChannels) {
+    onSubscribe.run();
+  }
+
+  @Override
+  public void onMessage(String channel, String message) {
+    onMessage.accept(message);
+  }
+
+  void stop() {
+    running = false;
+    if (isSubscribed()) {
+      unsubscribe();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * JSON format of the cache entries, readable with redis-cli when debugging the cache.
+ */
+@Component
+@ConditionalOnProperty(name = "qeats.cache.codec", havingValue = "json")
+public class JsonCachedCellCodec extends VersionedCachedCellCodec {
+
+  private static final byte VERSION = 3;
+
+  // Readers and writers are immutable, built once and shared by all requests.
+  private final ObjectReader reader;
+  private final ObjectWriter writer;
+
+  public JsonCachedCellCodec(
+      @Value("${qeats.cache.codec.compress-above-bytes:2048}") int compressAboveBytes) {
+    super(compressAboveBytes);
+    ObjectMapper objectMapper = new ObjectMapper();
+    this.reader = objectMapper.readerFor(CachedCell.class);
+    this.writer = objectMapper.writerFor(CachedCell.class);
+  }
+
+  @Override
+  protected byte version() {
+    return VERSION;
+  }
+
+  @Override
+  protected byte[] encodeBody(CachedCell cachedCell) throws IOException {
+    return writer.writeValueAsBytes(cachedCell);
+  }
+
+  @Override
+  protected CachedCell decodeBody(byte[] body) throws IOException {
+    return reader.readValue(body);
+  }
+}
@@ -0,0 +1,393 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import com.crio.qeats.configs.RedisCircuitBreaker;
+import com.crio.qeats.configs.RedisConfiguration;
+import io.lettuce.core.GeoArgs;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link CacheClient} on the asynchronous API of Lettuce. All threads share a few connections,
+ * each batch writing its commands to one of them without waiting for the replies of the
+ * others, so that requests never queue for a connection the way they do on an exhausted pool.
+ * Connections are opened on first use and reconnect on their own. The outcome and latency of
+ * every batch are reported to the {@link RedisCircuitBreaker}. Errors of single commands, e.g.
+ * WRONGTYPE, are Redis replying fine and come out of their reply, as they do on Jedis.
+ */
+@Component
+@ConditionalOnProperty(name = "qeats.redis.client", havingValue = "lettuce")
+@Log4j2
+public class LettuceCacheClient implements CacheClient {
+
+  private static final long RESUBSCRIBE_DELAY_MS = 1000;
+
+  private final RedisConfiguration redisConfiguration;
+  private final RedisCircuitBreaker redisCircuitBreaker;
+  private final int connectionCount;
+  private final long timeoutMs;
+
+  private RedisClient redisClient;
+  private final AtomicReferenceArray<StatefulRedisConnection<byte[], byte[]>> connections;
+  private final AtomicInteger nextConnection = new AtomicInteger();
+  private final List<StatefulRedisPubSubConnection<byte[], byte[]>> subscriptions =
+      new ArrayList<>();
+  private volatile boolean running = true;
+
+  public LettuceCacheClient(RedisConfiguration redisConfiguration,
+      RedisCircuitBreaker redisCircuitBreaker,
+      @Value("${qeats.redis.lettuce.connections:4}") int connectionCount,
+      @Value("${qeats.redis.lettuce.timeout-ms:2000}") long timeoutMs) {
+    this.redisConfiguration = redisConfiguration;
+    this.redisCircuitBreaker = redisCircuitBreaker;
+    this.connectionCount = connectionCount;
+    this.timeoutMs = timeoutMs;
+    this.connections = new AtomicReferenceArray<>(connectionCount);
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    running = false;
+    subscriptions.forEach(StatefulRedisPubSubConnection::close);
+    for (int i = 0; i < connectionCount; i++) {
+      StatefulRedisConnection<byte[], byte[]> connection = connections.getAndSet(i, null);
+      if (connection != null) {
+        connection.close();
+      }
+    }
+    if (redisClient != null) {
+      redisClient.shutdown();
+    }
+  }
+
+  @Override
+  public boolean isAvailable() {
+    // Switched off and on with the cache, as for Jedis.
+    return redisConfiguration.isCacheAvailable();
+  }
+
+  @Override
+  public Batch batch() {
+    if (!redisCircuitBreaker.allowRequest()) {
+      throw new CacheClientException("Redis circuit breaker is open");
+    }
+    return new LettuceBatch(connection().async());
+  }
+
+  // Connections in turn, each opened on first use outside of the lock, so that a slow connect
+  // doesn't hold up batches on the connections already open.
+  private StatefulRedisConnection<byte[], byte[]> connection() {
+    int index = Math.floorMod(nextConnection.getAndIncrement(), connectionCount);
+    StatefulRedisConnection<byte[], byte[]> connection = connections.get(index);
+    if (connection != null) {
+      return connection;
+    }
+    try {
+      connection = client().connect(ByteArrayCodec.INSTANCE);
+    } catch (RedisException e) {
+      redisCircuitBreaker.recordFailure();
+      throw new CacheClientException(e);
+    }
+    if (!connections.compareAndSet(index, null, connection)) {
+      // Opened by another thread meanwhile.
+      connection.close();
+      return connections.get(index);
+    }
+    return connection;
+  }
+
+  private synchronized RedisClient client() {
+    if (redisClient == null) {
+      redisClient = RedisClient.create(
+          RedisURI.create(RedisConfiguration.redisHost, redisConfiguration.getRedisPort()));
+      redisClient.setDefaultTimeout(Duration.ofMillis(timeoutMs));
+    }
+    return redisClient;
+  }
+
+  @Override
+  public void subscribe(String channel, Consumer<String> onMessage, Runnable onSubscribe) {
+    Thread subscriberThread = new Thread(() -> {
+      // Retried until Redis is up, the connection then resubscribes on its own.
+      while (running) {
+        try {
+          subscribeOnce(channel, onMessage, onSubscribe);
+          return;
+        } catch (RedisException e) {
+          log.debug("Failed to subscribe to {}", channel, e);
+        }
+        try {
+          Thread.sleep(RESUBSCRIBE_DELAY_MS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }, channel);
+    subscriberThread.setDaemon(true);
+    subscriberThread.start();
+  }
+
+  private void subscribeOnce(String channel, Consumer<String> onMessage,
+      Runnable onSubscribe) {
+    if (!running) {
+      return;
+    }
+    StatefulRedisPubSubConnection<byte[], byte[]> subscription =
+        client().connectPubSub(ByteArrayCodec.INSTANCE);
+    subscription.addListener(new RedisPubSubAdapter<byte[], byte[]>() {
+      @Override
+      public void subscribed(byte[] subscribedChannel, long count) {
+        onSubscribe.run();
+      }
+
+      @Override
+      public void message(byte[] messageChannel, byte[] message) {
+        onMessage.accept(new String(message, StandardCharsets.UTF_8));
+      }
+    });
+    synchronized (this) {
+      if (!running) {
+        subscription.close();
+        return;
+      }
+      subscriptions.add(subscription);
+    }
+    subscription.async().subscribe(bytesOf(channel));
+  }
+
+  private static byte[] bytesOf(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String stringOf(byte[] value) {
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  private final class LettuceBatch implements Batch {
+
+    private final RedisAsyncCommands<byte[], byte[]> commands;
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    private LettuceBatch(RedisAsyncCommands<byte[], byte[]> commands) {
+      this.commands = commands;
+    }
+
+    private <T> Supplier<T> add(RedisFuture<T> reply) {
+      pending.add(reply);
+      return () -> {
+        try {
+          return reply.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new CacheClientException(e);
+        } catch (ExecutionException e) {
+          throw new CacheClientException(e.getCause());
+        }
+      };
+    }
+
+    @Override
+    public Supplier<List<byte[]>> mget(List<String> keys) {
+      byte[][] rawKeys = new byte[keys.size()][];
+      for (int i = 0; i < rawKeys.length; i++) {
+        rawKeys[i] = bytesOf(keys.get(i));
+      }
+      Supplier<List<KeyValue<byte[], byte[]>>> reply = add(commands.mget(rawKeys));
+      return () -> {
+        List<byte[]> values = new ArrayList<>(rawKeys.length);
+        for (KeyValue<byte[], byte[]> keyValue : reply.get()) {
+          values.add(keyValue.hasValue() ? keyValue.getValue() : null);
+        }
+        return values;
+      };
+    }
+
+    @Override
+    public Supplier<Map<String, String>> hgetAll(String key) {
+      Supplier<Map<byte[], byte[]>> reply = add(commands.hgetall(bytesOf(key)));
+      return () -> {
+        Map<String, String> hash = new HashMap<>();
+        reply.get().forEach((field, value) -> hash.put(stringOf(field), stringOf(value)));
+        return hash;
+      };
+    }
+
+    @Override
+    public void hmset(String key, Map<String, String> hash) {
+      Map<byte[], byte[]> rawHash = new HashMap<>();
+      hash.forEach((field, value) -> rawHash.put(bytesOf(field), bytesOf(value)));
+      add(commands.hmset(bytesOf(key), rawHash));
+    }
+
+    @Override
+    public void expire(String key, int seconds) {
+      add(commands.expire(bytesOf(key), seconds));
+    }
+
+    @Override
+    public void setex(String key, int seconds, byte[] value) {
+      add(commands.setex(bytesOf(key), seconds, value));
+    }
+
+    @Override
+    public Supplier<Boolean> setIfAbsent(String key, String value, long expiryMs) {
+      Supplier<String> reply =
+          add(commands.set(bytesOf(key), bytesOf(value), SetArgs.Builder.nx().px(expiryMs)));
+      return () -> "OK".equals(reply.get());
+    }
+
+    @Override
+    public Supplier<Long> incrBy(String key, long increment) {
+      return add(commands.incrby(bytesOf(key), increment));
+    }
+
+    @Override
+    public Supplier<Long> eval(String script, List<String> keys, List<byte[]> args) {
+      byte[][] rawKeys = new byte[keys.size()][];
+      for (int i = 0; i < rawKeys.length; i++) {
+        rawKeys[i] = bytesOf(keys.get(i));
+      }
+      RedisFuture<Long> reply = commands.eval(script, ScriptOutputType.INTEGER, rawKeys,
+          args.toArray(new byte[0][]));
+      return add(reply);
+    }
+
+    @Override
+    public Supplier<Boolean> exists(String key) {
+      Supplier<Long> reply = add(commands.exists(bytesOf(key)));
+      return () -> reply.get() > 0;
+    }
+
+    @Override
+    public void del(String key) {
+      add(commands.del(bytesOf(key)));
+    }
+
+    @Override
+    public void sadd(String key, String member) {
+      add(commands.sadd(bytesOf(key), bytesOf(member)));
+    }
+
+    @Override
+    public Supplier<Set<String>> smembers(String key) {
+      Supplier<Set<byte[]>> reply = add(commands.smembers(bytesOf(key)));
+      return () -> {
+        Set<String> members = new HashSet<>();
+        reply.get().forEach(member -> members.add(stringOf(member)));
+        return members;
+      };
+    }
+
+    @Override
+    public void srem(String key, Collection<String> members) {
+      byte[][] rawMembers = new byte[members.size()][];
+      int i = 0;
+      for (String member : members) {
+        rawMembers[i++] = bytesOf(member);
+      }
+      add(commands.srem(bytesOf(key), rawMembers));
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+      add(commands.publish(bytesOf(channel), bytesOf(message)));
+    }
+
+    @Override
+    public void geoadd(String key, double longitude, double latitude, String member) {
+      add(commands.geoadd(bytesOf(key), longitude, latitude, bytesOf(member)));
+    }
+
+    @Override
+    public Supplier<List<String>> georadius(String key, double longitude, double latitude,
+        double radiusInKms) {
+      Supplier<Set<byte[]>> reply = add(
+          commands.georadius(bytesOf(key), longitude, latitude, radiusInKms, GeoArgs.Unit.km));
+      return () -> {
+        List<String> members = new ArrayList<>();
+        reply.get().forEach(member -> members.add(stringOf(member)));
+        return members;
+      };
+    }
+
+    @Override
+    public void zrem(String key, String member) {
+      add(commands.zrem(bytesOf(key), bytesOf(member)));
+    }
+
+    @Override
+    public void execute() {
+      if (pending.isEmpty()) {
+        return;
+      }
+      long startTime = System.nanoTime();
+      long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+      try {
+        for (Future<?> reply : pending) {
+          try {
+            reply.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof RedisCommandExecutionException)) {
+              redisCircuitBreaker.recordFailure();
+              throw new CacheClientException(e.getCause());
+            }
+          }
+        }
+      } catch (TimeoutException e) {
+        redisCircuitBreaker.recordFailure();
+        throw new CacheClientException("Redis did not reply within " + timeoutMs + " ms");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CacheClientException(e);
+      } finally {
+        pending.clear();
+      }
+      redisCircuitBreaker.recordSuccess(
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    @Override
+    public void close() {
+      // The connection is shared, it stays open.
+    }
+  }
+}
@@ -0,0 +1,307 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import com.crio.qeats.changefeed.ChangeFeedConsumer;
+import com.crio.qeats.changefeed.RestaurantChangeListener;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.repositories.RestaurantRepository;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shared Redis view of all restaurants for close-by lookups, through the {@link CacheClient}.
+ * - Coordinates of every restaurant live in one geo set, queried with GEORADIUS.
+ * - Each restaurant is stored once as a hash, see {@link RestaurantHashes}, fetched with a
+ *   pipelined HGETALL.
+ * The view is rebuilt from Mongo in the background by one node at a time, holding a lock with a
+ * fencing token, into a geo set of its own that is swapped in with a RENAME only while the lock
+ * is still held. All keys share the "restaurants:geo" hash tag, so they stay on one node when
+ * sharded.
+ * Between reloads, changes from the {@link ChangeFeedConsumer} are written through. Every node
+ * applies them, which is harmless as the writes are idempotent. Changes seen while this node
+ * reloads are also replayed onto the reloaded set before it is swapped in, as the reload may
+ * have read the restaurants before they changed. Changes that fail to be written while Redis is
+ * down are kept, and the geo set is not queried until they are written on the next change or
+ * sync, so that a failure never holds up the change feed.
+ */
+@Component
+@Log4j2
+public class RedisRestaurantGeoStore implements RestaurantChangeListener {
+
+  public static final String BACKEND_REDIS_GEO = "redis-geo";
+
+  static final String GEO_KEY = "{restaurants:geo}";
+
+  private static final String LOADING_GEO_KEY_PREFIX = GEO_KEY + ":loading:";
+  private static final String SYNC_LOCK_KEY = GEO_KEY + ":sync-lock";
+  // Set once a reload is swapped in, so that the other nodes skip their next one.
+  private static final String SYNCED_KEY = GEO_KEY + ":synced";
+  private static final int SYNC_BATCH_SIZE = 500;
+  // GEORADIUS measures on a larger earth than GeoUtils, widened so that restaurants on the edge
+  // of the radius stay candidates.
+  private static final double RADIUS_MARGIN = 1.001;
+  // Extends the lock and the reloaded set while the lock holds the fencing token of the reload.
+  private static final String EXTEND_LOCK_SCRIPT =
+      "if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('PEXPIRE', KEYS[1], ARGV[2]) "
+          + "redis.call('PEXPIRE', KEYS[2], ARGV[2]) return 1 end return 0";
+  // Swaps the reloaded set in and releases the lock, if it still holds the fencing token.
+  private static final String SWAP_SCRIPT =
+      "if redis.call('GET', KEYS[1]) ~= ARGV[1] then redis.call('DEL', KEYS[2]) return 0 end "
+          + "if redis.call('EXISTS', KEYS[2]) == 1 then "
+          + "redis.call('RENAME', KEYS[2], KEYS[3]) redis.call('PERSIST', KEYS[3]) "
+          + "else redis.call('DEL', KEYS[3]) end "
+          + "redis.call('SET', KEYS[4], '1', 'PX', ARGV[2]) redis.call('DEL', KEYS[1]) return 1";
+
+  @Autowired
+  private CacheClient cacheClient;
+
+  @Autowired
+  private RestaurantRepository restaurantRepository;
+
+  @Value("${qeats.closeby.backend:cache}")
+  private String backend;
+
+  @Value("${qeats.redis-geo.sync-interval-ms:300000}")
+  private long syncIntervalMs;
+
+  private volatile boolean ready;
+
+  // Latest version of the restaurants changed since the running reload of this node started,
+  // null for deleted ones, or null while not reloading.
+  private Map<String, RestaurantEntity> changedWhileLoading;
+  // Latest version of the restaurants changed but not written yet, null for deleted ones.
+  private final Map<String, RestaurantEntity> pendingChanges = new HashMap<>();
+  // Set while pendingChanges is not empty, read without the lock by the queries.
+  private volatile boolean behind;
+
+  /**
+   * Checks if close-by queries should be answered from the Redis geo set.
+   * @return true if the backend is selected, the geo set has been loaded and no change to it is
+   *     pending.
+   */
+  public boolean isEnabled() {
+    return BACKEND_REDIS_GEO.equals(backend) && !behind && isReady();
+  }
+
+  private boolean isReady() {
+    if (!ready && cacheClient.isAvailable()) {
+      try (CacheClient.Batch batch = cacheClient.batch()) {
+        // Another node may already have loaded the shared geo set.
+        Supplier<Boolean> exists = batch.exists(GEO_KEY);
+        batch.execute();
+        ready = exists.get();
+      } catch (CacheClientException e) {
+        // Counted by the circuit breaker.
+        log.debug("Failed to check for the redis geo set", e);
+      }
+    }
+    return ready;
+  }
+
+  /**
+   * Reloads the geo set and the restaurant hashes from the database.
+   * Only one node does the reload per sync interval.
+   */
+  @Scheduled(initialDelayString = "${qeats.redis-geo.initial-delay-ms:0}",
+      fixedDelayString = "${qeats.redis-geo.sync-interval-ms:300000}")
+  public void sync() {
+    if (!BACKEND_REDIS_GEO.equals(backend) || !cacheClient.isAvailable()) {
+      return;
+    }
+    writePendingChanges();
+
+    String token = UUID.randomUUID().toString();
+    long lockMs = Math.max(1000, syncIntervalMs / 2);
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<Boolean> synced = batch.exists(SYNCED_KEY);
+      batch.execute();
+      if (synced.get()) {
+        return;
+      }
+      Supplier<Boolean> locked = batch.setIfAbsent(SYNC_LOCK_KEY, token, lockMs);
+      batch.execute();
+      if (!locked.get()) {
+        return;
+      }
+
+      long startTime = System.currentTimeMillis();
+      int loaded = load(batch, token, lockMs);
+      if (loaded < 0) {
+        log.warn("Lost the redis geo set sync lock, dropped the reload");
+        return;
+      }
+      ready = true;
+      log.info("Loaded {} restaurants into redis geo set in {} ms", loaded,
+          System.currentTimeMillis() - startTime);
+    } catch (Exception e) {
+      log.error("Failed to sync restaurants into redis geo set", e);
+    }
+  }
+
+  /**
+   * Writes changed restaurants to the geo set and removes deleted ones.
+   * If Redis can't be reached, the changes are kept to be written on the next change or sync.
+   */
+  @Override
+  public synchronized void onRestaurantsChanged(List<RestaurantEntity> changed,
+      Set<String> deletedIds) {
+    if (!BACKEND_REDIS_GEO.equals(backend)) {
+      return;
+    }
+    if (changedWhileLoading != null) {
+      changed.forEach(
+          restaurantEntity -> changedWhileLoading.put(restaurantEntity.getId(), restaurantEntity));
+      deletedIds.forEach(deletedId -> changedWhileLoading.put(deletedId, null));
+    }
+    if (!isReady()) {
+      return;
+    }
+    changed.forEach(
+        restaurantEntity -> pendingChanges.put(restaurantEntity.getId(), restaurantEntity));
+    deletedIds.forEach(deletedId -> pendingChanges.put(deletedId, null));
+    writePendingChanges();
+  }
+
+  private synchronized void writePendingChanges() {
+    if (pendingChanges.isEmpty()) {
+      return;
+    }
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      for (Map.Entry<String, RestaurantEntity> change : pendingChanges.entrySet()) {
+        write(batch, GEO_KEY, change.getKey(), change.getValue());
+      }
+      batch.execute();
+      pendingChanges.clear();
+      behind = false;
+    } catch (CacheClientException e) {
+      behind = true;
+      log.warn("Failed to write {} restaurant changes to redis geo set, retrying on the next "
+          + "change or sync", pendingChanges.size(), e);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to write restaurant changes to redis", e);
+    }
+  }
+
+  @Override
+  public void onResync() {
+    sync();
+  }
+
+  // Number of restaurants loaded, or -1 if the lock was lost meanwhile.
+  private int load(CacheClient.Batch batch, String token, long lockMs) throws IOException {
+    String loadingKey = LOADING_GEO_KEY_PREFIX + token;
+    List<String> lockKeys = Arrays.asList(SYNC_LOCK_KEY, loadingKey);
+    List<byte[]> lockArgs = Arrays.asList(bytesOf(token), bytesOf(String.valueOf(lockMs)));
+    synchronized (this) {
+      changedWhileLoading = new HashMap<>();
+    }
+    try {
+      int loaded = 0;
+      for (RestaurantEntity restaurantEntity : restaurantRepository.findAll()) {
+        if (restaurantEntity.getLatitude() == null || restaurantEntity.getLongitude() == null) {
+          continue;
+        }
+        write(batch, loadingKey, restaurantEntity.getId(), restaurantEntity);
+        if (++loaded % SYNC_BATCH_SIZE == 0) {
+          Supplier<Long> extended = batch.eval(EXTEND_LOCK_SCRIPT, lockKeys, lockArgs);
+          batch.execute();
+          if (extended.get() == 0) {
+            batch.del(loadingKey);
+            batch.execute();
+            return -1;
+          }
+        }
+      }
+
+      synchronized (this) {
+        for (Map.Entry<String, RestaurantEntity> change : changedWhileLoading.entrySet()) {
+          write(batch, loadingKey, change.getKey(), change.getValue());
+        }
+        Supplier<Long> swapped = batch.eval(SWAP_SCRIPT,
+            Arrays.asList(SYNC_LOCK_KEY, loadingKey, GEO_KEY, SYNCED_KEY), lockArgs);
+        batch.execute();
+        return swapped.get() == 1 ? loaded : -1;
+      }
+    } finally {
+      synchronized (this) {
+        changedWhileLoading = null;
+      }
+    }
+  }
+
+  // Writes the restaurant to the geo set and its hash, or removes it if null or not located.
+  private void write(CacheClient.Batch batch, String geoKey, String restaurantId,
+      RestaurantEntity restaurantEntity) throws IOException {
+    String restaurantKey = RestaurantHashes.keyOf(restaurantId);
+    if (restaurantEntity == null || restaurantEntity.getLatitude() == null
+        || restaurantEntity.getLongitude() == null) {
+      batch.zrem(geoKey, restaurantId);
+      batch.del(restaurantKey);
+      return;
+    }
+    // Bodies outlive a couple of sync rounds so that deleted restaurants eventually expire.
+    int bodyExpiryInSeconds = (int) Math.max(60, 3 * syncIntervalMs / 1000);
+    batch.hmset(restaurantKey, RestaurantHashes.toHash(restaurantEntity));
+    batch.expire(restaurantKey, bodyExpiryInSeconds);
+    batch.geoadd(geoKey, restaurantEntity.getLongitude(), restaurantEntity.getLatitude(),
+        restaurantId);
+  }
+
+  /**
+   * Get all restaurants within the given radius using GEORADIUS, and a few on its edge.
+   * @return restaurants within the radius, irrespective of their opening hours
+   * @throws CacheClientException if Redis can't be reached
+   */
+  public List<RestaurantEntity> findWithin(double latitude, double longitude,
+      double radiusInKms) {
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<List<String>> members =
+          batch.georadius(GEO_KEY, longitude, latitude, radiusInKms * RADIUS_MARGIN);
+      batch.execute();
+      if (members.get().isEmpty()) {
+        return Collections.emptyList();
+      }
+
+      List<Supplier<Map<String, String>>> bodies = new ArrayList<>(members.get().size());
+      for (String member : members.get()) {
+        bodies.add(batch.hgetAll(RestaurantHashes.keyOf(member)));
+      }
+      batch.execute();
+
+      List<RestaurantEntity> restaurantEntities = new ArrayList<>(bodies.size());
+      for (Supplier<Map<String, String>> body : bodies) {
+        Map<String, String> hash = body.get();
+        if (!hash.isEmpty()) {
+          restaurantEntities.add(RestaurantHashes.fromHash(hash));
+        }
+      }
+      return restaurantEntities;
+    } catch (IOException e) {
+      throw new IllegalStateException("Corrupt restaurant entry in redis", e);
+    }
+  }
+
+  private static byte[] bytesOf(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
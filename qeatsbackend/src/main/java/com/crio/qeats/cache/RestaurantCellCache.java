@@ -0,0 +1,1131 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import com.crio.qeats.changefeed.RestaurantChangeListener;
+import com.crio.qeats.globals.GlobalConstants;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.GeoHashCells;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Redis cache of the restaurants in a geohash cell which may be open during a time slot.
+ * Entries are keyed on the serving radius class, the time slot and the cell, e.g.
+ * "closeby:r3:s72:{tsq4d2}", and hold the ids of the restaurants. Their bodies are stored once per
+ * restaurant as a hash, see {@link RestaurantHashes}, so that memory grows with the restaurants
+ * rather than with the entries of every radius class and slot holding them, and a restaurant
+ * change rewrites a single key.
+ * Thanks to the keys
+ * - peak and normal serving radius never share entries,
+ * - an entry only holds restaurants that may be open in its slot, and
+ * - users in neighbouring cells share the entries of the cells both of their radii cover.
+ * An entry whose bodies are gone is a miss.
+ * Redis is reached through the {@link CacheClient}, Jedis or Lettuce, on one node or sharded.
+ * The cell is the hash tag of the keys, so the entries and locks of a cell share a shard.
+ * Hits and misses are counted per cell in "qeats.cache.closeby.cells", tagged with the radius
+ * class and the cell precision, to tune the precision.
+ * Concurrent misses on the same entry are loaded once, see {@link #getOrLoadCells}.
+ * Entries carry a soft expiry ahead of their Redis TTL. Past it they are still served, while a
+ * single background refresh replaces them, so that hot entries don't all expire into the
+ * database at once.
+ * Recently read entries are also kept deserialized in a bounded near cache on the heap for a few
+ * seconds. Writes update the near cache of the writing node and are published on
+ * {@link #INVALIDATION_CHANNEL}, for the other nodes to drop their copy.
+ * Entries loaded by requests are written behind by a single writer thread, which batches the
+ * writes waiting in a bounded queue into one pipeline, so that requests don't wait on Redis for
+ * them. Writes that don't fit in the queue are dropped, counted in "qeats.cache.closeby.writes"
+ * next to the queued and written ones.
+ * Every entry is listed in a set per cell, e.g. "closeby-cell:{tsq4d2}", from the time it is
+ * locked for loading, so that restaurant changes drop the entries of the cells they touch
+ * rather than waiting for them to expire, see {@link #onRestaurantsChanged}. Invalidations may
+ * also name restaurant bodies, e.g. "restaurant:11", for the nodes to drop the near cache
+ * entries holding them. Changes seen while Redis is down are kept and applied once it is back,
+ * so that they never hold up the change feed.
+ */
+@Component
+// Ahead of the listeners replacing restaurant bodies, which hold the previous locations.
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@Log4j2
+public class RestaurantCellCache implements RestaurantChangeListener {
+
+  static final String KEY_PREFIX = "closeby:";
+  static final String LOCK_KEY_PREFIX = "closeby-lock:";
+  static final String CELL_INDEX_KEY_PREFIX = "closeby-cell:";
+  static final String INVALIDATION_CHANNEL = "closeby-invalidations";
+
+  private static final String FENCING_TOKEN_KEY = "closeby-lock:fencing-token";
+  // Writes the entry only if the lock still holds the fencing token of the loader.
+  private static final String PUT_IF_LOCKED_SCRIPT =
+      "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+          + "redis.call('SETEX', KEYS[2], ARGV[2], ARGV[3]); return 1 end return 0";
+  // Replaces the body of a restaurant if cached, keeping its expiry.
+  private static final String REFRESH_BODY_SCRIPT =
+      "local ttl = redis.call('PTTL', KEYS[1]) if ttl > 0 then redis.call('DEL', KEYS[1]) "
+          + "redis.call('HMSET', KEYS[1], unpack(ARGV)) redis.call('PEXPIRE', KEYS[1], ttl) "
+          + "return 1 end return 0";
+  private static final String UNLOCK_SCRIPT =
+      "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end "
+          + "return 0";
+
+  private static final String CELLS_METER = "qeats.cache.closeby.cells";
+  private static final String WRITES_METER = "qeats.cache.closeby.writes";
+  private static final String INVALIDATIONS_METER = "qeats.cache.closeby.invalidations";
+  private static final long WRITE_FLUSH_POLL_MS = 5;
+  // Bodies outlive the entries referring to them.
+  private static final int BODY_EXPIRY_SLACK_IN_SECONDS = 600;
+  // Outlives every entry listed in it, pinned ones included.
+  private static final int CELL_INDEX_EXPIRY_IN_SECONDS = 24 * 3600;
+
+  @Autowired
+  private CacheClient cacheClient;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private CachedCellCodec cachedCellCodec;
+
+  @Value("${qeats.cache.cell-precision:6}")
+  private int cellPrecision;
+
+  @Value("${qeats.cache.load-lock-ms:2000}")
+  private int loadLockMs;
+
+  @Value("${qeats.cache.load-wait-poll-ms:20}")
+  private long loadWaitPollMs;
+
+  // Share of the expiry after which entries are refreshed in the background.
+  @Value("${qeats.cache.soft-expiry-ratio:0.75}")
+  private double softExpiryRatio;
+
+  @Value("${qeats.cache.refresh-threads:2}")
+  private int refreshThreads;
+
+  @Value("${qeats.cache.refresh-queue-size:1000}")
+  private int refreshQueueSize;
+
+  @Value("${qeats.cache.write-queue-size:10000}")
+  private int writeQueueSize;
+
+  @Value("${qeats.cache.write-batch-size:100}")
+  private int writeBatchSize;
+
+  @Value("${qeats.cache.near.enabled:true}")
+  private boolean nearCacheEnabled;
+
+  @Value("${qeats.cache.near.ttl-ms:10000}")
+  private long nearCacheTtlMs;
+
+  // Bound on the restaurants held by the near cache, which weighs entries by their size.
+  @Value("${qeats.cache.near.max-restaurants:200000}")
+  private long nearCacheMaxRestaurants;
+
+  // Loads of this node in progress by entry key, for requests missing the same entry to wait on.
+  private final ConcurrentMap<String, CompletableFuture<List<RestaurantEntity>>> inFlight =
+      new ConcurrentHashMap<>();
+  // Loads of this node written back so far, counted before they leave inFlight.
+  private final AtomicLong loadsWritten = new AtomicLong();
+  // Entry keys of this node being refreshed in the background.
+  private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+  private ThreadPoolExecutor refreshExecutor;
+
+  private BlockingQueue<CellWrite> writeQueue;
+  // Writes queued or being written, for flush() to wait on.
+  private final AtomicInteger pendingWrites = new AtomicInteger();
+  private Thread writerThread;
+
+  // Tells the invalidations this node published from the ones of other nodes.
+  private final String nodeId = UUID.randomUUID().toString();
+  private Cache<String, ResolvedCell> nearCache;
+  // Latest version of the changed restaurants not applied yet, null for deleted ones.
+  private final Map<String, RestaurantEntity> pendingChanges = new LinkedHashMap<>();
+
+  @PostConstruct
+  void start() {
+    AtomicInteger threads = new AtomicInteger();
+    // Refreshes that don't fit in the queue are dropped, the entries are still served until
+    // their hard expiry and the next read past the soft expiry asks again.
+    refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0L,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(refreshQueueSize), runnable -> {
+          Thread thread = new Thread(runnable, "closeby-refresh-" + threads.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+
+    writeQueue = new ArrayBlockingQueue<>(writeQueueSize);
+    meterRegistry.gauge(WRITES_METER + ".queue", writeQueue, Collection::size);
+    writerThread = new Thread(this::runWriter, "closeby-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+
+    if (nearCacheEnabled) {
+      nearCache = CacheBuilder.newBuilder()
+          .maximumWeight(nearCacheMaxRestaurants)
+          .weigher((String key, ResolvedCell resolvedCell) -> 1 + resolvedCell.restaurants.size())
+          .expireAfterWrite(nearCacheTtlMs, TimeUnit.MILLISECONDS)
+          .build();
+      // Invalidations published while unsubscribed are lost.
+      cacheClient.subscribe(INVALIDATION_CHANNEL, this::onInvalidation,
+          this::invalidateNearCache);
+    }
+  }
+
+  @PreDestroy
+  void stop() {
+    refreshExecutor.shutdownNow();
+    flush();
+    writerThread.interrupt();
+  }
+
+  public int getCellPrecision() {
+    return cellPrecision;
+  }
+
+  public boolean isNearCacheEnabled() {
+    return nearCache != null;
+  }
+
+  /**
+   * Radius class used in the keys, the serving radius rounded up to whole kilometers.
+   */
+  public static String radiusClassOf(double servingRadiusInKms) {
+    return "r" + (long) Math.ceil(servingRadiusInKms);
+  }
+
+  static String keyOf(String radiusClass, int slot, String cell) {
+    return KEY_PREFIX + radiusClass + ":s" + slot + ":{" + cell + "}";
+  }
+
+  /**
+   * Get the restaurants of the given cells held by the near cache of this node, without going
+   * to Redis.
+   * @return restaurants by cell, only for the cells that were found in the near cache
+   */
+  public Map<String, List<RestaurantEntity>> getNearCells(String radiusClass, int slot,
+      Collection<String> cells) {
+    Map<String, List<RestaurantEntity>> cached = new HashMap<>();
+    if (nearCache == null) {
+      return cached;
+    }
+    for (String cell : cells) {
+      ResolvedCell resolvedCell = nearCache.getIfPresent(keyOf(radiusClass, slot, cell));
+      if (resolvedCell != null) {
+        cached.put(cell, resolvedCell.restaurants);
+      }
+    }
+    if (cached.size() == cells.size()) {
+      counter(radiusClass, "hit").increment(cached.size());
+    }
+    return cached;
+  }
+
+  /**
+   * Get the cached restaurants of the given cells with a single MGET.
+   * @return restaurants by cell, only for the cells that were found in the cache
+   */
+  public Map<String, List<RestaurantEntity>> getCells(String radiusClass, int slot,
+      Collection<String> cells) {
+    Map<String, List<RestaurantEntity>> cached = readCells(radiusClass, slot, cells, null);
+    counter(radiusClass, "hit").increment(cached.size());
+    counter(radiusClass, "miss").increment(cells.size() - cached.size());
+    return cached;
+  }
+
+  // Reads the given cells, adding the ones past their soft expiry to staleCells if not null.
+  private Map<String, List<RestaurantEntity>> readCells(String radiusClass, int slot,
+      Collection<String> cells, Set<String> staleCells) {
+    long now = System.currentTimeMillis();
+    Map<String, List<RestaurantEntity>> cached = new HashMap<>();
+    List<String> cellList = new ArrayList<>(cells.size());
+    for (String cell : cells) {
+      ResolvedCell resolvedCell =
+          nearCache == null ? null : nearCache.getIfPresent(keyOf(radiusClass, slot, cell));
+      if (resolvedCell == null) {
+        cellList.add(cell);
+        continue;
+      }
+      cached.put(cell, resolvedCell.restaurants);
+      if (staleCells != null && resolvedCell.softExpiresAt <= now) {
+        staleCells.add(cell);
+      }
+    }
+    if (cellList.isEmpty()) {
+      return cached;
+    }
+
+    String[] keys = new String[cellList.size()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = keyOf(radiusClass, slot, cellList.get(i));
+    }
+
+    CachedCell[] cachedCells = new CachedCell[keys.length];
+    Map<String, RestaurantEntity> bodies;
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<List<byte[]>> values = batch.mget(Arrays.asList(keys));
+      batch.execute();
+      Set<String> restaurantIds = new HashSet<>();
+      for (int i = 0; i < keys.length; i++) {
+        cachedCells[i] = decode(keys[i], values.get().get(i));
+        if (cachedCells[i] != null) {
+          restaurantIds.addAll(cachedCells[i].getRestaurantIds());
+        }
+      }
+      bodies = readBodies(batch, restaurantIds);
+    }
+
+    for (int i = 0; i < keys.length; i++) {
+      if (cachedCells[i] == null) {
+        continue;
+      }
+      List<RestaurantEntity> restaurants =
+          new ArrayList<>(cachedCells[i].getRestaurantIds().size());
+      for (String restaurantId : cachedCells[i].getRestaurantIds()) {
+        RestaurantEntity restaurantEntity = bodies.get(restaurantId);
+        if (restaurantEntity == null) {
+          break;
+        }
+        restaurants.add(restaurantEntity);
+      }
+      if (restaurants.size() < cachedCells[i].getRestaurantIds().size()) {
+        log.debug("Bodies of cache entry {} expired, reloading it", keys[i]);
+        continue;
+      }
+
+      if (nearCache != null) {
+        nearCache.put(keys[i], new ResolvedCell(cachedCells[i].getSoftExpiresAt(), restaurants));
+      }
+      cached.put(cellList.get(i), restaurants);
+      if (staleCells != null && cachedCells[i].getSoftExpiresAt() <= now) {
+        staleCells.add(cellList.get(i));
+      }
+    }
+    return cached;
+  }
+
+  private CachedCell decode(String key, byte[] value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      // Null if written by an older deploy, then overwritten on the next put.
+      return cachedCellCodec.decode(value);
+    } catch (IOException e) {
+      // Treat a corrupt entry as a miss, it is overwritten on the next put.
+      log.warn("Ignoring corrupt cache entry {}", key, e);
+      return null;
+    }
+  }
+
+  // Fetches the bodies of the given restaurants with a pipelined HGETALL, leaving out the
+  // expired ones.
+  private Map<String, RestaurantEntity> readBodies(CacheClient.Batch batch,
+      Set<String> restaurantIds) {
+    Map<String, RestaurantEntity> bodies = new HashMap<>();
+    if (restaurantIds.isEmpty()) {
+      return bodies;
+    }
+    Map<String, Supplier<Map<String, String>>> hashes = new HashMap<>();
+    for (String restaurantId : restaurantIds) {
+      hashes.put(restaurantId, batch.hgetAll(RestaurantHashes.keyOf(restaurantId)));
+    }
+    batch.execute();
+
+    for (Map.Entry<String, Supplier<Map<String, String>>> hash : hashes.entrySet()) {
+      Map<String, String> fields = hash.getValue().get();
+      if (fields == null || fields.isEmpty()) {
+        continue;
+      }
+      try {
+        bodies.put(hash.getKey(), RestaurantHashes.fromHash(fields));
+      } catch (IOException | RuntimeException e) {
+        log.warn("Ignoring corrupt restaurant body {}", hash.getKey(), e);
+      }
+    }
+    return bodies;
+  }
+
+  /**
+   * Get the given cells from the cache, loading the missing ones with the loader and caching
+   * them.
+   * A missing entry is loaded by a single request at a time. Within the node, requests missing
+   * an entry that is being loaded wait for that load. Across nodes, the loader holds a short
+   * lock on the entry and other nodes poll the cache until the entry shows up or the lock
+   * expires. The entry is only written while the lock still holds the fencing token of the
+   * loader, so a loader that stalled past its lock never overwrites a newer entry.
+   * Entries past their soft expiry are returned as they are and refreshed in the background.
+   * Loaded entries are written behind, requests of this node waiting on the load are served the
+   * loaded restaurants until then.
+   * @param loader loads the restaurants of the given cells, by cell
+   */
+  public Map<String, List<RestaurantEntity>> getOrLoadCells(String radiusClass, int slot,
+      Collection<String> cells,
+      Function<Set<String>, Map<String, List<RestaurantEntity>>> loader) {
+    long loadsWrittenBeforeRead = loadsWritten.get();
+    Set<String> staleCells = new HashSet<>();
+    Map<String, List<RestaurantEntity>> restaurantsByCell =
+        readCells(radiusClass, slot, cells, staleCells);
+    counter(radiusClass, "hit").increment(restaurantsByCell.size());
+    counter(radiusClass, "miss").increment(cells.size() - restaurantsByCell.size());
+    if (!staleCells.isEmpty()) {
+      refreshInBackground(radiusClass, slot, staleCells, loader);
+    }
+    if (restaurantsByCell.size() == cells.size()) {
+      return restaurantsByCell;
+    }
+
+    Map<String, CompletableFuture<List<RestaurantEntity>>> owned = new HashMap<>();
+    Map<String, CompletableFuture<List<RestaurantEntity>>> awaited = new HashMap<>();
+    for (String cell : cells) {
+      if (restaurantsByCell.containsKey(cell)) {
+        continue;
+      }
+      CompletableFuture<List<RestaurantEntity>> load = new CompletableFuture<>();
+      CompletableFuture<List<RestaurantEntity>> inFlightLoad =
+          inFlight.putIfAbsent(keyOf(radiusClass, slot, cell), load);
+      if (inFlightLoad == null) {
+        owned.put(cell, load);
+      } else {
+        awaited.put(cell, inFlightLoad);
+      }
+    }
+
+    if (!owned.isEmpty()) {
+      Runnable release = () -> {
+        loadsWritten.incrementAndGet();
+        owned.forEach((cell, load) -> inFlight.remove(keyOf(radiusClass, slot, cell), load));
+      };
+      List<CellWrite> cellWrites = new ArrayList<>();
+      try {
+        if (loadsWritten.get() != loadsWrittenBeforeRead) {
+          // A load may have been written back and left inFlight between the read and the claim.
+          Map<String, List<RestaurantEntity>> written =
+              readCells(radiusClass, slot, owned.keySet(), new HashSet<>());
+          for (Map.Entry<String, List<RestaurantEntity>> cellRestaurants : written.entrySet()) {
+            CompletableFuture<List<RestaurantEntity>> load =
+                owned.remove(cellRestaurants.getKey());
+            inFlight.remove(keyOf(radiusClass, slot, cellRestaurants.getKey()), load);
+            load.complete(cellRestaurants.getValue());
+            restaurantsByCell.put(cellRestaurants.getKey(), cellRestaurants.getValue());
+          }
+        }
+        Map<String, List<RestaurantEntity>> loaded = owned.isEmpty() ? Collections.emptyMap()
+            : loadOnce(radiusClass, slot, owned.keySet(), loader, cellWrites);
+        for (Map.Entry<String, CompletableFuture<List<RestaurantEntity>>> load
+            : owned.entrySet()) {
+          List<RestaurantEntity> cellRestaurants =
+              loaded.getOrDefault(load.getKey(), Collections.emptyList());
+          restaurantsByCell.put(load.getKey(), cellRestaurants);
+          load.getValue().complete(cellRestaurants);
+        }
+      } catch (RuntimeException e) {
+        owned.values().forEach(load -> load.completeExceptionally(e));
+        release.run();
+        throw e;
+      }
+      // Requests of this node are served the loaded cells until they can be read back.
+      writeBehind(cellWrites, release);
+    }
+
+    Set<String> unresolved = new HashSet<>();
+    for (Map.Entry<String, CompletableFuture<List<RestaurantEntity>>> load : awaited.entrySet()) {
+      try {
+        restaurantsByCell.put(load.getKey(),
+            load.getValue().get(loadLockMs, TimeUnit.MILLISECONDS));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        unresolved.add(load.getKey());
+      } catch (ExecutionException | TimeoutException e) {
+        // The other load failed or stalled, load it without coordination.
+        unresolved.add(load.getKey());
+      }
+    }
+    if (!unresolved.isEmpty()) {
+      restaurantsByCell.putAll(loader.apply(unresolved));
+    }
+    return restaurantsByCell;
+  }
+
+  // Loads the cells this node is the only one loading, unless another node already is, adding
+  // the entries to write to cellWrites.
+  private Map<String, List<RestaurantEntity>> loadOnce(String radiusClass, int slot,
+      Set<String> cells, Function<Set<String>, Map<String, List<RestaurantEntity>>> loader,
+      List<CellWrite> cellWrites) {
+    Map<String, String> fencingTokens = lock(radiusClass, slot, cells);
+    Map<String, List<RestaurantEntity>> loaded = new HashMap<>();
+    if (!fencingTokens.isEmpty()) {
+      try {
+        loaded.putAll(loader.apply(fencingTokens.keySet()));
+      } catch (RuntimeException e) {
+        unlock(radiusClass, slot, fencingTokens);
+        throw e;
+      }
+      cellWrites.add(new CellWrite(radiusClass, slot, loaded,
+          GlobalConstants.REDIS_ENTRY_EXPIRY_IN_SECONDS, fencingTokens));
+    }
+
+    Set<String> lockedElsewhere = new HashSet<>(cells);
+    lockedElsewhere.removeAll(fencingTokens.keySet());
+    if (!lockedElsewhere.isEmpty()) {
+      loaded.putAll(awaitOtherNodes(radiusClass, slot, lockedElsewhere, loader, cellWrites));
+    }
+    return loaded;
+  }
+
+  // Reloads the stale cells on the refresh executor, skipping the ones this node or another
+  // node is already loading.
+  private void refreshInBackground(String radiusClass, int slot, Set<String> staleCells,
+      Function<Set<String>, Map<String, List<RestaurantEntity>>> loader) {
+    Set<String> cells = new HashSet<>();
+    for (String cell : staleCells) {
+      if (refreshing.add(keyOf(radiusClass, slot, cell))) {
+        cells.add(cell);
+      }
+    }
+    if (cells.isEmpty()) {
+      return;
+    }
+
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          Map<String, String> fencingTokens = lock(radiusClass, slot, cells);
+          if (fencingTokens.isEmpty()) {
+            return;
+          }
+          Map<String, List<RestaurantEntity>> loaded;
+          try {
+            loaded = loader.apply(fencingTokens.keySet());
+          } catch (RuntimeException e) {
+            unlock(radiusClass, slot, fencingTokens);
+            throw e;
+          }
+          // Already in the background, written right away.
+          write(Collections.singletonList(new CellWrite(radiusClass, slot, loaded,
+              GlobalConstants.REDIS_ENTRY_EXPIRY_IN_SECONDS, fencingTokens)));
+        } catch (RuntimeException e) {
+          // The stale entries are served until their hard expiry.
+          log.error("Failed to refresh {} close-by cache entries", cells.size(), e);
+        } finally {
+          cells.forEach(cell -> refreshing.remove(keyOf(radiusClass, slot, cell)));
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      cells.forEach(cell -> refreshing.remove(keyOf(radiusClass, slot, cell)));
+      log.warn("Refresh queue is full, skipped refreshing {} close-by cache entries",
+          cells.size());
+    }
+  }
+
+  // Takes the load lock of the given cells, with a fencing token each.
+  // @return fencing tokens by cell, for the cells that were not locked already
+  private Map<String, String> lock(String radiusClass, int slot, Set<String> cells) {
+    List<String> cellList = new ArrayList<>(cells);
+    Map<String, String> fencingTokens = new HashMap<>();
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<Long> lastTokenReply = batch.incrBy(FENCING_TOKEN_KEY, cellList.size());
+      batch.execute();
+      long lastToken = lastTokenReply.get();
+      List<Supplier<Boolean>> locks = new ArrayList<>(cellList.size());
+      for (int i = 0; i < cellList.size(); i++) {
+        String fencingToken = String.valueOf(lastToken - i);
+        fencingTokens.put(cellList.get(i), fencingToken);
+        locks.add(batch.setIfAbsent(lockKeyOf(radiusClass, slot, cellList.get(i)),
+            fencingToken, loadLockMs));
+        indexEntry(batch, radiusClass, slot, cellList.get(i));
+      }
+      batch.execute();
+      for (int i = 0; i < cellList.size(); i++) {
+        if (!locks.get(i).get()) {
+          fencingTokens.remove(cellList.get(i));
+        }
+      }
+    }
+    return fencingTokens;
+  }
+
+  // Polls the cache for the cells other nodes are loading, loading the ones that don't show up
+  // before their lock expires.
+  private Map<String, List<RestaurantEntity>> awaitOtherNodes(String radiusClass, int slot,
+      Set<String> cells, Function<Set<String>, Map<String, List<RestaurantEntity>>> loader,
+      List<CellWrite> cellWrites) {
+    Map<String, List<RestaurantEntity>> loaded = new HashMap<>();
+    Set<String> pending = new HashSet<>(cells);
+    long deadline = System.currentTimeMillis() + loadLockMs;
+    try {
+      while (!pending.isEmpty() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(loadWaitPollMs);
+        Map<String, List<RestaurantEntity>> found = readCells(radiusClass, slot, pending, null);
+        loaded.putAll(found);
+        pending.removeAll(found.keySet());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (!pending.isEmpty()) {
+      log.warn("Cache entries of {} cells were not loaded by other nodes in time", pending.size());
+      Map<String, List<RestaurantEntity>> ownLoad = loader.apply(pending);
+      cellWrites.add(new CellWrite(radiusClass, slot, ownLoad,
+          GlobalConstants.REDIS_ENTRY_EXPIRY_IN_SECONDS, null));
+      loaded.putAll(ownLoad);
+    }
+    return loaded;
+  }
+
+  private void unlock(String radiusClass, int slot, Map<String, String> fencingTokens) {
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      releaseLocks(batch, radiusClass, slot, fencingTokens);
+      batch.execute();
+    } catch (RuntimeException e) {
+      // The locks expire on their own.
+      log.warn("Failed to release cache load locks", e);
+    }
+  }
+
+  private static void releaseLocks(CacheClient.Batch batch, String radiusClass, int slot,
+      Map<String, String> fencingTokens) {
+    for (Map.Entry<String, String> fencingToken : fencingTokens.entrySet()) {
+      batch.eval(UNLOCK_SCRIPT,
+          Collections.singletonList(lockKeyOf(radiusClass, slot, fencingToken.getKey())),
+          Collections.singletonList(bytesOf(fencingToken.getValue())));
+    }
+  }
+
+  static String cellIndexKeyOf(String cell) {
+    return CELL_INDEX_KEY_PREFIX + "{" + cell + "}";
+  }
+
+  // Lists the entry in the set of its cell, for restaurant changes to find.
+  private static void indexEntry(CacheClient.Batch batch, String radiusClass, int slot,
+      String cell) {
+    batch.sadd(cellIndexKeyOf(cell), keyOf(radiusClass, slot, cell));
+    batch.expire(cellIndexKeyOf(cell), CELL_INDEX_EXPIRY_IN_SECONDS);
+  }
+
+  static String lockKeyOf(String radiusClass, int slot, String cell) {
+    return LOCK_KEY_PREFIX + radiusClass + ":s" + slot + ":{" + cell + "}";
+  }
+
+  /**
+   * Get the cells which are not cached, without fetching the others nor counting hits and
+   * misses.
+   */
+  public Set<String> findMissingCells(String radiusClass, int slot, Collection<String> cells) {
+    List<String> cellList = new ArrayList<>(cells);
+    List<Supplier<Boolean>> exists = new ArrayList<>(cellList.size());
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      for (String cell : cellList) {
+        exists.add(batch.exists(keyOf(radiusClass, slot, cell)));
+      }
+      batch.execute();
+    }
+
+    Set<String> missingCells = new HashSet<>();
+    for (int i = 0; i < cellList.size(); i++) {
+      if (!exists.get(i).get()) {
+        missingCells.add(cellList.get(i));
+      }
+    }
+    return missingCells;
+  }
+
+  /**
+   * Stores the restaurants of the given cells in a single batch.
+   */
+  public void putCells(String radiusClass, int slot,
+      Map<String, List<RestaurantEntity>> restaurantsByCell) {
+    putCells(radiusClass, slot, restaurantsByCell, GlobalConstants.REDIS_ENTRY_EXPIRY_IN_SECONDS);
+  }
+
+  /**
+   * Same as {@link #putCells(String, int, Map)} with the given expiry, e.g. to pin precomputed
+   * entries until the end of their slot.
+   */
+  public void putCells(String radiusClass, int slot,
+      Map<String, List<RestaurantEntity>> restaurantsByCell, int expiryInSeconds) {
+    if (restaurantsByCell.isEmpty()) {
+      return;
+    }
+
+    write(Collections.singletonList(
+        new CellWrite(radiusClass, slot, restaurantsByCell, expiryInSeconds, null)));
+  }
+
+  /**
+   * Waits until the writes queued so far have been written or dropped.
+   */
+  public void flush() {
+    try {
+      while (pendingWrites.get() > 0 && writerThread.isAlive()) {
+        Thread.sleep(WRITE_FLUSH_POLL_MS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Queues the writes, running whenWritten once they are all written or dropped. The writer
+  // goes through the queue in order, so that is once the last of them is.
+  private void writeBehind(List<CellWrite> cellWrites, Runnable whenWritten) {
+    if (cellWrites.isEmpty()) {
+      whenWritten.run();
+      return;
+    }
+    CellWrite last = cellWrites.get(cellWrites.size() - 1);
+    last.whenWritten = whenWritten;
+    for (CellWrite cellWrite : cellWrites) {
+      if (!writeBehind(cellWrite) && cellWrite == last) {
+        whenWritten.run();
+      }
+    }
+  }
+
+  // Queues the entries for the writer, keeping them in the near cache meanwhile, or drops them
+  // if the writer is behind.
+  // @return false if dropped
+  private boolean writeBehind(CellWrite cellWrite) {
+    if (nearCache != null) {
+      cellWrite.resolvedCells.forEach((cell, resolvedCell) ->
+          nearCache.put(keyOf(cellWrite.radiusClass, cellWrite.slot, cell), resolvedCell));
+    }
+    pendingWrites.incrementAndGet();
+    if (writeQueue.offer(cellWrite)) {
+      writesCounter("queued").increment(cellWrite.resolvedCells.size());
+      return true;
+    }
+
+    pendingWrites.decrementAndGet();
+    writesCounter("dropped").increment(cellWrite.resolvedCells.size());
+    // The load locks are left to expire within loadLockMs, meanwhile other nodes wait on the
+    // entries. Releasing them would cost a round trip on the request thread, exactly when redis
+    // is already behind.
+    log.debug("Write queue is full, dropped {} close-by cache entries",
+        cellWrite.resolvedCells.size());
+    return false;
+  }
+
+  // Writes the queued entries in batches of up to writeBatchSize.
+  private void runWriter() {
+    List<CellWrite> batch = new ArrayList<>(writeBatchSize);
+    while (true) {
+      try {
+        batch.add(writeQueue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      writeQueue.drainTo(batch, writeBatchSize - 1);
+      try {
+        write(batch);
+      } catch (RuntimeException e) {
+        // Loaded again on the next miss, the locks expire on their own.
+        int entries = 0;
+        for (CellWrite cellWrite : batch) {
+          entries += cellWrite.resolvedCells.size();
+        }
+        writesCounter("dropped").increment(entries);
+        log.warn("Failed to write {} close-by cache entries", entries, e);
+      } finally {
+        for (CellWrite cellWrite : batch) {
+          if (cellWrite.whenWritten != null) {
+            cellWrite.whenWritten.run();
+          }
+        }
+        pendingWrites.addAndGet(-batch.size());
+        batch.clear();
+      }
+    }
+  }
+
+  // Writes the entries in two pipelined round trips, the second one for the bodies of the
+  // fenced entries, the release of their locks and the publication of the written entries.
+  private void write(List<CellWrite> cellWrites) {
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      for (CellWrite cellWrite : cellWrites) {
+        cellWrite.write(batch);
+      }
+      batch.execute();
+
+      int entries = 0;
+      List<String> writtenKeys = new ArrayList<>();
+      for (CellWrite cellWrite : cellWrites) {
+        entries += cellWrite.resolvedCells.size();
+        writtenKeys.addAll(cellWrite.completeWrite(batch));
+      }
+      publishWrites(batch, cellWrites);
+      batch.execute();
+      writesCounter("written").increment(writtenKeys.size());
+      if (writtenKeys.size() < entries) {
+        writesCounter("dropped").increment(entries - writtenKeys.size());
+        log.warn("Dropped {} cache entries whose load lock expired or was invalidated",
+            entries - writtenKeys.size());
+      }
+    } catch (IOException e) {
+      log.error("Failed to cache close-by restaurants", e);
+    }
+  }
+
+  private ResolvedCell resolvedCellOf(List<RestaurantEntity> restaurants, int expiryInSeconds) {
+    long softExpiresAt =
+        System.currentTimeMillis() + (long) (expiryInSeconds * 1000L * softExpiryRatio);
+    return new ResolvedCell(softExpiresAt, restaurants);
+  }
+
+  private static void writeBodies(CacheClient.Batch batch, List<RestaurantEntity> restaurants,
+      int expiryInSeconds) throws IOException {
+    int bodyExpiryInSeconds =
+        Math.max(expiryInSeconds, GlobalConstants.REDIS_ENTRY_EXPIRY_IN_SECONDS)
+            + BODY_EXPIRY_SLACK_IN_SECONDS;
+    for (RestaurantEntity restaurantEntity : restaurants) {
+      String restaurantKey = RestaurantHashes.keyOf(restaurantEntity.getId());
+      batch.hmset(restaurantKey, RestaurantHashes.toHash(restaurantEntity));
+      batch.expire(restaurantKey, bodyExpiryInSeconds);
+    }
+  }
+
+  // Keeps the written entries in the near cache of this node and has the other nodes drop
+  // their copy.
+  private void publishWrites(CacheClient.Batch batch, List<CellWrite> cellWrites) {
+    if (nearCache == null) {
+      return;
+    }
+    List<String> keys = new ArrayList<>();
+    for (CellWrite cellWrite : cellWrites) {
+      for (Map.Entry<String, ResolvedCell> resolvedCell : cellWrite.resolvedCells.entrySet()) {
+        String key = keyOf(cellWrite.radiusClass, cellWrite.slot, resolvedCell.getKey());
+        nearCache.put(key, resolvedCell.getValue());
+        keys.add(key);
+      }
+    }
+    if (!keys.isEmpty()) {
+      batch.publish(INVALIDATION_CHANNEL, nodeId + " " + String.join(" ", keys));
+    }
+  }
+
+  /**
+   * Drops the entries of the cells the changed restaurants are located in, and of the cells the
+   * changed and deleted ones were cached in before, read from their bodies, of every radius class
+   * and slot. Their load locks go too, so that loads started before the change are not written.
+   * Bodies of changed restaurants are replaced where cached, the ones of deleted restaurants are
+   * removed, which turns the entries still holding them into misses.
+   * The other nodes drop the entries, and any near cache entry holding the restaurants.
+   * If Redis can't be reached, the changes are kept for {@link #applyPendingChanges} rather than
+   * failing the change feed, which would hold up the other listeners.
+   */
+  @Override
+  public synchronized void onRestaurantsChanged(List<RestaurantEntity> changed,
+      Set<String> deletedIds) {
+    changed.forEach(
+        restaurantEntity -> pendingChanges.put(restaurantEntity.getId(), restaurantEntity));
+    deletedIds.forEach(deletedId -> pendingChanges.put(deletedId, null));
+    applyPendingChanges();
+  }
+
+  /**
+   * Applies the restaurant changes kept while Redis was down, retried on the configured interval.
+   * Until then, entries holding the restaurants may be served as they were before the change.
+   */
+  @Scheduled(initialDelayString = "${qeats.cache.pending-changes-retry-ms:5000}",
+      fixedDelayString = "${qeats.cache.pending-changes-retry-ms:5000}")
+  public synchronized void applyPendingChanges() {
+    if (pendingChanges.isEmpty()) {
+      return;
+    }
+    List<RestaurantEntity> changed = new ArrayList<>();
+    Set<String> deletedIds = new HashSet<>();
+    pendingChanges.forEach((restaurantId, restaurantEntity) -> {
+      if (restaurantEntity == null) {
+        deletedIds.add(restaurantId);
+      } else {
+        changed.add(restaurantEntity);
+      }
+    });
+
+    try {
+      if (cacheClient.isAvailable()) {
+        invalidate(changed, deletedIds);
+        pendingChanges.clear();
+        return;
+      }
+    } catch (CacheClientException e) {
+      log.debug("Failed to invalidate close-by cache entries of changed restaurants", e);
+    }
+    // Neither this node's changes nor the invalidations of other nodes reach the near cache.
+    invalidateNearCache();
+    log.warn("Redis is unavailable, {} restaurant changes are pending", pendingChanges.size());
+  }
+
+  private void invalidate(List<RestaurantEntity> changed, Set<String> deletedIds) {
+    Set<String> restaurantIds = new HashSet<>(deletedIds);
+    changed.forEach(restaurantEntity -> restaurantIds.add(restaurantEntity.getId()));
+    if (restaurantIds.isEmpty()) {
+      return;
+    }
+    Set<String> cells = new HashSet<>();
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      List<Supplier<Map<String, String>>> previousBodies = new ArrayList<>();
+      for (String restaurantId : restaurantIds) {
+        previousBodies.add(batch.hgetAll(RestaurantHashes.keyOf(restaurantId)));
+      }
+      batch.execute();
+      for (Supplier<Map<String, String>> previousBody : previousBodies) {
+        String cell = RestaurantHashes.cellOf(previousBody.get(), cellPrecision);
+        if (cell != null) {
+          cells.add(cell);
+        }
+      }
+
+      for (RestaurantEntity restaurantEntity : changed) {
+        String restaurantKey = RestaurantHashes.keyOf(restaurantEntity.getId());
+        if (restaurantEntity.getLatitude() == null || restaurantEntity.getLongitude() == null) {
+          batch.del(restaurantKey);
+          continue;
+        }
+        cells.add(GeoHashCells.cellOf(restaurantEntity.getLatitude(),
+            restaurantEntity.getLongitude(), cellPrecision));
+        refreshBody(batch, restaurantKey, restaurantEntity);
+      }
+      for (String deletedId : deletedIds) {
+        batch.del(RestaurantHashes.keyOf(deletedId));
+      }
+      Map<String, Supplier<Set<String>>> keysByCell = new HashMap<>();
+      for (String cell : cells) {
+        keysByCell.put(cell, batch.smembers(cellIndexKeyOf(cell)));
+      }
+      batch.execute();
+
+      List<String> keys = new ArrayList<>();
+      for (Map.Entry<String, Supplier<Set<String>>> cellKeys : keysByCell.entrySet()) {
+        Set<String> listed = cellKeys.getValue().get();
+        if (listed.isEmpty()) {
+          continue;
+        }
+        for (String key : listed) {
+          batch.del(key);
+          batch.del(LOCK_KEY_PREFIX + key.substring(KEY_PREFIX.length()));
+        }
+        batch.srem(cellIndexKeyOf(cellKeys.getKey()), listed);
+        keys.addAll(listed);
+      }
+      List<String> invalidated = new ArrayList<>(keys);
+      restaurantIds.forEach(restaurantId -> invalidated.add(RestaurantHashes.keyOf(restaurantId)));
+      batch.publish(INVALIDATION_CHANNEL, nodeId + " " + String.join(" ", invalidated));
+      batch.execute();
+      if (nearCache != null) {
+        nearCache.invalidateAll(keys);
+        invalidateNearCacheHolding(restaurantIds);
+      }
+      meterRegistry.counter(INVALIDATIONS_METER).increment(keys.size());
+      log.debug("Invalidated {} close-by cache entries of {} changed and {} deleted restaurants",
+          keys.size(), changed.size(), deletedIds.size());
+    }
+  }
+
+  /**
+   * Changes may have been lost, the entries they touched are only replaced once they expire.
+   */
+  @Override
+  public void onResync() {
+    invalidateNearCache();
+  }
+
+  private void refreshBody(CacheClient.Batch batch, String restaurantKey,
+      RestaurantEntity restaurantEntity) {
+    List<byte[]> fields = new ArrayList<>();
+    try {
+      RestaurantHashes.toHash(restaurantEntity).forEach((field, value) -> {
+        fields.add(bytesOf(field));
+        fields.add(bytesOf(value));
+      });
+    } catch (IOException e) {
+      // Entries holding the restaurant are misses until it is cached again.
+      log.error("Failed to cache restaurant {}", restaurantEntity.getId(), e);
+      batch.del(restaurantKey);
+      return;
+    }
+    batch.eval(REFRESH_BODY_SCRIPT, Collections.singletonList(restaurantKey), fields);
+  }
+
+  // Drops the whole near cache, e.g. when invalidations may have been missed.
+  void invalidateNearCache() {
+    if (nearCache != null) {
+      nearCache.invalidateAll();
+    }
+  }
+
+  private Counter counter(String radiusClass, String result) {
+    return meterRegistry.counter(CELLS_METER, "radiusClass", radiusClass,
+        "precision", String.valueOf(cellPrecision), "result", result);
+  }
+
+  private Counter writesCounter(String result) {
+    return meterRegistry.counter(WRITES_METER, "result", result);
+  }
+
+  // Drops the near cache entries another node wrote, or holding the restaurants it named.
+  private void onInvalidation(String message) {
+    String[] words = message.split(" ");
+    if (nodeId.equals(words[0])) {
+      return;
+    }
+    List<String> keys = new ArrayList<>();
+    Set<String> restaurantIds = new HashSet<>();
+    for (String word : Arrays.asList(words).subList(1, words.length)) {
+      if (word.startsWith(RestaurantHashes.KEY_PREFIX)) {
+        restaurantIds.add(word.substring(RestaurantHashes.KEY_PREFIX.length()));
+      } else {
+        keys.add(word);
+      }
+    }
+    nearCache.invalidateAll(keys);
+    if (!restaurantIds.isEmpty()) {
+      invalidateNearCacheHolding(restaurantIds);
+    }
+  }
+
+  private void invalidateNearCacheHolding(Set<String> restaurantIds) {
+    nearCache.asMap().values().removeIf(resolvedCell -> resolvedCell.restaurants.stream()
+        .anyMatch(restaurantEntity -> restaurantIds.contains(restaurantEntity.getId())));
+  }
+
+  private static byte[] bytesOf(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  // Entries loaded for a radius class and slot, written only while their lock still holds the
+  // given fencing tokens unless those are null.
+  private final class CellWrite {
+
+    private final String radiusClass;
+    private final int slot;
+    private final Map<String, ResolvedCell> resolvedCells = new HashMap<>();
+    private final int expiryInSeconds;
+    private final Map<String, String> fencingTokens;
+    private final Map<String, Supplier<Long>> fencedWrites = new HashMap<>();
+    // Run by the writer once written or dropped.
+    private Runnable whenWritten;
+
+    private CellWrite(String radiusClass, int slot,
+        Map<String, List<RestaurantEntity>> restaurantsByCell, int expiryInSeconds,
+        Map<String, String> fencingTokens) {
+      this.radiusClass = radiusClass;
+      this.slot = slot;
+      this.expiryInSeconds = expiryInSeconds;
+      this.fencingTokens = fencingTokens;
+      // Every locked cell gets an entry, empty if the loader found nothing.
+      Collection<String> cells =
+          fencingTokens == null ? restaurantsByCell.keySet() : fencingTokens.keySet();
+      for (String cell : cells) {
+        resolvedCells.put(cell, resolvedCellOf(
+            restaurantsByCell.getOrDefault(cell, Collections.emptyList()), expiryInSeconds));
+      }
+    }
+
+    void write(CacheClient.Batch batch) throws IOException {
+      if (fencingTokens == null) {
+        // Bodies first, so that no reader sees an entry without them.
+        for (ResolvedCell resolvedCell : resolvedCells.values()) {
+          writeBodies(batch, resolvedCell.restaurants, expiryInSeconds);
+        }
+        for (Map.Entry<String, ResolvedCell> resolvedCell : resolvedCells.entrySet()) {
+          batch.setex(keyOf(radiusClass, slot, resolvedCell.getKey()), expiryInSeconds,
+              cachedCellCodec.encode(resolvedCell.getValue().toCachedCell()));
+          indexEntry(batch, radiusClass, slot, resolvedCell.getKey());
+        }
+        return;
+      }
+
+      for (Map.Entry<String, ResolvedCell> resolvedCell : resolvedCells.entrySet()) {
+        String cell = resolvedCell.getKey();
+        fencedWrites.put(cell, batch.eval(PUT_IF_LOCKED_SCRIPT,
+            Arrays.asList(lockKeyOf(radiusClass, slot, cell), keyOf(radiusClass, slot, cell)),
+            Arrays.asList(bytesOf(fencingTokens.get(cell)),
+                bytesOf(String.valueOf(expiryInSeconds)),
+                cachedCellCodec.encode(resolvedCell.getValue().toCachedCell()))));
+      }
+    }
+
+    // Once the entries are written, drops the fenced ones whose lock was lost and queues the
+    // bodies of the others, while the locks still keep the other nodes waiting for them, then
+    // the release of the locks.
+    // @return keys of the written entries
+    List<String> completeWrite(CacheClient.Batch batch) throws IOException {
+      if (fencingTokens != null) {
+        resolvedCells.keySet().removeIf(
+            cell -> !Long.valueOf(1).equals(fencedWrites.get(cell).get()));
+        for (ResolvedCell resolvedCell : resolvedCells.values()) {
+          writeBodies(batch, resolvedCell.restaurants, expiryInSeconds);
+        }
+        releaseLocks(batch, radiusClass, slot, fencingTokens);
+      }
+      List<String> keys = new ArrayList<>(resolvedCells.size());
+      for (String cell : resolvedCells.keySet()) {
+        keys.add(keyOf(radiusClass, slot, cell));
+      }
+      return keys;
+    }
+  }
+
+  // Entry with the bodies of its restaurants, as held by the near cache.
+  private static final class ResolvedCell {
+
+    private final long softExpiresAt;
+    private final List<RestaurantEntity> restaurants;
+
+    private ResolvedCell(long softExpiresAt, List<RestaurantEntity> restaurants) {
+      this.softExpiresAt = softExpiresAt;
+      this.restaurants = restaurants;
+    }
+
+    CachedCell toCachedCell() {
+      List<String> restaurantIds = new ArrayList<>(restaurants.size());
+      for (RestaurantEntity restaurantEntity : restaurants) {
+        restaurantIds.add(restaurantEntity.getId());
+      }
+      return new CachedCell(softExpiresAt, restaurantIds);
+    }
+  }
+}
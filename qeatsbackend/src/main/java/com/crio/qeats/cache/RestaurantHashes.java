@@ -0,0 +1,92 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.GeoHashCells;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis hashes holding the body of a restaurant, stored once per restaurant under
+ * "restaurant:{id}" and shared by the cell cache and the geo store.
+ */
+public final class RestaurantHashes {
+
+  static final String KEY_PREFIX = "restaurant:";
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final ObjectReader ATTRIBUTES_READER =
+      OBJECT_MAPPER.readerFor(new TypeReference<List<String>>() {});
+  private static final ObjectWriter ATTRIBUTES_WRITER = OBJECT_MAPPER.writer();
+
+  private RestaurantHashes() {
+  }
+
+  public static String keyOf(String id) {
+    return KEY_PREFIX + id;
+  }
+
+  /**
+   * Fields of the hash of a located restaurant.
+   */
+  public static Map<String, String> toHash(RestaurantEntity restaurantEntity)
+      throws IOException {
+    Map<String, String> hash = new HashMap<>();
+    hash.put("id", restaurantEntity.getId());
+    putIfPresent(hash, "restaurantId", restaurantEntity.getRestaurantId());
+    putIfPresent(hash, "name", restaurantEntity.getName());
+    putIfPresent(hash, "city", restaurantEntity.getCity());
+    putIfPresent(hash, "imageUrl", restaurantEntity.getImageUrl());
+    hash.put("latitude", restaurantEntity.getLatitude().toString());
+    hash.put("longitude", restaurantEntity.getLongitude().toString());
+    putIfPresent(hash, "opensAt", restaurantEntity.getOpensAt());
+    putIfPresent(hash, "closesAt", restaurantEntity.getClosesAt());
+    hash.put("attributes", ATTRIBUTES_WRITER.writeValueAsString(restaurantEntity.getAttributes()));
+    return hash;
+  }
+
+  public static RestaurantEntity fromHash(Map<String, String> hash) throws IOException {
+    RestaurantEntity restaurantEntity = new RestaurantEntity();
+    restaurantEntity.setId(hash.get("id"));
+    restaurantEntity.setRestaurantId(hash.get("restaurantId"));
+    restaurantEntity.setName(hash.get("name"));
+    restaurantEntity.setCity(hash.get("city"));
+    restaurantEntity.setImageUrl(hash.get("imageUrl"));
+    restaurantEntity.setLatitude(Double.valueOf(hash.get("latitude")));
+    restaurantEntity.setLongitude(Double.valueOf(hash.get("longitude")));
+    restaurantEntity.setOpensAt(hash.get("opensAt"));
+    restaurantEntity.setClosesAt(hash.get("closesAt"));
+    restaurantEntity.setAttributes(ATTRIBUTES_READER.readValue(hash.get("attributes")));
+    return restaurantEntity;
+  }
+
+  /**
+   * Cell of the given precision a cached restaurant is located in, null for the empty hash of a
+   * restaurant that isn't cached.
+   */
+  static String cellOf(Map<String, String> hash, int precision) {
+    if (hash.isEmpty()) {
+      return null;
+    }
+    return GeoHashCells.cellOf(Double.parseDouble(hash.get("latitude")),
+        Double.parseDouble(hash.get("longitude")), precision);
+  }
+
+  private static void putIfPresent(Map<String, String> hash, String field, String value) {
+    if (value != null) {
+      hash.put(field, value);
+    }
+  }
+}
@@ -0,0 +1,339 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import com.crio.qeats.configs.RedisCircuitBreaker;
+import com.crio.qeats.configs.RedisConfiguration;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.GeoUnit;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * {@link CacheClient} spreading the keys over several independent Redis nodes, listed in
+ * "qeats.redis.shards" as host:port pairs.
+ * Keys are placed by consistent hashing, every node owning {@link #POINTS_PER_SHARD} points of a
+ * hash ring, so that adding or removing a node only moves the keys of its own points.
+ * Only the hash tag of a key is hashed, the part between the first "{" and the next "}" as in
+ * Redis Cluster, so keys sharing a tag live on the same node. Scripts must only touch keys of
+ * one tag. Batches pipeline the commands of every node they touch on a connection to it, and
+ * MGETs are split by node.
+ * All nodes feed the same {@link RedisCircuitBreaker}.
+ */
+@Component
+@ConditionalOnProperty(name = "qeats.redis.client", havingValue = "sharded")
+@Log4j2
+public class ShardedCacheClient implements CacheClient {
+
+  // Enough for an even spread of the keys over a handful of nodes.
+  static final int POINTS_PER_SHARD = 160;
+
+  private static final HashFunction RING_HASH = Hashing.murmur3_32();
+
+  private final RedisConfiguration redisConfiguration;
+  private final RedisCircuitBreaker redisCircuitBreaker;
+  private final List<Shard> shards = new ArrayList<>();
+  private final NavigableMap<Integer, Shard> ring = new TreeMap<>();
+  private final List<JedisSubscription> subscriptions = new ArrayList<>();
+
+  public ShardedCacheClient(RedisConfiguration redisConfiguration,
+      RedisCircuitBreaker redisCircuitBreaker, @Value("${qeats.redis.shards}") String shards) {
+    this.redisConfiguration = redisConfiguration;
+    this.redisCircuitBreaker = redisCircuitBreaker;
+    for (String node : shards.split(",")) {
+      String[] hostAndPort = node.trim().split(":");
+      if (hostAndPort.length != 2) {
+        throw new IllegalArgumentException("Redis shard is not host:port: " + node);
+      }
+      Shard shard = new Shard(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+      this.shards.add(shard);
+      for (int point = 0; point < POINTS_PER_SHARD; point++) {
+        ring.put(hashOf(shard.name + "#" + point), shard);
+      }
+    }
+    log.info("Sharding the cache over {}", shards);
+  }
+
+  @PreDestroy
+  public synchronized void stop() {
+    subscriptions.forEach(JedisSubscription::stop);
+    shards.forEach(shard -> shard.pool.destroy());
+  }
+
+  @Override
+  public boolean isAvailable() {
+    // Switched off and on with the cache, as for Jedis.
+    return redisConfiguration.isCacheAvailable();
+  }
+
+  @Override
+  public Batch batch() {
+    if (!redisCircuitBreaker.allowRequest()) {
+      throw new CacheClientException("Redis circuit breaker is open");
+    }
+    return new ShardedBatch();
+  }
+
+  /**
+   * Channels are placed like keys, publishers and subscribers of a channel meet on its node.
+   */
+  @Override
+  public synchronized void subscribe(String channel, Consumer<String> onMessage,
+      Runnable onSubscribe) {
+    Shard shard = shardOf(channel);
+    JedisSubscription subscription =
+        new JedisSubscription(shard.host, shard.port, channel, onMessage, onSubscribe);
+    subscriptions.add(subscription);
+    subscription.start();
+  }
+
+  /**
+   * Node of the key, as host:port.
+   */
+  String nodeOf(String key) {
+    return shardOf(key).name;
+  }
+
+  private Shard shardOf(String key) {
+    Map.Entry<Integer, Shard> point = ring.ceilingEntry(hashOf(hashTagOf(key)));
+    return point != null ? point.getValue() : ring.firstEntry().getValue();
+  }
+
+  /**
+   * Part of the key placing it, the non-empty part between the first "{" and the next "}" if
+   * any, else the whole key.
+   */
+  static String hashTagOf(String key) {
+    int start = key.indexOf('{');
+    if (start >= 0) {
+      int end = key.indexOf('}', start + 1);
+      if (end > start + 1) {
+        return key.substring(start + 1, end);
+      }
+    }
+    return key;
+  }
+
+  private static int hashOf(String value) {
+    return RING_HASH.hashString(value, StandardCharsets.UTF_8).asInt();
+  }
+
+  private static final class Shard {
+
+    private final String host;
+    private final int port;
+    private final String name;
+    private final JedisPool pool;
+
+    private Shard(String host, int port) {
+      this.host = host;
+      this.port = port;
+      this.name = host + ":" + port;
+      this.pool = new JedisPool(RedisConfiguration.buildPoolConfig(), host, port);
+    }
+  }
+
+  // Pipelines of the nodes touched so far, on connections held until the batch is closed.
+  private final class ShardedBatch implements Batch {
+
+    private final Map<Shard, Jedis> connections = new LinkedHashMap<>();
+    private final Map<Shard, Pipeline> pipelines = new LinkedHashMap<>();
+
+    private Pipeline pipelineOf(Shard shard) {
+      Pipeline pipeline = pipelines.get(shard);
+      if (pipeline == null) {
+        Jedis jedis;
+        try {
+          jedis = shard.pool.getResource();
+        } catch (JedisException e) {
+          redisCircuitBreaker.recordFailure();
+          throw new CacheClientException(e);
+        }
+        connections.put(shard, jedis);
+        pipeline = jedis.pipelined();
+        pipelines.put(shard, pipeline);
+      }
+      return pipeline;
+    }
+
+    private Pipeline pipelineOf(String key) {
+      return pipelineOf(shardOf(key));
+    }
+
+    @Override
+    public Supplier<List<byte[]>> mget(List<String> keys) {
+      Map<Shard, List<Integer>> indexesByShard = new LinkedHashMap<>();
+      for (int i = 0; i < keys.size(); i++) {
+        indexesByShard.computeIfAbsent(shardOf(keys.get(i)), shard -> new ArrayList<>()).add(i);
+      }
+
+      List<List<Integer>> indexesOfReplies = new ArrayList<>(indexesByShard.size());
+      List<Supplier<List<byte[]>>> replies = new ArrayList<>(indexesByShard.size());
+      for (Map.Entry<Shard, List<Integer>> shardIndexes : indexesByShard.entrySet()) {
+        List<Integer> indexes = shardIndexes.getValue();
+        byte[][] rawKeys = new byte[indexes.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+          rawKeys[i] = SafeEncoder.encode(keys.get(indexes.get(i)));
+        }
+        indexesOfReplies.add(indexes);
+        replies.add(JedisCacheClient.replyOf(pipelineOf(shardIndexes.getKey()).mget(rawKeys)));
+      }
+
+      return () -> {
+        byte[][] values = new byte[keys.size()][];
+        for (int reply = 0; reply < replies.size(); reply++) {
+          List<Integer> indexes = indexesOfReplies.get(reply);
+          List<byte[]> shardValues = replies.get(reply).get();
+          for (int i = 0; i < indexes.size(); i++) {
+            values[indexes.get(i)] = shardValues.get(i);
+          }
+        }
+        return Arrays.asList(values);
+      };
+    }
+
+    @Override
+    public Supplier<Map<String, String>> hgetAll(String key) {
+      return JedisCacheClient.replyOf(pipelineOf(key).hgetAll(key));
+    }
+
+    @Override
+    public void hmset(String key, Map<String, String> hash) {
+      pipelineOf(key).hmset(key, hash);
+    }
+
+    @Override
+    public void expire(String key, int seconds) {
+      pipelineOf(key).expire(key, seconds);
+    }
+
+    @Override
+    public void setex(String key, int seconds, byte[] value) {
+      pipelineOf(key).setex(SafeEncoder.encode(key), seconds, value);
+    }
+
+    @Override
+    public Supplier<Boolean> setIfAbsent(String key, String value, long expiryMs) {
+      Supplier<String> reply = JedisCacheClient.replyOf(
+          pipelineOf(key).set(key, value, "NX", "PX", Math.toIntExact(expiryMs)));
+      return () -> "OK".equals(reply.get());
+    }
+
+    @Override
+    public Supplier<Long> incrBy(String key, long increment) {
+      return JedisCacheClient.replyOf(pipelineOf(key).incrBy(key, increment));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the keys don't share a hash tag
+     */
+    @Override
+    public Supplier<Long> eval(String script, List<String> keys, List<byte[]> args) {
+      String hashTag = hashTagOf(keys.get(0));
+      List<byte[]> rawKeys = new ArrayList<>(keys.size());
+      for (String key : keys) {
+        if (!hashTagOf(key).equals(hashTag)) {
+          throw new IllegalArgumentException("Keys of a script must share a hash tag: " + keys);
+        }
+        rawKeys.add(SafeEncoder.encode(key));
+      }
+      Supplier<Object> reply = JedisCacheClient.replyOf(
+          pipelineOf(keys.get(0)).eval(SafeEncoder.encode(script), rawKeys, args));
+      return () -> (Long) reply.get();
+    }
+
+    @Override
+    public Supplier<Boolean> exists(String key) {
+      return JedisCacheClient.replyOf(pipelineOf(key).exists(key));
+    }
+
+    @Override
+    public void del(String key) {
+      pipelineOf(key).del(key);
+    }
+
+    @Override
+    public void sadd(String key, String member) {
+      pipelineOf(key).sadd(key, member);
+    }
+
+    @Override
+    public Supplier<Set<String>> smembers(String key) {
+      return JedisCacheClient.replyOf(pipelineOf(key).smembers(key));
+    }
+
+    @Override
+    public void srem(String key, Collection<String> members) {
+      pipelineOf(key).srem(key, members.toArray(new String[0]));
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+      pipelineOf(channel).publish(channel, message);
+    }
+
+    @Override
+    public void geoadd(String key, double longitude, double latitude, String member) {
+      pipelineOf(key).geoadd(key, longitude, latitude, member);
+    }
+
+    @Override
+    public Supplier<List<String>> georadius(String key, double longitude, double latitude,
+        double radiusInKms) {
+      return JedisCacheClient.membersOf(JedisCacheClient.replyOf(
+          pipelineOf(key).georadius(key, longitude, latitude, radiusInKms, GeoUnit.KM)));
+    }
+
+    @Override
+    public void zrem(String key, String member) {
+      pipelineOf(key).zrem(key, member);
+    }
+
+    @Override
+    public void execute() {
+      long startTime = System.nanoTime();
+      try {
+        for (Pipeline pipeline : pipelines.values()) {
+          pipeline.sync();
+        }
+      } catch (JedisException e) {
+        redisCircuitBreaker.recordFailure();
+        throw new CacheClientException(e);
+      }
+      redisCircuitBreaker.recordSuccess(
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    @Override
+    public void close() {
+      connections.values().forEach(Jedis::close);
+    }
+  }
+}
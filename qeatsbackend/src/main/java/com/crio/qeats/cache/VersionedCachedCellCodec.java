@@ -0,0 +1,111 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Base of the codecs, which prefixes every value with a header of
+ * - the format version of the codec, and
+ * - flags, telling if the body is deflated.
+ * Values of other versions decode to null, so that entries written by an older deploy are
+ * treated as misses rather than misread. Bodies larger than the compression threshold are
+ * deflated at the fastest level, which about halves the size of restaurant lists.
+ */
+public abstract class VersionedCachedCellCodec implements CachedCellCodec {
+
+  private static final int HEADER_BYTES = 2;
+  private static final byte DEFLATED = 1;
+
+  // Deflaters hold native memory, reuse one per thread rather than one per value.
+  private static final ThreadLocal<Deflater> DEFLATERS =
+      ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+  private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+  private final int compressAboveBytes;
+
+  protected VersionedCachedCellCodec(int compressAboveBytes) {
+    this.compressAboveBytes = compressAboveBytes;
+  }
+
+  /**
+   * Version of the format of the body, to be changed whenever the format changes.
+   * Versions must be unique across codecs.
+   */
+  protected abstract byte version();
+
+  protected abstract byte[] encodeBody(CachedCell cachedCell) throws IOException;
+
+  protected abstract CachedCell decodeBody(byte[] body) throws IOException;
+
+  @Override
+  public byte[] encode(CachedCell cachedCell) throws IOException {
+    byte[] body = encodeBody(cachedCell);
+    byte flags = 0;
+    if (body.length > compressAboveBytes) {
+      body = deflate(body);
+      flags |= DEFLATED;
+    }
+
+    byte[] value = new byte[HEADER_BYTES + body.length];
+    value[0] = version();
+    value[1] = flags;
+    System.arraycopy(body, 0, value, HEADER_BYTES, body.length);
+    return value;
+  }
+
+  @Override
+  public CachedCell decode(byte[] value) throws IOException {
+    if (value.length < HEADER_BYTES || value[0] != version()) {
+      return null;
+    }
+    byte[] body = Arrays.copyOfRange(value, HEADER_BYTES, value.length);
+    if ((value[1] & DEFLATED) != 0) {
+      body = inflate(body);
+    }
+    return decodeBody(body);
+  }
+
+  private static byte[] deflate(byte[] body) {
+    Deflater deflater = DEFLATERS.get();
+    deflater.reset();
+    deflater.setInput(body);
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 16);
+    byte[] buffer = new byte[8192];
+    while (!deflater.finished()) {
+      out.write(buffer, 0, deflater.deflate(buffer));
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] inflate(byte[] body) throws IOException {
+    Inflater inflater = INFLATERS.get();
+    inflater.reset();
+    inflater.setInput(body);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 3);
+    byte[] buffer = new byte[8192];
+    try {
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(buffer);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated cache entry");
+        }
+        out.write(buffer, 0, inflated);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt cache entry", e);
+    }
+    return out.toByteArray();
+  }
+}
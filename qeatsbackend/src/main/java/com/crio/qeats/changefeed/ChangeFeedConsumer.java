@@ -0,0 +1,288 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.changefeed;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.log4j.Log4j2;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Streams inserts, updates and deletes of restaurants to every
+ * {@link RestaurantChangeListener}, so that derived indexes and caches follow the database
+ * between their periodic rebuilds.
+ * Changes are read from Mongo change streams. Standalone servers don't have them, there the
+ * consumer falls back to polling the "updatedAt" field, which misses deletes until the next
+ * rebuild.
+ * Menus are not followed, nothing derived from them is kept between rebuilds.
+ * The position in the stream is persisted with the {@link ResumeTokenStore} once the listeners
+ * have applied a batch, so a restarted node resumes where it stopped.
+ */
+@Component
+@Log4j2
+public class ChangeFeedConsumer {
+
+  static final String RESTAURANTS = "restaurants";
+
+  private static final String UPDATED_AT = "updatedAt";
+  // Resume token no longer in the oplog, or not usable with the current stream.
+  private static final int CHANGE_STREAM_FATAL_ERROR = 280;
+  private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+  private final MongoTemplate mongoTemplate;
+  private final List<RestaurantChangeListener> listeners;
+  private final ResumeTokenStore resumeTokenStore;
+  private final boolean enabled;
+  private final int batchSize;
+  private final long pollIntervalMs;
+
+  private final Map<String, MongoCursor<ChangeStreamDocument<Document>>> cursors =
+      new HashMap<>();
+  private final Set<String> indexedCollections = new HashSet<>();
+  // Set once a change stream was read.
+  private boolean streaming;
+  // Set once the server turned out not to support change streams.
+  private volatile boolean polling;
+
+  public ChangeFeedConsumer(MongoTemplate mongoTemplate,
+      List<RestaurantChangeListener> listeners, ResumeTokenStore resumeTokenStore,
+      @Value("${qeats.changefeed.enabled:true}") boolean enabled,
+      @Value("${qeats.changefeed.batch-size:500}") int batchSize,
+      @Value("${qeats.changefeed.poll-interval-ms:1000}") long pollIntervalMs) {
+    this.mongoTemplate = mongoTemplate;
+    this.listeners = listeners;
+    this.resumeTokenStore = resumeTokenStore;
+    this.enabled = enabled;
+    this.batchSize = batchSize;
+    this.pollIntervalMs = pollIntervalMs;
+  }
+
+  /**
+   * Checks if changes are polled from "updatedAt" rather than read from change streams.
+   */
+  public boolean isPolling() {
+    return polling;
+  }
+
+  /**
+   * Applies the changes written since the last poll.
+   * Runs in the background on the configured poll interval.
+   */
+  @Scheduled(initialDelayString = "${qeats.changefeed.poll-interval-ms:1000}",
+      fixedDelayString = "${qeats.changefeed.poll-interval-ms:1000}")
+  public synchronized void poll() {
+    if (!enabled) {
+      return;
+    }
+
+    try {
+      if (!polling) {
+        consumeChangeStream(RESTAURANTS);
+      }
+      if (polling) {
+        consumeUpdatedSince(RESTAURANTS);
+      }
+    } catch (Exception e) {
+      // Nothing was acknowledged, the next round starts again from the saved position.
+      closeCursor(RESTAURANTS);
+      log.error("Failed to apply changes of {}", RESTAURANTS, e);
+    }
+  }
+
+  private void consumeChangeStream(String collection) throws IOException {
+    try {
+      consumeChangeStream(collection, openCursor(collection));
+    } catch (MongoCommandException e) {
+      if (isResumeTokenLost(e)) {
+        resync(collection);
+      } else if (!streaming) {
+        // Standalone servers reject the $changeStream stage altogether.
+        log.warn("Change streams are not available ({}), polling {} instead",
+            e.getErrorMessage(), UPDATED_AT);
+        closeCursor(collection);
+        polling = true;
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  private void consumeChangeStream(String collection,
+      MongoCursor<ChangeStreamDocument<Document>> cursor) throws IOException {
+    Map<String, Document> changes = new LinkedHashMap<>();
+    BsonDocument resumeToken = null;
+    ChangeStreamDocument<Document> event;
+    while (changes.size() < batchSize && (event = cursor.tryNext()) != null) {
+      switch (event.getOperationType()) {
+        case INSERT:
+        case UPDATE:
+        case REPLACE:
+        case DELETE:
+          // Documents deleted before the update was looked up come without a full document.
+          changes.put(idOf(event.getDocumentKey().get("_id")), event.getFullDocument());
+          resumeToken = event.getResumeToken();
+          break;
+        default:
+          // The collection was dropped or renamed, the stream can't continue.
+          resync(collection);
+          return;
+      }
+    }
+    streaming = true;
+    if (resumeToken == null) {
+      return;
+    }
+
+    dispatch(collection, changes);
+    resumeTokenStore.save(collection, resumeToken.toJson());
+  }
+
+  private MongoCursor<ChangeStreamDocument<Document>> openCursor(String collection)
+      throws IOException {
+    MongoCursor<ChangeStreamDocument<Document>> cursor = cursors.get(collection);
+    if (cursor == null) {
+      Optional<String> resumeToken = resumeTokenStore.load(collection);
+      ChangeStreamIterable<Document> changeStream = mongoTemplate.getCollection(collection)
+          .watch()
+          .fullDocument(FullDocument.UPDATE_LOOKUP)
+          .maxAwaitTime(100, TimeUnit.MILLISECONDS);
+      if (resumeToken.isPresent()) {
+        changeStream.resumeAfter(BsonDocument.parse(resumeToken.get()));
+      }
+      cursor = changeStream.iterator();
+      cursors.put(collection, cursor);
+    }
+    return cursor;
+  }
+
+  // Polls the documents written since the saved position, ordered by (updatedAt, _id).
+  private void consumeUpdatedSince(String collection) throws IOException {
+    if (indexedCollections.add(collection)) {
+      mongoTemplate.indexOps(collection).ensureIndex(
+          new Index().on(UPDATED_AT, Sort.Direction.ASC).on("_id", Sort.Direction.ASC));
+    }
+
+    String stream = collection + ".poll";
+    Optional<String> position = resumeTokenStore.load(stream);
+    Date since;
+    Object lastId = null;
+    if (!position.isPresent()) {
+      // The periodic rebuilds already loaded everything older.
+      since = new Date(System.currentTimeMillis() - pollIntervalMs);
+    } else {
+      String[] parts = position.get().split("\\|", 2);
+      since = new Date(Long.parseLong(parts[0]));
+      if (!parts[1].isEmpty()) {
+        lastId = ObjectId.isValid(parts[1]) ? new ObjectId(parts[1]) : parts[1];
+      }
+    }
+
+    Criteria criteria = lastId == null ? Criteria.where(UPDATED_AT).gte(since)
+        : new Criteria().orOperator(Criteria.where(UPDATED_AT).gt(since),
+            Criteria.where(UPDATED_AT).is(since).and("_id").gt(lastId));
+    Query query = new Query(criteria)
+        .with(Sort.by(Sort.Direction.ASC, UPDATED_AT, "_id"))
+        .limit(batchSize);
+    List<Document> documents = mongoTemplate.find(query, Document.class, collection);
+    if (documents.isEmpty()) {
+      if (!position.isPresent()) {
+        resumeTokenStore.save(stream, since.getTime() + "|");
+      }
+      return;
+    }
+
+    Map<String, Document> changes = new LinkedHashMap<>();
+    for (Document document : documents) {
+      changes.put(idOf(document.get("_id")), document);
+    }
+    dispatch(collection, changes);
+
+    Document last = documents.get(documents.size() - 1);
+    resumeTokenStore.save(stream,
+        last.getDate(UPDATED_AT).getTime() + "|" + idOf(last.get("_id")));
+  }
+
+  // Hands the latest version of every changed document to the listeners, null meaning deleted.
+  private void dispatch(String collection, Map<String, Document> changes) {
+    Set<String> deletedIds = new HashSet<>();
+    List<RestaurantEntity> changed = new ArrayList<>();
+    for (Map.Entry<String, Document> change : changes.entrySet()) {
+      if (change.getValue() == null) {
+        deletedIds.add(change.getKey());
+      } else {
+        changed.add(mongoTemplate.getConverter().read(RestaurantEntity.class,
+            change.getValue()));
+      }
+    }
+    for (RestaurantChangeListener listener : listeners) {
+      listener.onRestaurantsChanged(changed, deletedIds);
+    }
+    log.debug("Applied {} changes of {}", changes.size(), collection);
+  }
+
+  // Changes were lost, start over from the current state of the database.
+  private void resync(String collection) throws IOException {
+    log.warn("Change stream of {} can't be resumed, rebuilding derived indexes", collection);
+    closeCursor(collection);
+    resumeTokenStore.clear(collection);
+    for (RestaurantChangeListener listener : listeners) {
+      listener.onResync();
+    }
+  }
+
+  private void closeCursor(String collection) {
+    MongoCursor<ChangeStreamDocument<Document>> cursor = cursors.remove(collection);
+    if (cursor != null) {
+      try {
+        cursor.close();
+      } catch (Exception e) {
+        log.debug("Failed to close change stream of {}", collection, e);
+      }
+    }
+  }
+
+  private static boolean isResumeTokenLost(MongoCommandException e) {
+    return e.getErrorCode() == CHANGE_STREAM_FATAL_ERROR
+        || e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST;
+  }
+
+  private static String idOf(Object id) {
+    if (id instanceof BsonValue) {
+      BsonValue value = (BsonValue) id;
+      return value.isObjectId() ? value.asObjectId().getValue().toHexString()
+          : value.asString().getValue();
+    }
+    return id instanceof ObjectId ? ((ObjectId) id).toHexString() : id.toString();
+  }
+}
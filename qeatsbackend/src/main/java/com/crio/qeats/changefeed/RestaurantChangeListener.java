@@ -0,0 +1,33 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.changefeed;
+
+import com.crio.qeats.models.RestaurantEntity;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Derived index or cache kept up to date by the {@link ChangeFeedConsumer}.
+ * Changes arrive in batches, in the order they were written, and may be delivered more than once
+ * after a failure, so implementations must be idempotent.
+ */
+public interface RestaurantChangeListener {
+
+  /**
+   * Applies restaurants that were inserted or updated, and the ids of deleted ones.
+   */
+  default void onRestaurantsChanged(List<RestaurantEntity> changed, Set<String> deletedIds) {
+  }
+
+  /**
+   * Called when changes may have been lost, e.g. the resume token fell off the oplog.
+   * Implementations should rebuild from the database.
+   */
+  default void onResync() {
+  }
+}
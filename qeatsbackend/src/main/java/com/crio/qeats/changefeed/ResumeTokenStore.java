@@ -0,0 +1,58 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.changefeed;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Persists the position of the change feed on local disk, one file per stream, so that a
+ * restarted node only replays the changes it missed.
+ * Files are replaced atomically, a crash leaves either the old or the new position behind.
+ */
+@Component
+public class ResumeTokenStore {
+
+  private final Path directory;
+
+  public ResumeTokenStore(@Value("${qeats.changefeed.state-dir:changefeed}") String directory) {
+    this.directory = Paths.get(directory);
+  }
+
+  public Optional<String> load(String stream) throws IOException {
+    Path file = fileOf(stream);
+    if (!Files.exists(file)) {
+      return Optional.empty();
+    }
+    String token = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    return token.isEmpty() ? Optional.empty() : Optional.of(token);
+  }
+
+  public void save(String stream, String token) throws IOException {
+    Files.createDirectories(directory);
+    Path temporary = directory.resolve(stream + ".token.tmp");
+    Files.write(temporary, token.getBytes(StandardCharsets.UTF_8));
+    Files.move(temporary, fileOf(stream), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public void clear(String stream) throws IOException {
+    Files.deleteIfExists(fileOf(stream));
+  }
+
+  private Path fileOf(String stream) {
+    return directory.resolve(stream + ".token");
+  }
+}
@@ -0,0 +1,185 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Circuit breaker in front of Redis, fed with the outcome of every pooled connection, see
+ * {@link RedisConfiguration}.
+ * - Closed: requests go to Redis. The last window-size calls are tracked, and the breaker opens
+ *   once at least minimum-calls of them are in and the share of failed or slow ones reaches the
+ *   failure rate.
+ * - Open: requests skip Redis without touching the network, for open-ms.
+ * - Half open: probe-calls requests are let through. The breaker closes if they all succeed and
+ *   opens again on the first failure.
+ * {@link #isAvailable()} only looks at the state, {@link #allowRequest()} admits the probes.
+ * The state is exported as the "qeats.redis.breaker.state" gauge, 0 closed, 1 half open, 2 open.
+ */
+@Component
+@Log4j2
+public class RedisCircuitBreaker {
+
+  public enum State {
+    CLOSED, HALF_OPEN, OPEN
+  }
+
+  private final int minimumCalls;
+  private final double failureRate;
+  private final long slowCallMs;
+  private final long openMs;
+  private final int probeCalls;
+
+  // Ring of the outcomes of the last calls while closed, true for failed or slow calls.
+  private final boolean[] outcomes;
+  private int nextOutcome;
+  private int calls;
+  private int failures;
+
+  private volatile State state = State.CLOSED;
+  private long openedAtMillis;
+  private long halfOpenedAtMillis;
+  private int probesGranted;
+  private int probesSucceeded;
+
+  public RedisCircuitBreaker(MeterRegistry meterRegistry,
+      @Value("${qeats.redis.breaker.window-size:20}") int windowSize,
+      @Value("${qeats.redis.breaker.minimum-calls:5}") int minimumCalls,
+      @Value("${qeats.redis.breaker.failure-rate:0.5}") double failureRate,
+      @Value("${qeats.redis.breaker.slow-call-ms:250}") long slowCallMs,
+      @Value("${qeats.redis.breaker.open-ms:5000}") long openMs,
+      @Value("${qeats.redis.breaker.probe-calls:3}") int probeCalls) {
+    if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || probeCalls < 1) {
+      throw new IllegalArgumentException("Invalid circuit breaker window " + windowSize
+          + ", minimum calls " + minimumCalls + ", probe calls " + probeCalls);
+    }
+    this.outcomes = new boolean[windowSize];
+    this.minimumCalls = minimumCalls;
+    this.failureRate = failureRate;
+    this.slowCallMs = slowCallMs;
+    this.openMs = openMs;
+    this.probeCalls = probeCalls;
+    meterRegistry.gauge("qeats.redis.breaker.state", this,
+        breaker -> breaker.getState().ordinal());
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Checks if a request would be let through, without admitting it: false while open, and while
+   * half open once every probe is out. Use it to decide whether to go to Redis at all.
+   */
+  public boolean isAvailable() {
+    // Lock free while closed, the common case.
+    return state == State.CLOSED || isAvailable(System.currentTimeMillis());
+  }
+
+  synchronized boolean isAvailable(long nowMillis) {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        return nowMillis - openedAtMillis >= openMs;
+      default:
+        return nowMillis - halfOpenedAtMillis >= openMs || probesGranted < probeCalls;
+    }
+  }
+
+  /**
+   * Admits a request to Redis, counting it as a probe while half open. Only call it right before
+   * a call whose outcome is recorded, a probe that never reports back holds up the others for
+   * open-ms.
+   */
+  public boolean allowRequest() {
+    return state == State.CLOSED || allowRequest(System.currentTimeMillis());
+  }
+
+  synchronized boolean allowRequest(long nowMillis) {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (nowMillis - openedAtMillis < openMs) {
+          return false;
+        }
+        transitionTo(State.HALF_OPEN, nowMillis);
+        probesGranted = 1;
+        return true;
+      default:
+        // Probes that never reported back don't keep the breaker half open forever.
+        if (nowMillis - halfOpenedAtMillis >= openMs) {
+          halfOpenedAtMillis = nowMillis;
+          probesGranted = 0;
+        }
+        if (probesGranted < probeCalls) {
+          probesGranted++;
+          return true;
+        }
+        return false;
+    }
+  }
+
+  public void recordSuccess(long latencyMillis) {
+    record(latencyMillis > slowCallMs, System.currentTimeMillis());
+  }
+
+  public void recordFailure() {
+    record(true, System.currentTimeMillis());
+  }
+
+  synchronized void record(boolean failed, long nowMillis) {
+    switch (state) {
+      case CLOSED:
+        if (calls == outcomes.length) {
+          failures -= outcomes[nextOutcome] ? 1 : 0;
+        } else {
+          calls++;
+        }
+        outcomes[nextOutcome] = failed;
+        failures += failed ? 1 : 0;
+        nextOutcome = (nextOutcome + 1) % outcomes.length;
+        if (calls >= minimumCalls && failures >= failureRate * calls) {
+          log.warn("Opening the redis circuit breaker, {} of the last {} calls failed or were"
+              + " slow", failures, calls);
+          transitionTo(State.OPEN, nowMillis);
+        }
+        break;
+      case HALF_OPEN:
+        if (failed) {
+          log.warn("Redis probe failed, reopening the circuit breaker");
+          transitionTo(State.OPEN, nowMillis);
+        } else if (++probesSucceeded >= probeCalls) {
+          log.info("Redis probes succeeded, closing the circuit breaker");
+          transitionTo(State.CLOSED, nowMillis);
+        }
+        break;
+      default:
+        // Calls started before the breaker opened.
+        break;
+    }
+  }
+
+  private void transitionTo(State next, long nowMillis) {
+    state = next;
+    if (next == State.OPEN) {
+      openedAtMillis = nowMillis;
+    } else if (next == State.HALF_OPEN) {
+      halfOpenedAtMillis = nowMillis;
+      probesSucceeded = 0;
+    } else {
+      calls = 0;
+      failures = 0;
+      nextOutcome = 0;
+    }
+  }
+}
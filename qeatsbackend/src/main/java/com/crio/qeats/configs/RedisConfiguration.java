@@ -3,6 +3,7 @@ package com.crio.qeats.configs;
 
 import java.time.Duration;
 import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import redis.clients.jedis.Jedis;
@@ -24,6 +25,7 @@ public class RedisConfiguration {
 
   private int redisPort;
   private JedisPool jedisPool;
+  private RedisCircuitBreaker redisCircuitBreaker;
 
 
   @Value("${spring.redis.port}")
@@ -31,14 +33,24 @@ public class RedisConfiguration {
     System.out.println("setting up redis port to " + port);
     redisPort = port;
   }
+
+  @Autowired
+  public void setRedisCircuitBreaker(RedisCircuitBreaker redisCircuitBreaker) {
+    this.redisCircuitBreaker = redisCircuitBreaker;
+  }
   
-  private static JedisPoolConfig buildPoolConfig() {
+  /**
+   * Pool settings of every connection pool to Redis.
+   */
+  public static JedisPoolConfig buildPoolConfig() {
     final JedisPoolConfig poolConfig = new JedisPoolConfig();
     poolConfig.setMaxTotal(128);
     poolConfig.setMaxIdle(128);
     poolConfig.setMinIdle(16);
-    poolConfig.setTestOnBorrow(true);
-    poolConfig.setTestOnReturn(true);
+    // Connections are checked by the idle evictor only, failures on use are tracked by the
+    // circuit breaker, see JedisCacheClient, rather than with a PING per borrow and return.
+    poolConfig.setTestOnBorrow(false);
+    poolConfig.setTestOnReturn(false);
     poolConfig.setTestWhileIdle(true);
     poolConfig.setMinEvictableIdleTimeMillis(Duration.ofSeconds(60).toMillis());
     poolConfig.setTimeBetweenEvictionRunsMillis(Duration.ofSeconds(30).toMillis());
@@ -66,20 +78,16 @@ public class RedisConfiguration {
 
   /**
    * Checks is cache is intiailized and available.
-   * TIP: This would generally mean checking via {@link JedisPool}
+   * Asks the {@link RedisCircuitBreaker} rather than Redis, so it never touches the network.
+   * Probes of a half open breaker are only admitted by the cache clients, when a batch starts.
    * @return true / false if cache is available or not.
    */
   public boolean isCacheAvailable() {
-    
-    if (jedisPool == null) {
-      return false;
-    }
+    return jedisPool != null && redisCircuitBreaker.isAvailable();
+  }
 
-    try (Jedis jedis = this.getJedisPool().getResource()) {
-      return true;
-    }catch (Exception e) {
-      return false;
-    }
+  public int getRedisPort() {
+    return redisPort;
   }
 
   /**
@@ -88,7 +96,9 @@ public class RedisConfiguration {
    */
   public void destroyCache() {
     if (jedisPool != null) {
-      jedisPool.getResource().flushAll();
+      try (Jedis jedis = jedisPool.getResource()) {
+        jedis.flushAll();
+      }
       jedisPool.destroy();
       jedisPool = null;
     }
@@ -110,8 +120,4 @@ public class RedisConfiguration {
     return jedisPool;
 
   }
-
-
-
 }
-
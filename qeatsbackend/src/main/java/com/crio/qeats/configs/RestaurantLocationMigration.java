@@ -0,0 +1,145 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import com.crio.qeats.models.RestaurantEntity;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
+import org.springframework.data.mongodb.core.index.GeoSpatialIndexType;
+import org.springframework.data.mongodb.core.index.GeospatialIndex;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Makes the restaurants collection ready for geo queries.
+ * - Creates the 2dsphere index on `location` at startup.
+ * - Fills `location` from `latitude`/`longitude` on every write through Spring Data.
+ * - Back fills `location` for documents that don't have it yet, in place, at startup and then
+ *   periodically for documents written around the application, e.g. by the setup_mongo scripts,
+ *   so an existing deployment can switch over without reloading the data.
+ * Until a back fill completed, {@link #isComplete()} is false and close-by queries go by the
+ * plain coordinates instead.
+ */
+@Component
+@Log4j2
+public class RestaurantLocationMigration extends AbstractMongoEventListener<RestaurantEntity> {
+
+  public static final String LOCATION_FIELD = "location";
+
+  private static final int BATCH_SIZE = 1000;
+
+  @Autowired
+  private MongoTemplate mongoTemplate;
+
+  private volatile boolean indexed;
+  private volatile boolean complete;
+
+  /**
+   * Checks if every located restaurant has a `location`, as of the last back fill, so that the
+   * geo queries on it see all of them.
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * Creates the geo index and migrates the existing documents.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void migrate() {
+    backfill();
+  }
+
+  /**
+   * Migrates the documents written without `location` since the last run.
+   */
+  @Scheduled(initialDelayString = "${qeats.location-migration.interval-ms:60000}",
+      fixedDelayString = "${qeats.location-migration.interval-ms:60000}")
+  public synchronized void backfill() {
+    try {
+      if (!indexed) {
+        mongoTemplate.indexOps(RestaurantEntity.class).ensureIndex(
+            new GeospatialIndex(LOCATION_FIELD).typed(GeoSpatialIndexType.GEO_2DSPHERE));
+        indexed = true;
+      }
+      if (mongoTemplate.exists(missingLocation(), RestaurantEntity.class)) {
+        complete = false;
+        log.info("Migrated {} restaurants to GeoJSON locations", backfillLocations());
+      }
+      complete = true;
+    } catch (Exception e) {
+      // Until a later run succeeds, close-by queries scan by latitude/longitude instead.
+      complete = false;
+      log.error("Failed to prepare restaurants collection for geo queries", e);
+    }
+  }
+
+  @Override
+  public void onBeforeConvert(BeforeConvertEvent<RestaurantEntity> event) {
+    RestaurantEntity restaurantEntity = event.getSource();
+    if (restaurantEntity.getLatitude() == null || restaurantEntity.getLongitude() == null) {
+      restaurantEntity.setLocation(null);
+    } else {
+      restaurantEntity.setLocation(new GeoJsonPoint(restaurantEntity.getLongitude(),
+          restaurantEntity.getLatitude()));
+    }
+  }
+
+  private static Query missingLocation() {
+    return new Query(new Criteria().andOperator(
+        Criteria.where(LOCATION_FIELD).exists(false),
+        Criteria.where("latitude").ne(null),
+        Criteria.where("longitude").ne(null)));
+  }
+
+  private int backfillLocations() {
+    Query missingLocation = missingLocation();
+    missingLocation.fields().include("latitude").include("longitude");
+
+    int migrated = 0;
+    int pending = 0;
+    BulkOperations bulkOperations = newBulkOperations();
+    try (CloseableIterator<RestaurantEntity> restaurants =
+        mongoTemplate.stream(missingLocation, RestaurantEntity.class)) {
+      while (restaurants.hasNext()) {
+        RestaurantEntity restaurantEntity = restaurants.next();
+        bulkOperations.updateOne(
+            Query.query(Criteria.where("_id").is(restaurantEntity.getId())),
+            Update.update(LOCATION_FIELD, new GeoJsonPoint(restaurantEntity.getLongitude(),
+                restaurantEntity.getLatitude())));
+        pending++;
+        if (pending == BATCH_SIZE) {
+          bulkOperations.execute();
+          migrated += pending;
+          pending = 0;
+          bulkOperations = newBulkOperations();
+        }
+      }
+    }
+    if (pending > 0) {
+      bulkOperations.execute();
+      migrated += pending;
+    }
+    return migrated;
+  }
+
+  private BulkOperations newBulkOperations() {
+    return mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RestaurantEntity.class);
+  }
+}
@@ -10,6 +10,7 @@ import com.crio.qeats.dto.Restaurant;
 import com.crio.qeats.exchanges.GetRestaurantsRequest;
 import com.crio.qeats.exchanges.GetRestaurantsResponse;
 import com.crio.qeats.services.RestaurantService;
+import com.crio.qeats.utils.InvalidCursorException;
 import java.time.LocalTime;
 import java.util.Collections;
 import java.util.List;
@@ -53,6 +54,7 @@ public class RestaurantController {
 
     log.info("getRestaurants called with {}", getRestaurantsRequest);
     GetRestaurantsResponse getRestaurantsResponse;
+    try {
       if(getRestaurantsRequest.getSearchFor() != null){
         getRestaurantsResponse = restaurantService
           .findRestaurantsBySearchQuery(getRestaurantsRequest, LocalTime.now());
@@ -60,11 +62,17 @@ public class RestaurantController {
         getRestaurantsResponse = restaurantService
         .findAllRestaurantsCloseBy(getRestaurantsRequest, LocalTime.now());
       }
+    } catch (InvalidCursorException e) {
+      log.warn("getRestaurants rejected {}", getRestaurantsRequest, e);
+      return ResponseEntity.badRequest().build();
+    }
      
       log.info("getRestaurants returned {}", getRestaurantsResponse);
       
       List<Restaurant> restaurants = null;
+      String nextCursor = null;
       if (getRestaurantsResponse != null) {
+        nextCursor = getRestaurantsResponse.getNextCursor();
         restaurants = getRestaurantsResponse.getRestaurants();
         for (Restaurant restaurant : restaurants) {
             String sanitizedName = restaurant.getName().replaceAll("[é]", "e");
@@ -74,7 +82,11 @@ public class RestaurantController {
         restaurants = Collections.emptyList(); // or new ArrayList<>()
         }
        
-      GetRestaurantsResponse getRestaurantsResponse2 = new GetRestaurantsResponse(restaurants);
+      GetRestaurantsResponse getRestaurantsResponse2 = new GetRestaurantsResponse(restaurants, nextCursor);
+      if (getRestaurantsResponse != null) {
+        getRestaurantsResponse2.setServingRadiusInKms(
+            getRestaurantsResponse.getServingRadiusInKms());
+      }
       return ResponseEntity.ok().body(getRestaurantsResponse2);
   }
 
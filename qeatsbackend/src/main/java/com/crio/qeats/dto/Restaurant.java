@@ -9,6 +9,7 @@ package com.crio.qeats.dto;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.ArrayList;
 import java.util.List;
 import javax.validation.constraints.NotNull;
@@ -60,6 +61,9 @@ public class Restaurant {
   private String closesAt;
   @NotNull
   private ArrayList<String> attributes;
+  // Distance from the requested location, only set when sorting by distance.
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Double distanceInKm;
 
 
     
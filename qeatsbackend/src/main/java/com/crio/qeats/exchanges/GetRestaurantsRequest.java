@@ -9,6 +9,7 @@ package com.crio.qeats.exchanges;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -36,6 +37,20 @@ public class GetRestaurantsRequest {
 
     private String searchFor;
 
+    // Optional, only return the given number of restaurants, nearest first.
+    @Min(value = 1, message = "Limit must be at least 1")
+    @Max(value = 100, message = "Limit must be at most 100")
+    private Integer limit;
+
+    // Optional, "distance" to sort the restaurants nearest first.
+    @Pattern(regexp = SORT_BY_DISTANCE, message = "sortBy must be distance")
+    private String sortBy;
+
+    // Optional, nextCursor of the previous page to get the restaurants after it.
+    private String cursor;
+
+    public static final String SORT_BY_DISTANCE = "distance";
+
     
 
     public GetRestaurantsRequest(
@@ -7,8 +7,8 @@
 package com.crio.qeats.exchanges;
 
 import com.crio.qeats.dto.Restaurant;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.List;
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -47,10 +47,26 @@ import lombok.NoArgsConstructor;
 //    }
 //  ]
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
 public class GetRestaurantsResponse {
     private List<Restaurant> restaurants;
+
+    // Cursor of the next page, only set when a limit was requested and the page is full.
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String nextCursor;
+
+    // Radius the restaurants were served within, which shrinks under load.
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double servingRadiusInKms;
+
+    public GetRestaurantsResponse(List<Restaurant> restaurants) {
+        this.restaurants = restaurants;
+    }
+
+    public GetRestaurantsResponse(List<Restaurant> restaurants, String nextCursor) {
+        this.restaurants = restaurants;
+        this.nextCursor = nextCursor;
+    }
 }
 
 // }
@@ -0,0 +1,94 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import com.crio.qeats.utils.OpeningHours;
+import java.time.LocalTime;
+import java.util.BitSet;
+
+/**
+ * For every 15 minute slot of the day, the set of restaurants (by ordinal) that are open at some
+ * point during that slot, kept as a bitset.
+ * Slots are picked from the time of each query, so the index rolls over to the next slot on its
+ * own and never needs a rebuild for the passing of time.
+ */
+public final class OpenRestaurantsBySlot {
+
+  public static final int SLOT_LENGTH_IN_MINUTES = 15;
+  public static final int SLOTS_PER_DAY = OpeningHours.MINUTES_PER_DAY / SLOT_LENGTH_IN_MINUTES;
+
+  private final BitSet[] openBySlot;
+
+  private OpenRestaurantsBySlot(BitSet[] openBySlot) {
+    this.openBySlot = openBySlot;
+  }
+
+  /**
+   * Builds the slot bitsets, the ordinal of a restaurant is its position in the array.
+   */
+  public static OpenRestaurantsBySlot of(OpeningHours[] openingHours) {
+    BitSet[] openBySlot = new BitSet[SLOTS_PER_DAY];
+    for (int slot = 0; slot < SLOTS_PER_DAY; slot++) {
+      openBySlot[slot] = new BitSet(openingHours.length);
+    }
+
+    for (int ordinal = 0; ordinal < openingHours.length; ordinal++) {
+      OpeningHours hours = openingHours[ordinal];
+      if (hours.isOvernight()) {
+        markOpen(openBySlot, ordinal, hours.opensAtMinute(), OpeningHours.MINUTES_PER_DAY);
+        markOpen(openBySlot, ordinal, 0, hours.closesAtMinute());
+      } else {
+        markOpen(openBySlot, ordinal, hours.opensAtMinute(), hours.closesAtMinute());
+      }
+    }
+    return new OpenRestaurantsBySlot(openBySlot);
+  }
+
+  // Marks the restaurant open in every slot overlapping the minutes [fromMinute, toMinute).
+  private static void markOpen(BitSet[] openBySlot, int ordinal, int fromMinute, int toMinute) {
+    if (fromMinute >= toMinute) {
+      return;
+    }
+    int lastSlot = (toMinute - 1) / SLOT_LENGTH_IN_MINUTES;
+    for (int slot = fromMinute / SLOT_LENGTH_IN_MINUTES; slot <= lastSlot; slot++) {
+      openBySlot[slot].set(ordinal);
+    }
+  }
+
+  /**
+   * Checks if a restaurant with the given hours is open at some point during the slot.
+   */
+  public static boolean isOpenDuringSlot(OpeningHours openingHours, int slot) {
+    int firstMinute = slot * SLOT_LENGTH_IN_MINUTES;
+    for (int minute = firstMinute; minute < firstMinute + SLOT_LENGTH_IN_MINUTES; minute++) {
+      if (openingHours.isOpenDuringMinute(minute)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public static int slotOf(LocalTime time) {
+    return (time.getHour() * 60 + time.getMinute()) / SLOT_LENGTH_IN_MINUTES;
+  }
+
+  /**
+   * Checks if the restaurant may be open at the given time. A true value still needs the exact
+   * opening hours check, a false value means it is closed for the whole slot.
+   */
+  public boolean mayBeOpen(int ordinal, LocalTime time) {
+    return openBySlot[slotOf(time)].get(ordinal);
+  }
+
+  /**
+   * The restaurants which may be open at the given time. Callers must not modify it.
+   */
+  public BitSet openDuringSlotOf(LocalTime time) {
+    return openBySlot[slotOf(time)];
+  }
+}
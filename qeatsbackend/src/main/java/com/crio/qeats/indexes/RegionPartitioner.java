@@ -0,0 +1,114 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import ch.hsr.geohash.BoundingBox;
+import ch.hsr.geohash.GeoHash;
+import com.crio.qeats.utils.GeoHashCells;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Routes locations to geographic partitions of the restaurant data.
+ * Partitions are geohash cells of {@link #REGION_PRECISION}, and a node is configured with the
+ * geohash prefixes it serves through "qeats.partitions.served", e.g. "tdr,te7" or "t" for a
+ * larger area. When nothing is configured the node serves every region.
+ * The in-memory structures only hold the served regions, so queries touching any other region
+ * must go to the database.
+ */
+@Component
+public class RegionPartitioner {
+
+  // Regions of precision 3 are roughly 156km x 156km, so a radius query touches at most a few
+  // of them while a country still splits into many.
+  static final int REGION_PRECISION = 3;
+
+  private static final Pattern GEOHASH_PREFIX =
+      Pattern.compile("[0123456789bcdefghjkmnpqrstuvwxyz]{1," + REGION_PRECISION + "}");
+
+  private final List<String> servedPrefixes;
+
+  public RegionPartitioner(@Value("${qeats.partitions.served:}") String servedPrefixes) {
+    List<String> prefixes = new ArrayList<>();
+    for (String prefix : servedPrefixes.split(",")) {
+      prefix = prefix.trim().toLowerCase(Locale.ROOT);
+      if (prefix.isEmpty()) {
+        continue;
+      }
+      if (!GEOHASH_PREFIX.matcher(prefix).matches()) {
+        throw new IllegalArgumentException("Invalid partition prefix " + prefix);
+      }
+      prefixes.add(prefix);
+    }
+    this.servedPrefixes = Collections.unmodifiableList(prefixes);
+  }
+
+  /**
+   * Checks if this node serves every region.
+   */
+  public boolean servesAll() {
+    return servedPrefixes.isEmpty();
+  }
+
+  /**
+   * Geohash prefixes served by this node, empty when it serves every region.
+   */
+  public List<String> getServedPrefixes() {
+    return servedPrefixes;
+  }
+
+  public String regionOf(double latitude, double longitude) {
+    return GeoHashCells.cellOf(latitude, longitude, REGION_PRECISION);
+  }
+
+  public boolean serves(String region) {
+    if (servesAll()) {
+      return true;
+    }
+    for (String prefix : servedPrefixes) {
+      if (region.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public boolean serves(double latitude, double longitude) {
+    return serves(regionOf(latitude, longitude));
+  }
+
+  /**
+   * Checks if every region intersecting the circle is served by this node.
+   */
+  public boolean servesCircle(double latitude, double longitude, double radiusInKms) {
+    if (servesAll()) {
+      return true;
+    }
+    for (String region : GeoHashCells.coveringCells(latitude, longitude, radiusInKms,
+        REGION_PRECISION)) {
+      if (!serves(region)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Bounding box of a served prefix as {minLatitude, maxLatitude, minLongitude, maxLongitude}.
+   */
+  public static double[] boundsOf(String prefix) {
+    BoundingBox boundingBox = GeoHash.fromGeohashString(prefix).getBoundingBox();
+    return new double[] {boundingBox.getMinLat(), boundingBox.getMaxLat(),
+        boundingBox.getMinLon(), boundingBox.getMaxLon()};
+  }
+}
@@ -0,0 +1,452 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import com.crio.qeats.changefeed.ChangeFeedConsumer;
+import com.crio.qeats.changefeed.RestaurantChangeListener;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.repositories.RestaurantRepository;
+import com.crio.qeats.utils.GeoHashCells;
+import com.crio.qeats.utils.GeoUtils;
+import com.crio.qeats.utils.OpeningHours;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.PostConstruct;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Resident spatial index over all restaurants, bucketed by geohash cell.
+ * The index is an immutable snapshot that is rebuilt from Mongo in the background and swapped
+ * in atomically, so radius queries never touch the database.
+ * Each snapshot also keeps which restaurants are open in every 15 minute slot of the day, so
+ * restaurants closed at query time are dropped before any distance math, and an R-tree over the
+ * coordinates for nearest neighbour queries.
+ * Only the regions served by this node are loaded, see {@link RegionPartitioner}.
+ * Between rebuilds, changes from the {@link ChangeFeedConsumer} are kept in a small overlay on
+ * the heap: the changed restaurants, bucketed by cell, and the ordinals of the snapshot they
+ * replace. Queries read the overlay next to the snapshot, and the next rebuild folds it in.
+ * When a snapshot file is configured, every rebuild is also written to it and the restaurants
+ * are served from the memory mapped file, see {@link RestaurantSnapshotFile}. At boot the index
+ * is loaded from that file, so the node serves queries before the first rebuild completes.
+ */
+@Component
+@Log4j2
+public class RestaurantGeoIndex implements RestaurantChangeListener {
+
+  // Cells of precision 6 are roughly 1.2km x 0.6km, which keeps a 5km radius query to a few
+  // hundred hash lookups while discarding most of the far away restaurants.
+  static final int CELL_PRECISION = 6;
+
+  private final RestaurantRepository restaurantRepository;
+  private final RegionPartitioner regionPartitioner;
+  private final boolean enabled;
+  private final Path snapshotFile;
+
+  private volatile Snapshot snapshot;
+
+  public RestaurantGeoIndex(RestaurantRepository restaurantRepository,
+      RegionPartitioner regionPartitioner,
+      @Value("${qeats.index.enabled:true}") boolean enabled,
+      @Value("${qeats.index.snapshot-file:}") String snapshotFile) {
+    this.restaurantRepository = restaurantRepository;
+    this.regionPartitioner = regionPartitioner;
+    this.enabled = enabled;
+    this.snapshotFile = snapshotFile.isEmpty() ? null : Paths.get(snapshotFile);
+  }
+
+  /**
+   * Loads the index from the snapshot file written by a previous run, if there is one.
+   */
+  @PostConstruct
+  public synchronized void loadSnapshotFile() {
+    if (!enabled || snapshotFile == null || snapshot != null || !Files.exists(snapshotFile)) {
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
+    try {
+      RestaurantSnapshotFile file = RestaurantSnapshotFile.map(snapshotFile);
+      // The file may have been written by a node serving other regions.
+      BitSet hidden = new BitSet(file.size());
+      for (int ordinal = 0; ordinal < file.size(); ordinal++) {
+        if (!regionPartitioner.serves(file.latitudeOf(ordinal), file.longitudeOf(ordinal))) {
+          hidden.set(ordinal);
+        }
+      }
+      Snapshot newSnapshot = Snapshot.of(file, hidden, Collections.emptyList());
+      snapshot = newSnapshot;
+      log.info("Restaurant geo index loaded from {} with {} restaurants in {} ms", snapshotFile,
+          newSnapshot.ordinalsById.size(), System.currentTimeMillis() - startTime);
+    } catch (Exception e) {
+      // The first rebuild loads the index from the database instead.
+      log.error("Failed to load restaurant geo index from {}", snapshotFile, e);
+    }
+  }
+
+  /**
+   * Checks if the index has been loaded and can answer queries.
+   * @return true once the first snapshot has been built.
+   */
+  public boolean isReady() {
+    return snapshot != null;
+  }
+
+  /**
+   * Rebuilds the index from the database and swaps it in.
+   * Runs in the background on the configured refresh interval.
+   */
+  @Scheduled(initialDelayString = "${qeats.index.initial-delay-ms:0}",
+      fixedDelayString = "${qeats.index.refresh-interval-ms:300000}")
+  public synchronized void refresh() {
+    if (!enabled) {
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
+    try {
+      Snapshot newSnapshot = snapshotOf(loadServedRestaurants());
+      snapshot = newSnapshot;
+      log.info("Restaurant geo index rebuilt with {} restaurants in {} cells of regions {}"
+          + " in {} ms", newSnapshot.ordinalsById.size(), newSnapshot.cells.size(),
+          regionPartitioner.servesAll() ? "*" : regionPartitioner.getServedPrefixes(),
+          System.currentTimeMillis() - startTime);
+    } catch (Exception e) {
+      // Keep serving the previous snapshot if the reload fails.
+      log.error("Failed to rebuild restaurant geo index", e);
+    }
+  }
+
+  // Writes the restaurants to the snapshot file and serves them from there.
+  private Snapshot snapshotOf(List<RestaurantEntity> restaurantEntities) {
+    if (snapshotFile != null) {
+      try {
+        RestaurantSnapshotFile.write(snapshotFile, restaurantEntities);
+        return Snapshot.of(RestaurantSnapshotFile.map(snapshotFile), new BitSet(),
+            Collections.emptyList());
+      } catch (IOException e) {
+        log.error("Failed to write restaurant snapshot to {}, keeping it on heap", snapshotFile,
+            e);
+      }
+    }
+    return Snapshot.of(null, new BitSet(), restaurantEntities);
+  }
+
+  /**
+   * Applies changed and deleted restaurants to the overlay of the snapshot, without going to the
+   * database or rebuilding the snapshot. Ignored until the first snapshot is built, which sees
+   * the changes anyway.
+   */
+  @Override
+  public synchronized void onRestaurantsChanged(List<RestaurantEntity> changed,
+      Set<String> deletedIds) {
+    Snapshot current = snapshot;
+    if (current == null) {
+      return;
+    }
+
+    // Copied on write, queries keep reading the overlay they started with.
+    BitSet replaced = (BitSet) current.overlay.replaced.clone();
+    Map<String, RestaurantEntity> restaurantsById =
+        new LinkedHashMap<>(current.overlay.restaurantsById);
+    Set<String> removedIds = new HashSet<>(deletedIds);
+    for (RestaurantEntity restaurantEntity : changed) {
+      removedIds.add(restaurantEntity.getId());
+    }
+    for (String removedId : removedIds) {
+      Integer ordinal = current.ordinalsById.get(removedId);
+      if (ordinal != null) {
+        replaced.set(ordinal);
+      }
+      restaurantsById.remove(removedId);
+    }
+    for (RestaurantEntity restaurantEntity : changed) {
+      // Restaurants may have moved out of the served regions.
+      if (restaurantEntity.getLatitude() != null && restaurantEntity.getLongitude() != null
+          && regionPartitioner.serves(restaurantEntity.getLatitude(),
+              restaurantEntity.getLongitude())) {
+        restaurantsById.put(restaurantEntity.getId(), restaurantEntity);
+      }
+    }
+    snapshot = current.withOverlay(new Overlay(replaced, restaurantsById));
+  }
+
+  @Override
+  public void onResync() {
+    refresh();
+  }
+
+  // Loads the restaurants of every served region, one box query per served prefix.
+  private List<RestaurantEntity> loadServedRestaurants() {
+    if (regionPartitioner.servesAll()) {
+      return restaurantRepository.findAll();
+    }
+
+    Map<String, RestaurantEntity> restaurantsById = new LinkedHashMap<>();
+    for (String prefix : regionPartitioner.getServedPrefixes()) {
+      double[] bounds = RegionPartitioner.boundsOf(prefix);
+      for (RestaurantEntity restaurantEntity : restaurantRepository.findRestaurantsInBox(
+          bounds[0], bounds[1], bounds[2], bounds[3])) {
+        // Restaurants on the edge of a box may belong to a neighbouring region.
+        if (regionPartitioner.serves(restaurantEntity.getLatitude(),
+            restaurantEntity.getLongitude())) {
+          restaurantsById.putIfAbsent(restaurantEntity.getId(), restaurantEntity);
+        }
+      }
+    }
+    return new ArrayList<>(restaurantsById.values());
+  }
+
+  /**
+   * Get the restaurants within the given circle that may be open at the given time.
+   * The result is a superset of the restaurants within the radius and open, callers are expected
+   * to do the exact opening hours check.
+   * @return candidate restaurants or empty list if the index is not loaded yet
+   */
+  public List<RestaurantEntity> findCandidatesWithin(double latitude, double longitude,
+      double radiusInKms, LocalTime currentTime) {
+    return findCandidatesWithin(latitude, longitude, 0, radiusInKms, currentTime);
+  }
+
+  /**
+   * Same as {@link #findCandidatesWithin(double, double, double, LocalTime)}, but skips the cells
+   * entirely closer than minDistanceInKms, e.g. the distance of the last restaurant of the
+   * previous page.
+   */
+  public List<RestaurantEntity> findCandidatesWithin(double latitude, double longitude,
+      double minDistanceInKms, double radiusInKms, LocalTime currentTime) {
+    Snapshot current = snapshot;
+    if (current == null) {
+      return Collections.emptyList();
+    }
+
+    BitSet openNow = current.openSlots.openDuringSlotOf(currentTime);
+    BitSet replaced = current.overlay.replaced;
+    GeoUtils.Circle area = GeoUtils.circle(latitude, longitude, radiusInKms);
+    List<RestaurantEntity> candidates = new ArrayList<>();
+    for (String cell : GeoHashCells.cellsReaching(GeoHashCells.coveringCells(latitude,
+        longitude, radiusInKms, CELL_PRECISION), latitude, longitude, minDistanceInKms)) {
+      int[] ordinals = current.cells.get(cell);
+      if (ordinals != null) {
+        for (int ordinal : ordinals) {
+          // Only restaurants within the radius are materialized, which decodes them from the
+          // snapshot file.
+          if (openNow.get(ordinal) && !replaced.get(ordinal)
+              && area.contains(current.latitudeOf(ordinal), current.longitudeOf(ordinal))) {
+            candidates.add(current.restaurantAt(ordinal));
+          }
+        }
+      }
+      for (RestaurantEntity restaurantEntity : current.overlay.cells.getOrDefault(cell,
+          Collections.emptyList())) {
+        if (area.contains(restaurantEntity.getLatitude(), restaurantEntity.getLongitude())) {
+          candidates.add(restaurantEntity);
+        }
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Drops the restaurants which the index knows to be closed for the whole slot of the given
+   * time. Restaurants missing from the index are kept.
+   * @return the candidates which may be open, or the given list if the index is not loaded yet
+   */
+  public List<RestaurantEntity> retainMayBeOpen(List<RestaurantEntity> restaurantEntities,
+      LocalTime currentTime) {
+    Snapshot current = snapshot;
+    if (current == null || restaurantEntities.isEmpty()) {
+      return restaurantEntities;
+    }
+
+    List<RestaurantEntity> mayBeOpen = new ArrayList<>(restaurantEntities.size());
+    for (RestaurantEntity restaurantEntity : restaurantEntities) {
+      // Restaurants changed since the snapshot was built are kept as well.
+      Integer ordinal = current.ordinalsById.get(restaurantEntity.getId());
+      if (ordinal == null || current.overlay.replaced.get(ordinal)
+          || current.openSlots.mayBeOpen(ordinal, currentTime)) {
+        mayBeOpen.add(restaurantEntity);
+      }
+    }
+    return mayBeOpen;
+  }
+
+  /**
+   * Get the k restaurants closest to the given location, and within the given distance, that are
+   * open at the given time.
+   * @return up to k open restaurants, closest first, or empty list if the index is not loaded yet
+   */
+  public List<RestaurantEntity> findNearestOpen(double latitude, double longitude, int k,
+      double maxDistanceInKms, LocalTime currentTime) {
+    Snapshot current = snapshot;
+    if (current == null) {
+      return Collections.emptyList();
+    }
+
+    BitSet openNow = current.openSlots.openDuringSlotOf(currentTime);
+    BitSet replaced = current.overlay.replaced;
+    int[] nearest = current.tree.nearest(latitude, longitude, k, maxDistanceInKms,
+        ordinal -> openNow.get(ordinal) && !replaced.get(ordinal)
+            && current.openingHours[ordinal].isOpenAt(currentTime));
+    List<RestaurantEntity> restaurants = new ArrayList<>(nearest.length);
+    for (int ordinal : nearest) {
+      restaurants.add(current.restaurantAt(ordinal));
+    }
+    if (current.overlay.restaurantsById.isEmpty()) {
+      return restaurants;
+    }
+
+    // Merges the open restaurants of the overlay, which are few, into the k nearest.
+    for (RestaurantEntity restaurantEntity : current.overlay.restaurantsById.values()) {
+      if (restaurantEntity.getOpeningHours().isOpenAt(currentTime)
+          && GeoUtils.findDistanceInKm(latitude, longitude, restaurantEntity.getLatitude(),
+              restaurantEntity.getLongitude()) <= maxDistanceInKms) {
+        restaurants.add(restaurantEntity);
+      }
+    }
+    restaurants.sort(Comparator.comparingDouble(restaurantEntity -> GeoUtils.findDistanceInKm(
+        latitude, longitude, restaurantEntity.getLatitude(), restaurantEntity.getLongitude())));
+    return restaurants.size() > k ? new ArrayList<>(restaurants.subList(0, k)) : restaurants;
+  }
+
+  // Restaurants changed since the snapshot was built, and the ordinals of the snapshot they
+  // replace, which queries skip. Deleted restaurants only replace their ordinal.
+  private static class Overlay {
+
+    private static final Overlay EMPTY = new Overlay(new BitSet(), Collections.emptyMap());
+
+    private final BitSet replaced;
+    private final Map<String, RestaurantEntity> restaurantsById;
+    private final Map<String, List<RestaurantEntity>> cells;
+
+    private Overlay(BitSet replaced, Map<String, RestaurantEntity> restaurantsById) {
+      this.replaced = replaced;
+      this.restaurantsById = restaurantsById;
+      this.cells = new HashMap<>();
+      for (RestaurantEntity restaurantEntity : restaurantsById.values()) {
+        cells.computeIfAbsent(GeoHashCells.cellOf(restaurantEntity.getLatitude(),
+            restaurantEntity.getLongitude(), CELL_PRECISION), key -> new ArrayList<>())
+            .add(restaurantEntity);
+      }
+    }
+  }
+
+  // Restaurants of the snapshot file come first, followed by the ones kept on the heap.
+  private static class Snapshot {
+
+    private final RestaurantSnapshotFile file;
+    private final int fileSize;
+    private final RestaurantEntity[] heapRestaurants;
+    private final OpeningHours[] openingHours;
+    private final Map<String, int[]> cells;
+    private final Map<String, Integer> ordinalsById;
+    private final OpenRestaurantsBySlot openSlots;
+    private final RestaurantRTree tree;
+    private final Overlay overlay;
+
+    private Snapshot(RestaurantSnapshotFile file, RestaurantEntity[] heapRestaurants,
+        OpeningHours[] openingHours, Map<String, int[]> cells, Map<String, Integer> ordinalsById,
+        OpenRestaurantsBySlot openSlots, RestaurantRTree tree, Overlay overlay) {
+      this.file = file;
+      this.fileSize = file == null ? 0 : file.size();
+      this.heapRestaurants = heapRestaurants;
+      this.openingHours = openingHours;
+      this.cells = cells;
+      this.ordinalsById = ordinalsById;
+      this.openSlots = openSlots;
+      this.tree = tree;
+      this.overlay = overlay;
+    }
+
+    Snapshot withOverlay(Overlay overlay) {
+      return new Snapshot(file, heapRestaurants, openingHours, cells, ordinalsById, openSlots,
+          tree, overlay);
+    }
+
+    RestaurantEntity restaurantAt(int ordinal) {
+      return ordinal < fileSize ? file.restaurantAt(ordinal)
+          : heapRestaurants[ordinal - fileSize];
+    }
+
+    double latitudeOf(int ordinal) {
+      return ordinal < fileSize ? file.latitudeOf(ordinal)
+          : heapRestaurants[ordinal - fileSize].getLatitude();
+    }
+
+    double longitudeOf(int ordinal) {
+      return ordinal < fileSize ? file.longitudeOf(ordinal)
+          : heapRestaurants[ordinal - fileSize].getLongitude();
+    }
+
+    // Ordinals of the file which are hidden, e.g. not served, are never open and are left out
+    // of the cells.
+    static Snapshot of(RestaurantSnapshotFile file, BitSet hidden,
+        List<RestaurantEntity> restaurantEntities) {
+      List<RestaurantEntity> located = new ArrayList<>(restaurantEntities.size());
+      for (RestaurantEntity restaurantEntity : restaurantEntities) {
+        if (restaurantEntity.getLatitude() != null && restaurantEntity.getLongitude() != null) {
+          located.add(restaurantEntity);
+        }
+      }
+
+      RestaurantEntity[] heapRestaurants = located.toArray(new RestaurantEntity[0]);
+      int fileSize = file == null ? 0 : file.size();
+      int size = fileSize + heapRestaurants.length;
+      Map<String, List<Integer>> buckets = new HashMap<>();
+      Map<String, Integer> ordinalsById = new HashMap<>(size * 2);
+      OpeningHours[] openingHours = new OpeningHours[size];
+      double[] latitudes = new double[size];
+      double[] longitudes = new double[size];
+      for (int ordinal = 0; ordinal < size; ordinal++) {
+        if (ordinal < fileSize) {
+          latitudes[ordinal] = file.latitudeOf(ordinal);
+          longitudes[ordinal] = file.longitudeOf(ordinal);
+          if (hidden.get(ordinal)) {
+            // Never open, so neither candidates nor nearest neighbours pick it up.
+            openingHours[ordinal] = OpeningHours.of(null, null);
+            continue;
+          }
+          openingHours[ordinal] = file.openingHoursOf(ordinal);
+          ordinalsById.put(file.idOf(ordinal), ordinal);
+        } else {
+          RestaurantEntity restaurantEntity = heapRestaurants[ordinal - fileSize];
+          latitudes[ordinal] = restaurantEntity.getLatitude();
+          longitudes[ordinal] = restaurantEntity.getLongitude();
+          openingHours[ordinal] = restaurantEntity.getOpeningHours();
+          ordinalsById.put(restaurantEntity.getId(), ordinal);
+        }
+        String cell = GeoHashCells.cellOf(latitudes[ordinal], longitudes[ordinal],
+            CELL_PRECISION);
+        buckets.computeIfAbsent(cell, key -> new ArrayList<>()).add(ordinal);
+      }
+
+      Map<String, int[]> cells = new HashMap<>(buckets.size() * 2);
+      for (Map.Entry<String, List<Integer>> bucket : buckets.entrySet()) {
+        cells.put(bucket.getKey(), bucket.getValue().stream().mapToInt(Integer::intValue).toArray());
+      }
+      return new Snapshot(file, heapRestaurants, openingHours, cells, ordinalsById,
+          OpenRestaurantsBySlot.of(openingHours), RestaurantRTree.build(latitudes, longitudes),
+          Overlay.EMPTY);
+    }
+  }
+}
@@ -0,0 +1,406 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import com.crio.qeats.utils.GeoUtils;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only R-tree over restaurant coordinates, bulk loaded with Sort-Tile-Recursive packing.
+ * Points and nodes live in primitive arrays, children of a node are a contiguous range of the
+ * level below, so a query never allocates per node.
+ * Points are identified by their ordinal, i.e. their position in the arrays the tree was built
+ * from.
+ */
+public final class RestaurantRTree {
+
+  static final int NODE_CAPACITY = 16;
+
+  private static final double EARTH_RADIUS_IN_KMS = 6371.0;
+
+  // Points in STR order.
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final int[] ordinals;
+
+  // Nodes level by level, leaves first and the root last. Children of node i are the points
+  // (for leaves) or the nodes [childStart[i], childEnd[i]).
+  private final double[] minLatitudes;
+  private final double[] minLongitudes;
+  private final double[] maxLatitudes;
+  private final double[] maxLongitudes;
+  private final int[] childStart;
+  private final int[] childEnd;
+  private final int leafCount;
+
+  private RestaurantRTree(double[] latitudes, double[] longitudes, int[] ordinals, Level[] levels) {
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.ordinals = ordinals;
+    this.leafCount = levels.length == 0 ? 0 : levels[0].size;
+
+    int nodeCount = 0;
+    for (Level level : levels) {
+      nodeCount += level.size;
+    }
+    minLatitudes = new double[nodeCount];
+    minLongitudes = new double[nodeCount];
+    maxLatitudes = new double[nodeCount];
+    maxLongitudes = new double[nodeCount];
+    childStart = new int[nodeCount];
+    childEnd = new int[nodeCount];
+
+    int offset = 0;
+    int childOffset = 0;
+    for (Level level : levels) {
+      System.arraycopy(level.minLatitudes, 0, minLatitudes, offset, level.size);
+      System.arraycopy(level.minLongitudes, 0, minLongitudes, offset, level.size);
+      System.arraycopy(level.maxLatitudes, 0, maxLatitudes, offset, level.size);
+      System.arraycopy(level.maxLongitudes, 0, maxLongitudes, offset, level.size);
+      for (int i = 0; i < level.size; i++) {
+        childStart[offset + i] = level.childStart[i] + childOffset;
+        childEnd[offset + i] = level.childEnd[i] + childOffset;
+      }
+      // Children of the next level are the nodes of this one, points are not offset.
+      childOffset = offset;
+      offset += level.size;
+    }
+  }
+
+  /**
+   * Bulk loads a tree over the given coordinates, the ordinal of a point is its index.
+   */
+  public static RestaurantRTree build(double[] latitudes, double[] longitudes) {
+    int[] order = strOrder(latitudes, longitudes, IntStream.range(0, latitudes.length).toArray());
+    double[] sortedLatitudes = new double[order.length];
+    double[] sortedLongitudes = new double[order.length];
+    for (int i = 0; i < order.length; i++) {
+      sortedLatitudes[i] = latitudes[order[i]];
+      sortedLongitudes[i] = longitudes[order[i]];
+    }
+
+    if (order.length == 0) {
+      return new RestaurantRTree(sortedLatitudes, sortedLongitudes, order, new Level[0]);
+    }
+
+    Level level = Level.ofPoints(sortedLatitudes, sortedLongitudes);
+    Level[] levels = new Level[] {level};
+    while (level.size > 1) {
+      level.sortInStrOrder();
+      level = Level.ofNodes(level);
+      levels = Arrays.copyOf(levels, levels.length + 1);
+      levels[levels.length - 1] = level;
+    }
+    return new RestaurantRTree(sortedLatitudes, sortedLongitudes, order, levels);
+  }
+
+  public int size() {
+    return ordinals.length;
+  }
+
+  /**
+   * Finds the k points closest to the given location that pass the filter, by haversine
+   * distance. Branches are visited best first and pruned against a bounded max-heap holding the
+   * k best points found so far.
+   * @return ordinals of up to k points, closest first
+   */
+  public int[] nearest(double latitude, double longitude, int k, IntPredicate accept) {
+    return nearest(latitude, longitude, k, Double.POSITIVE_INFINITY, accept);
+  }
+
+  /**
+   * Same as {@link #nearest(double, double, int, IntPredicate)} but only among the points within
+   * the given distance, so that branches beyond it are never visited.
+   * @return ordinals of up to k points within maxDistanceInKms, closest first
+   */
+  public int[] nearest(double latitude, double longitude, int k, double maxDistanceInKms,
+      IntPredicate accept) {
+    if (k <= 0 || ordinals.length == 0) {
+      return new int[0];
+    }
+
+    DoubleIntHeap best = new DoubleIntHeap(k, true);
+    DoubleIntHeap frontier = new DoubleIntHeap(64, false);
+    double[] distances = new double[NODE_CAPACITY];
+    int root = minLatitudes.length - 1;
+    frontier.push(lowerBoundInKms(root, latitude, longitude), root);
+
+    while (!frontier.isEmpty()) {
+      if (best.size() == k && frontier.peekKey() >= best.peekKey()) {
+        break;
+      }
+      int node = frontier.pop();
+      if (node < leafCount) {
+        int start = childStart[node];
+        GeoUtils.findDistancesInKm(latitude, longitude, latitudes, longitudes, start,
+            childEnd[node], distances);
+        for (int point = start; point < childEnd[node]; point++) {
+          if (!accept.test(ordinals[point])) {
+            continue;
+          }
+          double distance = distances[point - start];
+          if (distance > maxDistanceInKms) {
+            continue;
+          }
+          if (best.size() < k) {
+            best.push(distance, ordinals[point]);
+          } else if (distance < best.peekKey()) {
+            best.pop();
+            best.push(distance, ordinals[point]);
+          }
+        }
+      } else {
+        for (int child = childStart[node]; child < childEnd[node]; child++) {
+          double lowerBound = lowerBoundInKms(child, latitude, longitude);
+          if (lowerBound > maxDistanceInKms) {
+            continue;
+          }
+          if (best.size() < k || lowerBound < best.peekKey()) {
+            frontier.push(lowerBound, child);
+          }
+        }
+      }
+    }
+
+    int[] nearest = new int[best.size()];
+    for (int i = nearest.length - 1; i >= 0; i--) {
+      nearest[i] = best.pop();
+    }
+    return nearest;
+  }
+
+  // Haversine distance to the closest point any box could hold: latitude and longitude
+  // differences are at least the gap to the box, and the cosine of a latitude in the box at
+  // least the cosine of its largest absolute latitude.
+  private double lowerBoundInKms(int node, double latitude, double longitude) {
+    double latitudeGap = 0;
+    if (latitude < minLatitudes[node]) {
+      latitudeGap = minLatitudes[node] - latitude;
+    } else if (latitude > maxLatitudes[node]) {
+      latitudeGap = latitude - maxLatitudes[node];
+    }
+
+    double longitudeGap = 0;
+    if (longitude < minLongitudes[node] || longitude > maxLongitudes[node]) {
+      longitudeGap = Math.min(circularGap(longitude - minLongitudes[node]),
+          circularGap(longitude - maxLongitudes[node]));
+    }
+
+    if (latitudeGap == 0 && longitudeGap == 0) {
+      return 0;
+    }
+    double maxAbsLatitude = Math.max(Math.abs(minLatitudes[node]),
+        Math.abs(maxLatitudes[node]));
+    double sinHalfLatitudeGap = Math.sin(Math.toRadians(latitudeGap) / 2);
+    double sinHalfLongitudeGap = Math.sin(Math.toRadians(longitudeGap) / 2);
+    double haversine = sinHalfLatitudeGap * sinHalfLatitudeGap
+        + Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(maxAbsLatitude))
+        * sinHalfLongitudeGap * sinHalfLongitudeGap;
+    return 2 * EARTH_RADIUS_IN_KMS * Math.asin(Math.min(1.0, Math.sqrt(haversine)));
+  }
+
+  private static double circularGap(double degrees) {
+    double gap = Math.abs(degrees) % 360.0;
+    return Math.min(gap, 360.0 - gap);
+  }
+
+  // Sorts items by longitude, cuts them into vertical slices of sqrt(#nodes) nodes each and
+  // sorts every slice by latitude, so that runs of NODE_CAPACITY items form compact tiles.
+  private static int[] strOrder(double[] latitudes, double[] longitudes, int[] items) {
+    int nodeCount = (items.length + NODE_CAPACITY - 1) / NODE_CAPACITY;
+    int sliceSize = (int) Math.ceil(Math.sqrt(nodeCount)) * NODE_CAPACITY;
+
+    Integer[] order = Arrays.stream(items).boxed().toArray(Integer[]::new);
+    Arrays.sort(order, Comparator.comparingDouble(item -> longitudes[item]));
+    for (int start = 0; start < order.length; start += sliceSize) {
+      Arrays.sort(order, start, Math.min(start + sliceSize, order.length),
+          Comparator.comparingDouble(item -> latitudes[item]));
+    }
+    return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+  }
+
+  // One level of nodes while the tree is being built.
+  private static final class Level {
+
+    private double[] minLatitudes;
+    private double[] minLongitudes;
+    private double[] maxLatitudes;
+    private double[] maxLongitudes;
+    private int[] childStart;
+    private int[] childEnd;
+    private final int size;
+
+    private Level(int size) {
+      this.size = size;
+      minLatitudes = new double[size];
+      minLongitudes = new double[size];
+      maxLatitudes = new double[size];
+      maxLongitudes = new double[size];
+      childStart = new int[size];
+      childEnd = new int[size];
+    }
+
+    // Leaves over runs of points already in STR order.
+    static Level ofPoints(double[] latitudes, double[] longitudes) {
+      Level level = new Level((latitudes.length + NODE_CAPACITY - 1) / NODE_CAPACITY);
+      for (int node = 0; node < level.size; node++) {
+        int start = node * NODE_CAPACITY;
+        int end = Math.min(start + NODE_CAPACITY, latitudes.length);
+        level.childStart[node] = start;
+        level.childEnd[node] = end;
+        level.minLatitudes[node] = Double.POSITIVE_INFINITY;
+        level.minLongitudes[node] = Double.POSITIVE_INFINITY;
+        level.maxLatitudes[node] = Double.NEGATIVE_INFINITY;
+        level.maxLongitudes[node] = Double.NEGATIVE_INFINITY;
+        for (int point = start; point < end; point++) {
+          level.minLatitudes[node] = Math.min(level.minLatitudes[node], latitudes[point]);
+          level.minLongitudes[node] = Math.min(level.minLongitudes[node], longitudes[point]);
+          level.maxLatitudes[node] = Math.max(level.maxLatitudes[node], latitudes[point]);
+          level.maxLongitudes[node] = Math.max(level.maxLongitudes[node], longitudes[point]);
+        }
+      }
+      return level;
+    }
+
+    // Parents over runs of children, which must already be in STR order.
+    static Level ofNodes(Level children) {
+      Level level = new Level((children.size + NODE_CAPACITY - 1) / NODE_CAPACITY);
+      for (int node = 0; node < level.size; node++) {
+        int start = node * NODE_CAPACITY;
+        int end = Math.min(start + NODE_CAPACITY, children.size);
+        level.childStart[node] = start;
+        level.childEnd[node] = end;
+        level.minLatitudes[node] = Double.POSITIVE_INFINITY;
+        level.minLongitudes[node] = Double.POSITIVE_INFINITY;
+        level.maxLatitudes[node] = Double.NEGATIVE_INFINITY;
+        level.maxLongitudes[node] = Double.NEGATIVE_INFINITY;
+        for (int child = start; child < end; child++) {
+          level.minLatitudes[node] = Math.min(level.minLatitudes[node],
+              children.minLatitudes[child]);
+          level.minLongitudes[node] = Math.min(level.minLongitudes[node],
+              children.minLongitudes[child]);
+          level.maxLatitudes[node] = Math.max(level.maxLatitudes[node],
+              children.maxLatitudes[child]);
+          level.maxLongitudes[node] = Math.max(level.maxLongitudes[node],
+              children.maxLongitudes[child]);
+        }
+      }
+      return level;
+    }
+
+    // Reorders the nodes of this level by the STR order of their centers.
+    void sortInStrOrder() {
+      double[] centerLatitudes = new double[size];
+      double[] centerLongitudes = new double[size];
+      for (int node = 0; node < size; node++) {
+        centerLatitudes[node] = (minLatitudes[node] + maxLatitudes[node]) / 2;
+        centerLongitudes[node] = (minLongitudes[node] + maxLongitudes[node]) / 2;
+      }
+      int[] order = strOrder(centerLatitudes, centerLongitudes,
+          IntStream.range(0, size).toArray());
+      minLatitudes = permute(minLatitudes, order);
+      minLongitudes = permute(minLongitudes, order);
+      maxLatitudes = permute(maxLatitudes, order);
+      maxLongitudes = permute(maxLongitudes, order);
+      childStart = permute(childStart, order);
+      childEnd = permute(childEnd, order);
+    }
+
+    private static double[] permute(double[] values, int[] order) {
+      double[] permuted = new double[order.length];
+      for (int i = 0; i < order.length; i++) {
+        permuted[i] = values[order[i]];
+      }
+      return permuted;
+    }
+
+    private static int[] permute(int[] values, int[] order) {
+      int[] permuted = new int[order.length];
+      for (int i = 0; i < order.length; i++) {
+        permuted[i] = values[order[i]];
+      }
+      return permuted;
+    }
+  }
+
+  // Binary heap of (double key, int value) pairs on primitive arrays, a min-heap or a max-heap.
+  private static final class DoubleIntHeap {
+
+    private double[] keys;
+    private int[] values;
+    private int size;
+    private final boolean max;
+
+    DoubleIntHeap(int capacity, boolean max) {
+      keys = new double[Math.max(1, capacity)];
+      values = new int[keys.length];
+      this.max = max;
+    }
+
+    int size() {
+      return size;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    double peekKey() {
+      return keys[0];
+    }
+
+    void push(double key, int value) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (!before(key, keys[parent])) {
+          break;
+        }
+        keys[i] = keys[parent];
+        values[i] = values[parent];
+        i = parent;
+      }
+      keys[i] = key;
+      values[i] = value;
+    }
+
+    int pop() {
+      int top = values[0];
+      size--;
+      double key = keys[size];
+      int value = values[size];
+      int i = 0;
+      while (2 * i + 1 < size) {
+        int child = 2 * i + 1;
+        if (child + 1 < size && before(keys[child + 1], keys[child])) {
+          child++;
+        }
+        if (!before(keys[child], key)) {
+          break;
+        }
+        keys[i] = keys[child];
+        values[i] = values[child];
+        i = child;
+      }
+      keys[i] = key;
+      values[i] = value;
+      return top;
+    }
+
+    private boolean before(double key, double other) {
+      return max ? key > other : key < other;
+    }
+  }
+}
@@ -0,0 +1,232 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.OpeningHours;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary snapshot of the restaurants, read through a memory mapped buffer so that a
+ * node can load its index at boot without going through Mongo, and the restaurant data stays
+ * off the Java heap.
+ * Layout, all big endian:
+ * - header: magic, version, restaurant count
+ * - fixed width columns: latitude and longitude as doubles, opening hours as packed minutes
+ * - one int reference per string field of every restaurant, -1 for null
+ * - string heap of length prefixed UTF-8 strings, each distinct string stored once
+ * Restaurants are materialized into {@link RestaurantEntity} only when they are read.
+ */
+public final class RestaurantSnapshotFile {
+
+  private static final int MAGIC = 0x51525331;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 12;
+
+  // String fields of every restaurant, in the order of their references.
+  private static final int ID = 0;
+  private static final int RESTAURANT_ID = 1;
+  private static final int NAME = 2;
+  private static final int CITY = 3;
+  private static final int IMAGE_URL = 4;
+  private static final int OPENS_AT = 5;
+  private static final int CLOSES_AT = 6;
+  private static final int ATTRIBUTES = 7;
+  private static final int STRING_FIELDS = 8;
+
+  private static final char ATTRIBUTE_SEPARATOR = '\u001F';
+
+  private final ByteBuffer buffer;
+  private final int size;
+  private final int longitudesAt;
+  private final int hoursAt;
+  private final int stringRefsAt;
+  private final int stringHeapAt;
+
+  private RestaurantSnapshotFile(ByteBuffer buffer, int size) {
+    this.buffer = buffer;
+    this.size = size;
+    this.longitudesAt = HEADER_BYTES + size * Double.BYTES;
+    this.hoursAt = longitudesAt + size * Double.BYTES;
+    this.stringRefsAt = hoursAt + size * Integer.BYTES;
+    this.stringHeapAt = stringRefsAt + size * STRING_FIELDS * Integer.BYTES;
+  }
+
+  /**
+   * Writes the located restaurants to the file, replacing it atomically.
+   * @return number of restaurants written
+   */
+  public static int write(Path file, List<RestaurantEntity> restaurantEntities)
+      throws IOException {
+    List<RestaurantEntity> located = new ArrayList<>(restaurantEntities.size());
+    for (RestaurantEntity restaurantEntity : restaurantEntities) {
+      if (restaurantEntity.getLatitude() != null && restaurantEntity.getLongitude() != null) {
+        located.add(restaurantEntity);
+      }
+    }
+
+    Map<String, Integer> stringRefs = new HashMap<>();
+    ByteArrayOutputStream stringHeap = new ByteArrayOutputStream();
+    DataOutputStream stringHeapOut = new DataOutputStream(stringHeap);
+    int[] refs = new int[located.size() * STRING_FIELDS];
+    for (int ordinal = 0; ordinal < located.size(); ordinal++) {
+      RestaurantEntity restaurantEntity = located.get(ordinal);
+      String[] fields = new String[STRING_FIELDS];
+      fields[ID] = restaurantEntity.getId();
+      fields[RESTAURANT_ID] = restaurantEntity.getRestaurantId();
+      fields[NAME] = restaurantEntity.getName();
+      fields[CITY] = restaurantEntity.getCity();
+      fields[IMAGE_URL] = restaurantEntity.getImageUrl();
+      fields[OPENS_AT] = restaurantEntity.getOpensAt();
+      fields[CLOSES_AT] = restaurantEntity.getClosesAt();
+      fields[ATTRIBUTES] = restaurantEntity.getAttributes() == null ? null
+          : String.join(String.valueOf(ATTRIBUTE_SEPARATOR), restaurantEntity.getAttributes());
+      for (int field = 0; field < STRING_FIELDS; field++) {
+        refs[ordinal * STRING_FIELDS + field] =
+            refOf(fields[field], stringRefs, stringHeap, stringHeapOut);
+      }
+    }
+
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(temporary), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(located.size());
+      for (RestaurantEntity restaurantEntity : located) {
+        out.writeDouble(restaurantEntity.getLatitude());
+      }
+      for (RestaurantEntity restaurantEntity : located) {
+        out.writeDouble(restaurantEntity.getLongitude());
+      }
+      for (RestaurantEntity restaurantEntity : located) {
+        OpeningHours openingHours = restaurantEntity.getOpeningHours();
+        out.writeInt(openingHours.opensAtMinute() << 16 | openingHours.closesAtMinute());
+      }
+      for (int ref : refs) {
+        out.writeInt(ref);
+      }
+      stringHeap.writeTo(out);
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return located.size();
+  }
+
+  private static int refOf(String value, Map<String, Integer> stringRefs,
+      ByteArrayOutputStream stringHeap, DataOutputStream stringHeapOut) throws IOException {
+    if (value == null) {
+      return -1;
+    }
+    Integer ref = stringRefs.get(value);
+    if (ref == null) {
+      ref = stringHeap.size();
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      stringHeapOut.writeInt(bytes.length);
+      stringHeapOut.write(bytes);
+      if (stringHeap.size() < 0) {
+        throw new IOException("Restaurant snapshot string heap exceeds 2GB");
+      }
+      stringRefs.put(value, ref);
+    }
+    return ref;
+  }
+
+  /**
+   * Maps the snapshot file into memory.
+   * @throws IOException if the file can't be read or is not a snapshot of this version
+   */
+  public static RestaurantSnapshotFile map(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a restaurant snapshot: " + file);
+      }
+      if (buffer.getInt(4) != VERSION) {
+        throw new IOException("Unsupported restaurant snapshot version " + buffer.getInt(4));
+      }
+      RestaurantSnapshotFile snapshotFile = new RestaurantSnapshotFile(buffer, buffer.getInt(8));
+      if (snapshotFile.size < 0 || snapshotFile.stringHeapAt > buffer.limit()) {
+        throw new IOException("Truncated restaurant snapshot: " + file);
+      }
+      return snapshotFile;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public double latitudeOf(int ordinal) {
+    return buffer.getDouble(HEADER_BYTES + ordinal * Double.BYTES);
+  }
+
+  public double longitudeOf(int ordinal) {
+    return buffer.getDouble(longitudesAt + ordinal * Double.BYTES);
+  }
+
+  public OpeningHours openingHoursOf(int ordinal) {
+    int packed = buffer.getInt(hoursAt + ordinal * Integer.BYTES);
+    return OpeningHours.ofMinutes(packed >>> 16, packed & 0xFFFF);
+  }
+
+  public String idOf(int ordinal) {
+    return stringOf(ordinal, ID);
+  }
+
+  /**
+   * Reads the restaurant into a new entity.
+   */
+  public RestaurantEntity restaurantAt(int ordinal) {
+    RestaurantEntity restaurantEntity = new RestaurantEntity();
+    restaurantEntity.setId(stringOf(ordinal, ID));
+    restaurantEntity.setRestaurantId(stringOf(ordinal, RESTAURANT_ID));
+    restaurantEntity.setName(stringOf(ordinal, NAME));
+    restaurantEntity.setCity(stringOf(ordinal, CITY));
+    restaurantEntity.setImageUrl(stringOf(ordinal, IMAGE_URL));
+    restaurantEntity.setLatitude(latitudeOf(ordinal));
+    restaurantEntity.setLongitude(longitudeOf(ordinal));
+    restaurantEntity.setOpensAt(stringOf(ordinal, OPENS_AT));
+    restaurantEntity.setClosesAt(stringOf(ordinal, CLOSES_AT));
+    String attributes = stringOf(ordinal, ATTRIBUTES);
+    restaurantEntity.setAttributes(attributes == null ? null : attributes.isEmpty()
+        ? new ArrayList<>() : new ArrayList<>(Arrays.asList(
+            attributes.split(String.valueOf(ATTRIBUTE_SEPARATOR), -1))));
+    return restaurantEntity;
+  }
+
+  private String stringOf(int ordinal, int field) {
+    int ref = buffer.getInt(stringRefsAt + (ordinal * STRING_FIELDS + field) * Integer.BYTES);
+    if (ref < 0) {
+      return null;
+    }
+    int at = stringHeapAt + ref;
+    byte[] bytes = new byte[buffer.getInt(at)];
+    // Absolute reads on a duplicate, so that concurrent queries don't share a position.
+    ByteBuffer view = buffer.duplicate();
+    view.position(at + Integer.BYTES);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -6,12 +6,22 @@
 
 package com.crio.qeats.models;
 
+import com.crio.qeats.utils.OpeningHours;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import javax.validation.constraints.NotNull;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 // Java class that maps to Mongo collection.
@@ -50,5 +60,45 @@ public class RestaurantEntity {
   @NotNull
   private List<String> attributes = new ArrayList<>();
 
+  // GeoJSON copy of latitude/longitude, backed by a 2dsphere index for geo queries.
+  // Left out of JSON (e.g. cache entries) since it can be derived from latitude/longitude.
+  @JsonIgnore
+  private GeoJsonPoint location;
+
+  // Time of the last write, which the change feed polls on servers without change streams.
+  @JsonIgnore
+  @LastModifiedDate
+  private Date updatedAt;
+
+  // opensAt/closesAt parsed once, so that hot paths don't parse strings per request.
+  @Transient
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private volatile OpeningHours openingHours;
+
+  public void setOpensAt(String opensAt) {
+    this.opensAt = opensAt;
+    this.openingHours = null;
+  }
+
+  public void setClosesAt(String closesAt) {
+    this.closesAt = closesAt;
+    this.openingHours = null;
+  }
+
+  /**
+   * Opening hours parsed from opensAt and closesAt, computed on first use.
+   */
+  public OpeningHours getOpeningHours() {
+    OpeningHours hours = openingHours;
+    if (hours == null) {
+      hours = OpeningHours.of(opensAt, closesAt);
+      openingHours = hours;
+    }
+    return hours;
+  }
+
 }
 
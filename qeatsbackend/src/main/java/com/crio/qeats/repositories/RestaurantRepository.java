@@ -10,6 +10,7 @@ import com.crio.qeats.dto.Restaurant;
 import com.crio.qeats.models.RestaurantEntity;
 import java.util.List;
 import java.util.Optional;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
@@ -31,5 +32,32 @@ public interface RestaurantRepository extends MongoRepository<RestaurantEntity,
     @Query("{'attributes': { $elemMatch: { $regex: ?0, $options: 'i' } } }")
     Optional<List<RestaurantEntity>> findRestaurantsByCuisine(String searchString);
 
+    // Restaurants within the given spherical radius (in radians), irrespective of opening hours.
+    @Query("{'location': { $geoWithin: { $centerSphere: [ [ ?1, ?0 ], ?2 ] } } }")
+    Optional<List<RestaurantEntity>> findRestaurantsCloseBy(Double latitude, Double longitude,
+        Double radiusInRadians);
+
+    // Restaurants within the given spherical radius (in radians) whose opening hours, as
+    // "HH:mm" strings, include the given time, or which are open overnight.
+    // Callers still need to do the exact checks.
+    @Query("{'location': { $geoWithin: { $centerSphere: [ [ ?1, ?0 ], ?2 ] } },"
+        + " $or: [ { 'opensAt': { $lte: ?3 }, 'closesAt': { $gte: ?3 } },"
+        + " { $expr: { $lt: [ '$closesAt', '$opensAt' ] } } ] }")
+    Optional<List<RestaurantEntity>> findRestaurantsCloseByAndOpen(Double latitude,
+        Double longitude, Double radiusInRadians, String time);
+
+    // Restaurants within the given latitude/longitude box, bounds included, e.g. a partition.
+    @Query("{'latitude': { $gte: ?0, $lte: ?1 }, 'longitude': { $gte: ?2, $lte: ?3 } }")
+    List<RestaurantEntity> findRestaurantsInBox(Double minLatitude, Double maxLatitude,
+        Double minLongitude, Double maxLongitude);
+
+    // Same filter on opening hours as above, closest first within the given distance.
+    @Query("{'location': { $nearSphere: { $geometry:"
+        + " { type: 'Point', coordinates: [ ?1, ?0 ] }, $maxDistance: ?3 } },"
+        + " $or: [ { 'opensAt': { $lte: ?2 }, 'closesAt': { $gte: ?2 } },"
+        + " { $expr: { $lt: [ '$closesAt', '$opensAt' ] } } ] }")
+    List<RestaurantEntity> findRestaurantsNearestAndOpen(Double latitude, Double longitude,
+        String time, Double maxDistanceInMeters, Pageable pageable);
+
 }
 
@@ -7,6 +7,7 @@
 package com.crio.qeats.repositoryservices;
 
 import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.utils.RestaurantCursor;
 import java.time.LocalTime;
 import java.util.List;
 import java.util.concurrent.Future;
@@ -29,6 +30,43 @@ public interface RestaurantRepositoryService {
       LocalTime currentTime, Double servingRadiusInKms);
 
 
+  /**
+   * Same as {@link #findAllRestaurantsCloseBy} but returns only the nearest restaurants, sorted by
+   * distance with the distance set on each of them.
+   * Only the nearest restaurants seen so far are kept while filtering, so a small limit stays
+   * cheap however many restaurants are within the radius.
+   * Candidates served by geohash cells skip the cells entirely within the distance of the
+   * cursor, other candidates are still read in full.
+   * @param limit maximum number of restaurants to return
+   * @param after cursor of the previous page, or null for the first page
+   * @return up to limit open restaurants within the radius after the cursor, closest first
+   */
+  List<Restaurant> findNearestRestaurantsCloseBy(Double latitude, Double longitude,
+      LocalTime currentTime, Double servingRadiusInKms, int limit, RestaurantCursor after);
+
+  /**
+   * Precomputes the cached close-by entries for requests from anywhere within areaRadiusInKms of
+   * the given coordinates at the given time, so that they hit the cache.
+   * Cells which are already cached are left as they are. Does nothing if the cache is down or
+   * close-by lookups do not go through the cell cache.
+   * @param expiryInSeconds how long the precomputed entries are kept
+   * @return number of cells precomputed
+   */
+  int warmUpRestaurantsCloseBy(Double latitude, Double longitude, Double areaRadiusInKms,
+      LocalTime time, Double servingRadiusInKms, int expiryInSeconds);
+
+  /**
+   * Get the k open restaurants closest to the given coordinates, irrespective of the serving radius.
+   * @param latitude coordinates near which we have to search for restaurant
+   * @param longitude coordinates near which we have to search for restaurant
+   * @param k maximum number of restaurants to return
+   * @param currentTime current time
+   * @return up to k open restaurants within the configured max distance, closest first with
+   *     the distance set on each of them
+   */
+  List<Restaurant> findNearestRestaurants(Double latitude, Double longitude, int k,
+      LocalTime currentTime);
+
   /**
    * Get the list of open restaurants within the specified serving radius.
    *   - Ensure the restaurant is open currently.
@@ -3,6 +3,7 @@ package com.crio.qeats.repositoryservices;
 
 import com.crio.qeats.dto.Restaurant;
 import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.RestaurantCursor;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
@@ -44,7 +45,27 @@ public class RestaurantRepositoryServiceDummyImpl implements RestaurantRepositor
     return restaurantList;
   }
 
+  @Override
+  public List<Restaurant> findNearestRestaurantsCloseBy(Double latitude, Double longitude,
+      LocalTime currentTime, Double servingRadiusInKms, int limit, RestaurantCursor after) {
+    List<Restaurant> restaurantList = findAllRestaurantsCloseBy(latitude, longitude,
+        currentTime, servingRadiusInKms);
+    return restaurantList.subList(0, Math.min(limit, restaurantList.size()));
+  }
 
+  @Override
+  public int warmUpRestaurantsCloseBy(Double latitude, Double longitude, Double areaRadiusInKms,
+      LocalTime time, Double servingRadiusInKms, int expiryInSeconds) {
+    return 0;
+  }
+
+  @Override
+  public List<Restaurant> findNearestRestaurants(Double latitude, Double longitude, int k,
+      LocalTime currentTime) {
+    List<Restaurant> restaurantList = findAllRestaurantsCloseBy(latitude, longitude,
+        currentTime, null);
+    return restaurantList.subList(0, Math.min(k, restaurantList.size()));
+  }
 
   public List<Restaurant> findRestaurantsByName(Double latitude, Double longitude,
       String searchString, LocalTime currentTime, Double servingRadiusInKms) {
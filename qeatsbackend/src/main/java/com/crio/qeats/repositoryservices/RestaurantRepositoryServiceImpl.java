@@ -6,51 +6,64 @@
 
 package com.crio.qeats.repositoryservices;
 
-import ch.hsr.geohash.GeoHash;
-import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.cache.CacheClient;
+import com.crio.qeats.cache.CacheClientException;
+import com.crio.qeats.cache.RedisRestaurantGeoStore;
+import com.crio.qeats.cache.RestaurantCellCache;
+import com.crio.qeats.configs.RestaurantLocationMigration;
 import com.crio.qeats.dto.Item;
 import com.crio.qeats.dto.Restaurant;
-import com.crio.qeats.globals.GlobalConstants;
+import com.crio.qeats.indexes.OpenRestaurantsBySlot;
+import com.crio.qeats.indexes.RegionPartitioner;
+import com.crio.qeats.indexes.RestaurantGeoIndex;
 import com.crio.qeats.models.ItemEntity;
 import com.crio.qeats.models.MenuEntity;
 import com.crio.qeats.models.RestaurantEntity;
 import com.crio.qeats.repositories.ItemRepository;
 import com.crio.qeats.repositories.MenuRepository;
 import com.crio.qeats.repositories.RestaurantRepository;
-import com.crio.qeats.utils.GeoLocation;
+import com.crio.qeats.utils.GeoHashCells;
 import com.crio.qeats.utils.GeoUtils;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.IOException;
+import com.crio.qeats.utils.RestaurantCursor;
 import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.inject.Provider;
+import lombok.extern.log4j.Log4j2;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Service;
-import redis.clients.jedis.Jedis;
 
 
 @Service
 @Primary
+@Log4j2
 public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryService {
 
+  private static final double EARTH_RADIUS_IN_KMS = 6371.0;
+  private static final DateTimeFormatter HOURS_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
+
   private final RestaurantRepository restaurantRepository;
   private final MenuRepository menuRepository;
   private final ItemRepository itemRepository;
@@ -65,7 +78,7 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
 
 
   @Autowired
-  private RedisConfiguration redisConfiguration;
+  private CacheClient cacheClient;
 
   @Autowired
   private MongoTemplate mongoTemplate;
@@ -73,11 +86,38 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
   @Autowired
   private Provider<ModelMapper> modelMapperProvider;
 
+  @Autowired
+  private RestaurantGeoIndex restaurantGeoIndex;
+
+  @Autowired
+  private RedisRestaurantGeoStore redisRestaurantGeoStore;
+
+  @Autowired
+  private RestaurantCellCache restaurantCellCache;
+
+  @Autowired
+  private RegionPartitioner regionPartitioner;
+
+  @Autowired
+  private RestaurantLocationMigration restaurantLocationMigration;
+
+  // Bounds of findNearestRestaurants, so that a location far from every open restaurant (e.g. at
+  // night) costs neither a walk of the whole index nor an endless paging of the database.
+  @Value("${qeats.nearest.max-distance-kms:20.0}")
+  private double nearestMaxDistanceInKms;
+
+  @Value("${qeats.nearest.max-pages:5}")
+  private int nearestMaxPages;
+
   private boolean isOpenNow(LocalTime time, RestaurantEntity res) {
-    LocalTime openingTime = LocalTime.parse(res.getOpensAt());
-    LocalTime closingTime = LocalTime.parse(res.getClosesAt());
+    return res.getOpeningHours().isOpenAt(time);
+  }
 
-    return time.isAfter(openingTime) && time.isBefore(closingTime);
+  // The index only holds the regions served by this node, queries reaching into any other
+  // region go to the database instead.
+  private boolean isIndexServing(double latitude, double longitude, double radiusInKms) {
+    return restaurantGeoIndex.isReady()
+        && regionPartitioner.servesCircle(latitude, longitude, radiusInKms);
   }
 
   // // TODO: CRIO_TASK_MODULE_NOSQL
@@ -87,86 +127,319 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
   // // Check RestaurantRepositoryService.java file for the interface contract.
   public List<Restaurant> findAllRestaurantsCloseByFromDb(Double latitude,
       Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
-    
-    List<RestaurantEntity> restaurantEntities = restaurantRepository.findAll();
-    ModelMapper modelMapper = modelMapperProvider.get();
-    List<Restaurant> restaurants = new ArrayList<>();
-    
-    
-      //CHECKSTYLE:OFF
-    for(RestaurantEntity restaurantEntity : restaurantEntities){
-      if(isRestaurantCloseByAndOpen(restaurantEntity, currentTime, latitude, longitude, servingRadiusInKms)){
-        restaurants.add(modelMapper.map(restaurantEntity, Restaurant.class));
+    return toRestaurantsCloseByAndOpen(
+        findCandidatesFromDb(latitude, longitude, currentTime, servingRadiusInKms),
+        latitude, longitude, currentTime, servingRadiusInKms);
+  }
+
+  public List<Restaurant> findAllRestaurantsCloseBy(Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+    return toRestaurantsCloseByAndOpen(
+        findCandidatesCloseBy(latitude, longitude, currentTime, 0, servingRadiusInKms),
+        latitude, longitude, currentTime, servingRadiusInKms);
+  }
+
+  @Override
+  public List<Restaurant> findNearestRestaurantsCloseBy(Double latitude, Double longitude,
+      LocalTime currentTime, Double servingRadiusInKms, int limit, RestaurantCursor after) {
+    GeoUtils.Circle servingArea = GeoUtils.circle(latitude, longitude, servingRadiusInKms);
+    // Max-heap in page order holding the nearest restaurants seen so far.
+    PriorityQueue<RestaurantDistance> nearest = new PriorityQueue<>(
+        Math.max(1, Math.min(limit, 1024)), (first, second) -> RestaurantCursor.compare(
+            second.getDistanceInKm(), second.getRestaurantEntity().getRestaurantId(),
+            first.getDistanceInKm(), first.getRestaurantEntity().getRestaurantId()));
+    // Cells entirely within the distance of the cursor only hold previous pages.
+    for (RestaurantEntity restaurantEntity : findCandidatesCloseBy(latitude, longitude,
+        currentTime, after == null ? 0 : after.getDistanceInKm(), servingRadiusInKms)) {
+      if (!isRestaurantCloseByAndOpen(restaurantEntity, currentTime, servingArea)) {
+        continue;
+      }
+      double distanceInKm = servingArea.distanceInKm(restaurantEntity.getLatitude(),
+          restaurantEntity.getLongitude());
+      // Restaurants of the previous pages are dropped before they reach the heap.
+      if (after != null && !after.precedes(distanceInKm, restaurantEntity.getRestaurantId())) {
+        continue;
+      }
+      if (nearest.size() < limit) {
+        nearest.add(new RestaurantDistance(restaurantEntity, distanceInKm));
+      } else if (RestaurantCursor.compare(distanceInKm, restaurantEntity.getRestaurantId(),
+          nearest.peek().getDistanceInKm(),
+          nearest.peek().getRestaurantEntity().getRestaurantId()) < 0) {
+        nearest.poll();
+        nearest.add(new RestaurantDistance(restaurantEntity, distanceInKm));
       }
     }
 
-    return restaurants;
+    ModelMapper modelMapper = modelMapperProvider.get();
+    Restaurant[] restaurants = new Restaurant[nearest.size()];
+    for (int i = restaurants.length - 1; i >= 0; i--) {
+      RestaurantDistance restaurantDistance = nearest.poll();
+      restaurants[i] = modelMapper.map(restaurantDistance.getRestaurantEntity(),
+          Restaurant.class);
+      restaurants[i].setDistanceInKm(restaurantDistance.getDistanceInKm());
+    }
+    return Arrays.asList(restaurants);
   }
-  
-  public List<Restaurant> findAllRestaurantsCloseBy(Double latitude,
-      Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
 
-    List<Restaurant> restaurants = null;
+  // Candidates for a close-by query. They are a superset of the result, which still needs the
+  // exact opening hours and distance checks. Where candidates come by geohash cells, the cells
+  // entirely closer than minDistanceInKms are skipped.
+  private List<RestaurantEntity> findCandidatesCloseBy(Double latitude,
+      Double longitude, LocalTime currentTime, double minDistanceInKms,
+      Double servingRadiusInKms) {
+
     // TODO: CRIO_TASK_MODULE_REDIS
     // We want to use cache to speed things up. Write methods that perform the same functionality,
     // but using the cache if it is present and reachable.
     // Remember, you must ensure that if cache is not present, the queries are directed at the
     // database instead.
 
-      //CHECKSTYLE:OFF
-     if(redisConfiguration.isCacheAvailable()){
-      restaurants = findAllRestaurantsCloseByFromCache(latitude,longitude,currentTime,servingRadiusInKms);
-    }else{
-      restaurants = findAllRestaurantsCloseByFromDb(latitude, longitude, currentTime, servingRadiusInKms);
+    if (!redisRestaurantGeoStore.isEnabled()) {
+      // Hot cells are served from the near cache without a round trip to redis.
+      List<RestaurantEntity> nearCandidates =
+          findCandidatesFromNearCache(latitude, longitude, currentTime, minDistanceInKms,
+              servingRadiusInKms);
+      if (nearCandidates != null) {
+        return nearCandidates;
+      }
     }
-      //CHECKSTYLE:ON
-    return restaurants;
+    if (cacheClient.isAvailable()) {
+      try {
+        if (redisRestaurantGeoStore.isEnabled()) {
+          return redisRestaurantGeoStore.findWithin(latitude, longitude, servingRadiusInKms);
+        }
+        return findCandidatesFromCache(latitude, longitude, currentTime, minDistanceInKms,
+            servingRadiusInKms);
+      } catch (CacheClientException e) {
+        // Counted by the circuit breaker, which stops sending requests to redis if it keeps on.
+        log.warn("Close-by cache unavailable, serving from the index or database: {}",
+            e.getMessage());
+      }
+    }
+    // Prefer the resident index and only go to the database until it has been loaded.
+    if (isIndexServing(latitude, longitude, servingRadiusInKms)) {
+      return restaurantGeoIndex.findCandidatesWithin(latitude, longitude, minDistanceInKms,
+          servingRadiusInKms, currentTime);
+    }
+    return findCandidatesFromDb(latitude, longitude, currentTime, servingRadiusInKms);
   }
 
+  private List<RestaurantEntity> findCandidatesFromDb(Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+    if (!restaurantLocationMigration.isComplete()) {
+      return retainMayBeOpen(findRestaurantsByCoordinates(latitude, longitude,
+          servingRadiusInKms), currentTime);
+    }
+    // Let Mongo do the coarse geo and opening hours filtering through the 2dsphere index.
+    List<RestaurantEntity> restaurantEntities = restaurantRepository
+        .findRestaurantsCloseByAndOpen(latitude, longitude,
+            servingRadiusInKms / EARTH_RADIUS_IN_KMS, currentTime.format(HOURS_FORMATTER))
+        .orElse(Collections.emptyList());
+    return retainMayBeOpen(restaurantEntities, currentTime);
+  }
 
+  // Restaurants within the radius by their plain coordinates, for as long as some of them may
+  // still miss the `location` the geo queries go by.
+  private List<RestaurantEntity> findRestaurantsByCoordinates(Double latitude,
+      Double longitude, Double radiusInKms) {
+    GeoUtils.Circle area = GeoUtils.circle(latitude, longitude, radiusInKms);
+    double[] box = area.boundingBox();
+    return restaurantRepository.findRestaurantsInBox(box[0], box[1], box[2], box[3]).stream()
+        .filter(restaurantEntity -> area.contains(restaurantEntity.getLatitude(),
+            restaurantEntity.getLongitude()))
+        .collect(Collectors.toList());
+  }
 
+  // Candidates from the near cache of the cell cache, or null unless it holds every cell.
+  private List<RestaurantEntity> findCandidatesFromNearCache(Double latitude,
+      Double longitude, LocalTime currentTime, double minDistanceInKms,
+      Double servingRadiusInKms) {
+    if (!restaurantCellCache.isNearCacheEnabled()) {
+      return null;
+    }
+    Set<String> cells = GeoHashCells.cellsReaching(GeoHashCells.coveringCells(latitude,
+        longitude, servingRadiusInKms, restaurantCellCache.getCellPrecision()), latitude,
+        longitude, minDistanceInKms);
+    if (cells.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Map<String, List<RestaurantEntity>> restaurantsByCell = restaurantCellCache.getNearCells(
+        RestaurantCellCache.radiusClassOf(servingRadiusInKms),
+        OpenRestaurantsBySlot.slotOf(currentTime), cells);
+    return restaurantsByCell.size() < cells.size() ? null : mergeCells(restaurantsByCell);
+  }
 
-  private List<Restaurant> findAllRestaurantsCloseByFromCache(Double latitude,
-   Double longitude, LocalTime currentTime, Double servingRadiusInKms){
-    
-    List<Restaurant> restaurants = new ArrayList<>();
+  // Serves the restaurants of the cells covering the radius from the cell cache, loading only
+  // the missing cells, once across concurrent requests.
+  private List<RestaurantEntity> findCandidatesFromCache(Double latitude,
+      Double longitude, LocalTime currentTime, double minDistanceInKms,
+      Double servingRadiusInKms) {
+
+    int precision = restaurantCellCache.getCellPrecision();
+    String radiusClass = RestaurantCellCache.radiusClassOf(servingRadiusInKms);
+    int slot = OpenRestaurantsBySlot.slotOf(currentTime);
+    Set<String> cells = GeoHashCells.cellsReaching(GeoHashCells.coveringCells(latitude,
+        longitude, servingRadiusInKms, precision), latitude, longitude, minDistanceInKms);
+    if (cells.isEmpty()) {
+      return Collections.emptyList();
+    }
 
-    GeoLocation geoLocation = new GeoLocation(latitude, longitude);
-    GeoHash geoHash = GeoHash.withCharacterPrecision(geoLocation.getLatitude(),geoLocation.getLongitude(),7);
+    Map<String, List<RestaurantEntity>> restaurantsByCell = restaurantCellCache.getOrLoadCells(
+        radiusClass, slot, cells, missingCells -> loadCells(missingCells, precision, latitude,
+            longitude, currentTime, servingRadiusInKms));
+    return mergeCells(restaurantsByCell);
+  }
 
-    
-    try(Jedis jedis = redisConfiguration.getJedisPool().getResource()){
-      String jsonStringFromCache = jedis.get(geoHash.toBase32());
+  private static List<RestaurantEntity> mergeCells(
+      Map<String, List<RestaurantEntity>> restaurantsByCell) {
+    List<RestaurantEntity> restaurantEntities = new ArrayList<>();
+    for (List<RestaurantEntity> cellRestaurants : restaurantsByCell.values()) {
+      restaurantEntities.addAll(cellRestaurants);
+    }
+    // Cells come back in no particular order, keep the order of the collection.
+    restaurantEntities.sort(Comparator.comparing(RestaurantEntity::getId));
+    return restaurantEntities;
+  }
 
-      if(jsonStringFromCache == null){
-        String newJsonString = "";
-        
-        try{
-          restaurants = findAllRestaurantsCloseByFromDb(geoLocation.getLatitude(),geoLocation.getLongitude(), currentTime, servingRadiusInKms);
-          newJsonString = new ObjectMapper().writeValueAsString(restaurants);
-        }catch(JsonProcessingException e){
-          e.printStackTrace();
-        }
+  @Override
+  public int warmUpRestaurantsCloseBy(Double latitude, Double longitude, Double areaRadiusInKms,
+      LocalTime time, Double servingRadiusInKms, int expiryInSeconds) {
+    if (!cacheClient.isAvailable() || redisRestaurantGeoStore.isEnabled()) {
+      return 0;
+    }
 
-        jedis.setex(geoHash.toBase32(), GlobalConstants.REDIS_ENTRY_EXPIRY_IN_SECONDS, newJsonString);
+    int precision = restaurantCellCache.getCellPrecision();
+    String radiusClass = RestaurantCellCache.radiusClassOf(servingRadiusInKms);
+    int slot = OpenRestaurantsBySlot.slotOf(time);
+    double reachInKms = areaRadiusInKms + servingRadiusInKms;
+    Set<String> missingCells = restaurantCellCache.findMissingCells(radiusClass, slot,
+        GeoHashCells.coveringCells(latitude, longitude, reachInKms, precision));
+    if (!missingCells.isEmpty()) {
+      restaurantCellCache.putCells(radiusClass, slot, loadCells(missingCells, precision,
+          latitude, longitude, time, reachInKms), expiryInSeconds);
+    }
+    return missingCells.size();
+  }
 
-      }else{
+  private List<Restaurant> toRestaurantsCloseByAndOpen(List<RestaurantEntity> candidates,
+      Double latitude, Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+    ModelMapper modelMapper = modelMapperProvider.get();
+    GeoUtils.Circle servingArea = GeoUtils.circle(latitude, longitude, servingRadiusInKms);
+    List<Restaurant> restaurants = new ArrayList<>();
+    for (RestaurantEntity restaurantEntity : candidates) {
+      if (isRestaurantCloseByAndOpen(restaurantEntity, currentTime, servingArea)) {
+        restaurants.add(modelMapper.map(restaurantEntity, Restaurant.class));
+      }
+    }
+    return restaurants;
+  }
 
-        try {
-          restaurants = new ObjectMapper().readValue(jsonStringFromCache, new TypeReference<List<Restaurant>>() {
-          });
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
+  // Loads all restaurants in the given cells which may be open during the slot of currentTime.
+  // The search radius is widened so that the cells at the corners of the covering box are
+  // loaded in full, since their entries are shared with other users.
+  private Map<String, List<RestaurantEntity>> loadCells(Set<String> cells, int precision,
+      Double latitude, Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+    double loadRadiusInKms = Math.sqrt(2)
+        * (servingRadiusInKms + GeoHashCells.cellDiagonalInKms(precision));
+    int slot = OpenRestaurantsBySlot.slotOf(currentTime);
+
+    List<RestaurantEntity> restaurantEntities;
+    if (isIndexServing(latitude, longitude, loadRadiusInKms)) {
+      restaurantEntities = restaurantGeoIndex.findCandidatesWithin(latitude, longitude,
+          loadRadiusInKms, currentTime);
+    } else if (!restaurantLocationMigration.isComplete()) {
+      restaurantEntities = findRestaurantsByCoordinates(latitude, longitude, loadRadiusInKms);
+    } else {
+      restaurantEntities = restaurantRepository.findRestaurantsCloseBy(latitude, longitude,
+          loadRadiusInKms / EARTH_RADIUS_IN_KMS).orElse(Collections.emptyList());
+    }
 
+    Map<String, List<RestaurantEntity>> restaurantsByCell = new HashMap<>();
+    for (String cell : cells) {
+      restaurantsByCell.put(cell, new ArrayList<>());
+    }
+    for (RestaurantEntity restaurantEntity : restaurantEntities) {
+      if (restaurantEntity.getLatitude() == null || restaurantEntity.getLongitude() == null
+          || !OpenRestaurantsBySlot.isOpenDuringSlot(restaurantEntity.getOpeningHours(), slot)) {
+        continue;
+      }
+      List<RestaurantEntity> cellRestaurants = restaurantsByCell.get(GeoHashCells.cellOf(
+          restaurantEntity.getLatitude(), restaurantEntity.getLongitude(), precision));
+      if (cellRestaurants != null) {
+        cellRestaurants.add(restaurantEntity);
       }
     }
-   
-    return restaurants; 
+    return restaurantsByCell;
   }
 
   
 
+  @Override
+  public List<Restaurant> findNearestRestaurants(Double latitude, Double longitude, int k,
+      LocalTime currentTime) {
+    List<RestaurantEntity> restaurantEntities = null;
+    if (restaurantGeoIndex.isReady()) {
+      restaurantEntities = restaurantGeoIndex.findNearestOpen(latitude, longitude, k,
+          nearestMaxDistanceInKms, currentTime);
+      // Closer restaurants may exist in other regions unless the circle searched, through the
+      // farthest one found or out to the max distance, is fully served.
+      double searchedInKms = restaurantEntities.size() < k ? nearestMaxDistanceInKms
+          : farthestInKms(latitude, longitude, restaurantEntities);
+      if (!regionPartitioner.servesAll()
+          && !regionPartitioner.servesCircle(latitude, longitude, searchedInKms)) {
+        restaurantEntities = null;
+      }
+    }
+    if (restaurantEntities == null) {
+      // Until the index is loaded, or outside the served regions, let Mongo sort by distance.
+      restaurantEntities = findNearestOpenFromDb(latitude, longitude, k, currentTime);
+    }
+
+    ModelMapper modelMapper = modelMapperProvider.get();
+    List<Restaurant> restaurants = new ArrayList<>(restaurantEntities.size());
+    for (RestaurantEntity restaurantEntity : restaurantEntities) {
+      Restaurant restaurant = modelMapper.map(restaurantEntity, Restaurant.class);
+      restaurant.setDistanceInKm(GeoUtils.findDistanceInKm(latitude, longitude,
+          restaurantEntity.getLatitude(), restaurantEntity.getLongitude()));
+      restaurants.add(restaurant);
+    }
+    return restaurants;
+  }
+
+  // The coarse opening hours filter of the query lets through restaurants which are closed on
+  // the exact check, so pages are read until k open restaurants are found, none are left or the
+  // page limit is reached. Every page makes the database skip the previous ones again.
+  private List<RestaurantEntity> findNearestOpenFromDb(double latitude, double longitude, int k,
+      LocalTime currentTime) {
+    List<RestaurantEntity> nearest = new ArrayList<>(k);
+    for (int page = 0; nearest.size() < k && page < nearestMaxPages; page++) {
+      List<RestaurantEntity> restaurantEntities = restaurantRepository
+          .findRestaurantsNearestAndOpen(latitude, longitude,
+              currentTime.format(HOURS_FORMATTER), nearestMaxDistanceInKms * 1000,
+              PageRequest.of(page, k));
+      for (RestaurantEntity restaurantEntity : restaurantEntities) {
+        if (nearest.size() < k && isOpenNow(currentTime, restaurantEntity)) {
+          nearest.add(restaurantEntity);
+        }
+      }
+      if (restaurantEntities.size() < k) {
+        break;
+      }
+    }
+    return nearest;
+  }
+
+  private double farthestInKms(double latitude, double longitude,
+      List<RestaurantEntity> restaurantEntities) {
+    double farthestInKms = 0;
+    for (RestaurantEntity restaurantEntity : restaurantEntities) {
+      farthestInKms = Math.max(farthestInKms, GeoUtils.findDistanceInKm(latitude, longitude,
+          restaurantEntity.getLatitude(), restaurantEntity.getLongitude()));
+    }
+    return farthestInKms;
+  }
+
+
   // TODO: CRIO_TASK_MODULE_RESTAURANTSEARCH
   // Objective:
   // Find restaurants whose names have an exact or partial match with the search query.
@@ -174,19 +447,20 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
   public List<Restaurant> findRestaurantsByName(Double latitude, Double longitude,
       String searchString, LocalTime currentTime, Double servingRadiusInKms) {
      
-        List<RestaurantEntity> restaurantsByNameExact = restaurantRepository.findRestaurantsByNameExact(searchString).orElse(Collections.emptyList());
+        List<RestaurantEntity> restaurantsByNameExact = retainMayBeOpen(restaurantRepository.findRestaurantsByNameExact(searchString).orElse(Collections.emptyList()), currentTime);
 
-        List<RestaurantEntity> restaurantsByPartialName = restaurantRepository.findRestaurantsByPartialName(searchString).orElse(Collections.emptyList());
+        List<RestaurantEntity> restaurantsByPartialName = retainMayBeOpen(restaurantRepository.findRestaurantsByPartialName(searchString).orElse(Collections.emptyList()), currentTime);
         
         Set<String> restaurantsByName = new HashSet<>();
 
         ModelMapper modelMapper = modelMapperProvider.get();
+        GeoUtils.Circle servingArea = GeoUtils.circle(latitude, longitude, servingRadiusInKms);
         
         List<Restaurant> ansRestro = new ArrayList<>();
         
        
         for(RestaurantEntity restrEntity : restaurantsByNameExact){
-            if(isRestaurantCloseByAndOpen(restrEntity,currentTime, latitude,longitude,servingRadiusInKms)){
+            if(isRestaurantCloseByAndOpen(restrEntity, currentTime, servingArea)){
               if(!restaurantsByName.contains(restrEntity.getId())){
                 restaurantsByName.add(restrEntity.getId());
                 ansRestro.add(modelMapper.map(restrEntity , Restaurant.class));
@@ -197,7 +471,7 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
 
         
         for(RestaurantEntity restrEntity : restaurantsByPartialName){
-            if(isRestaurantCloseByAndOpen(restrEntity,currentTime, latitude,longitude,servingRadiusInKms)){
+            if(isRestaurantCloseByAndOpen(restrEntity, currentTime, servingArea)){
               if(!restaurantsByName.contains(restrEntity.getId())){
                 restaurantsByName.add(restrEntity.getId());
                 ansRestro.add(modelMapper.map(restrEntity , Restaurant.class));
@@ -219,13 +493,14 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
       String searchString, LocalTime currentTime, Double servingRadiusInKms) {
 
        
-        List<RestaurantEntity> restaurantEntitiesByCuisine = restaurantRepository.findRestaurantsByCuisine(searchString).orElse(Collections.emptyList());
+        List<RestaurantEntity> restaurantEntitiesByCuisine = retainMayBeOpen(restaurantRepository.findRestaurantsByCuisine(searchString).orElse(Collections.emptyList()), currentTime);
         ModelMapper modelMapper = modelMapperProvider.get();
+        GeoUtils.Circle servingArea = GeoUtils.circle(latitude, longitude, servingRadiusInKms);
         Set<String> restaurantsByAttributes = new HashSet<>();
         List<Restaurant> restaurants = new ArrayList<>();
        
         for(RestaurantEntity restaurantEntity : restaurantEntitiesByCuisine){
-          if(isRestaurantCloseByAndOpen(restaurantEntity,currentTime, latitude,longitude,servingRadiusInKms)){
+          if(isRestaurantCloseByAndOpen(restaurantEntity, currentTime, servingArea)){
             if(!restaurantsByAttributes.contains(restaurantEntity.getId())){
               restaurantsByAttributes.add(restaurantEntity.getId());
               restaurants.add(modelMapper.map(restaurantEntity , Restaurant.class));
@@ -301,21 +576,36 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
 
 
 
+  // Drops candidates closed for the whole time slot before any distance math is done.
+  private List<RestaurantEntity> retainMayBeOpen(List<RestaurantEntity> restaurantEntities,
+      LocalTime currentTime) {
+    if (restaurantGeoIndex == null) {
+      return restaurantEntities;
+    }
+    return restaurantGeoIndex.retainMayBeOpen(restaurantEntities, currentTime);
+  }
+
   /**
    * Utility method to check if a restaurant is within the serving radius at a given time.
    * @return boolean True if restaurant falls within serving radius and is open, false otherwise
    */
   private boolean isRestaurantCloseByAndOpen(RestaurantEntity restaurantEntity,
-      LocalTime currentTime, Double latitude, Double longitude, Double servingRadiusInKms) {
+      LocalTime currentTime, GeoUtils.Circle servingArea) {
     if (isOpenNow(currentTime, restaurantEntity)) {
-      return GeoUtils.findDistanceInKm(latitude, longitude,
-          restaurantEntity.getLatitude(), restaurantEntity.getLongitude())
-          < servingRadiusInKms;
+      return servingArea.contains(restaurantEntity.getLatitude(),
+          restaurantEntity.getLongitude());
     }
 
     return false;
   }
 
+  @lombok.Value
+  private static class RestaurantDistance {
+    private RestaurantEntity restaurantEntity;
+    private double distanceInKm;
+  }
+
+
 
 
 }
@@ -0,0 +1,215 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.services;
+
+import ch.hsr.geohash.GeoHash;
+import ch.hsr.geohash.WGS84Point;
+import com.crio.qeats.indexes.OpenRestaurantsBySlot;
+import com.crio.qeats.repositoryservices.RestaurantRepositoryService;
+import com.crio.qeats.utils.CountMinSketch;
+import com.crio.qeats.utils.GeoHashCells;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tracks the busiest geohash cells of every peak hour window and precomputes their cached
+ * close-by entries shortly before the window starts, so that the first requests of a rush don't
+ * all miss the cache at once.
+ * Requests during a window are counted per cell of {@link #CELL_PRECISION} in a count-min sketch,
+ * which keeps memory fixed however many cells see traffic, next to the few hundred cells with the
+ * highest estimates. Counts are halved after every warm-up so that the hot cells follow the
+ * traffic of the last few days.
+ */
+@Component
+@Log4j2
+public class HotCellTracker {
+
+  // Cells of precision 7 are roughly 150m x 150m, about an office block.
+  static final int CELL_PRECISION = 7;
+
+  private static final int SKETCH_DEPTH = 4;
+  private static final int SKETCH_WIDTH = 1 << 13;
+
+  @Autowired
+  private RestaurantRepositoryService restaurantRepositoryService;
+
+  @Autowired
+  private ServingRadiusPolicy servingRadiusPolicy;
+
+  private final boolean enabled;
+  private final int topCells;
+  private final int leadMinutes;
+  private final int warmUpSlots;
+
+  private final WindowCounts[] windowCounts;
+  // Day of the last warm-up of every window, so that each window is warmed up once a day.
+  private final LocalDate[] warmedUpOn;
+
+  public HotCellTracker(@Value("${qeats.hotcells.enabled:true}") boolean enabled,
+      @Value("${qeats.hotcells.top-cells:300}") int topCells,
+      @Value("${qeats.hotcells.lead-minutes:5}") int leadMinutes,
+      @Value("${qeats.hotcells.warmup-slots:4}") int warmUpSlots) {
+    this.enabled = enabled;
+    this.topCells = topCells;
+    this.leadMinutes = leadMinutes;
+    this.warmUpSlots = warmUpSlots;
+    this.windowCounts = new WindowCounts[RestaurantServiceImpl.PEAK_HOURS.length];
+    for (int window = 0; window < windowCounts.length; window++) {
+      windowCounts[window] = new WindowCounts(2 * topCells);
+    }
+    this.warmedUpOn = new LocalDate[windowCounts.length];
+  }
+
+  /**
+   * Counts a close-by request, if it falls in a peak hour window.
+   */
+  public void record(double latitude, double longitude, LocalTime currentTime) {
+    int window = RestaurantServiceImpl.peakHourWindowOf(currentTime);
+    if (enabled && window >= 0) {
+      windowCounts[window].record(GeoHashCells.cellOf(latitude, longitude, CELL_PRECISION));
+    }
+  }
+
+  /**
+   * Get the busiest cells of the given peak hour window, busiest first.
+   */
+  public List<String> findHotCells(int window) {
+    return windowCounts[window].top(topCells);
+  }
+
+  /**
+   * Warms up the windows starting within the lead time.
+   */
+  @Scheduled(initialDelayString = "${qeats.hotcells.check-interval-ms:60000}",
+      fixedDelayString = "${qeats.hotcells.check-interval-ms:60000}")
+  public void warmUpUpcomingWindows() {
+    warmUpUpcomingWindows(LocalDateTime.now());
+  }
+
+  void warmUpUpcomingWindows(LocalDateTime now) {
+    if (!enabled) {
+      return;
+    }
+
+    for (int window = 0; window < windowCounts.length; window++) {
+      LocalDateTime startsAt =
+          now.toLocalDate().atTime(RestaurantServiceImpl.PEAK_HOURS[window][0]);
+      if (now.isAfter(startsAt) || now.plusMinutes(leadMinutes).isBefore(startsAt)
+          || now.toLocalDate().equals(warmedUpOn[window])) {
+        continue;
+      }
+
+      warmedUpOn[window] = now.toLocalDate();
+      try {
+        warmUp(window, startsAt, now);
+      } catch (Exception e) {
+        // The cache fills up on demand anyway.
+        log.error("Failed to warm up hot cells of peak hour window {}", window, e);
+      }
+    }
+  }
+
+  private void warmUp(int window, LocalDateTime startsAt, LocalDateTime now) {
+    long startTime = System.currentTimeMillis();
+    List<String> hotCells = findHotCells(window);
+    // Every request from a cell is within half a diagonal of its center.
+    double areaRadiusInKms = GeoHashCells.cellDiagonalInKms(CELL_PRECISION) / 2;
+    long windowInMinutes = Duration.between(RestaurantServiceImpl.PEAK_HOURS[window][0],
+        RestaurantServiceImpl.PEAK_HOURS[window][1]).toMinutes();
+    long slots = Math.min(warmUpSlots,
+        windowInMinutes / OpenRestaurantsBySlot.SLOT_LENGTH_IN_MINUTES);
+
+    int precomputedCells = 0;
+    for (int slot = 0; slot < slots; slot++) {
+      LocalDateTime slotStartsAt =
+          startsAt.plusMinutes(slot * OpenRestaurantsBySlot.SLOT_LENGTH_IN_MINUTES);
+      // Pinned until the end of their slot, the entries are of no use afterwards.
+      int expiryInSeconds = (int) Duration.between(now, slotStartsAt
+          .plusMinutes(OpenRestaurantsBySlot.SLOT_LENGTH_IN_MINUTES)).getSeconds() + 60;
+      for (String cell : hotCells) {
+        WGS84Point center = GeoHash.fromGeohashString(cell).getBoundingBoxCenterPoint();
+        precomputedCells += restaurantRepositoryService.warmUpRestaurantsCloseBy(
+            center.getLatitude(), center.getLongitude(), areaRadiusInKms,
+            slotStartsAt.toLocalTime(), servingRadiusPolicy.servingRadiusInKms(
+                center.getLatitude(), center.getLongitude(), slotStartsAt.toLocalTime()),
+            expiryInSeconds);
+      }
+    }
+
+    windowCounts[window].decay();
+    log.info("Warmed up {} hot cells for {} slots of peak hour window {}, {} cache entries"
+        + " precomputed in {} ms", hotCells.size(), slots, window, precomputedCells,
+        System.currentTimeMillis() - startTime);
+  }
+
+  // Requests per cell within a peak hour window, with the cells of highest estimates.
+  private static final class WindowCounts {
+
+    private final CountMinSketch sketch = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+    private final int capacity;
+    // Estimate a cell needs to replace the coldest candidate once there are enough of them.
+    private volatile long admissionThreshold;
+
+    private WindowCounts(int capacity) {
+      this.capacity = capacity;
+    }
+
+    void record(String cell) {
+      long estimate = sketch.add(cell);
+      if (candidates.containsKey(cell)) {
+        candidates.put(cell, estimate);
+      } else if (candidates.size() < capacity || estimate > admissionThreshold) {
+        admit(cell, estimate);
+      }
+    }
+
+    private synchronized void admit(String cell, long estimate) {
+      candidates.put(cell, estimate);
+      if (candidates.size() <= capacity) {
+        return;
+      }
+      Map.Entry<String, Long> coldest = null;
+      for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+        if (coldest == null || candidate.getValue() < coldest.getValue()) {
+          coldest = candidate;
+        }
+      }
+      candidates.remove(coldest.getKey());
+      admissionThreshold = coldest.getValue();
+    }
+
+    List<String> top(int count) {
+      List<Map.Entry<String, Long>> entries = new ArrayList<>(candidates.entrySet());
+      entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+      List<String> cells = new ArrayList<>(Math.min(count, entries.size()));
+      for (int i = 0; i < entries.size() && i < count; i++) {
+        cells.add(entries.get(i).getKey());
+      }
+      return cells;
+    }
+
+    synchronized void decay() {
+      sketch.halve();
+      candidates.replaceAll((cell, estimate) -> estimate / 2);
+      candidates.values().removeIf(estimate -> estimate == 0);
+      admissionThreshold /= 2;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.services;
+
+import com.crio.qeats.controller.RestaurantController;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Serving radius following the peak hour windows, shrunk further while the service is
+ * overloaded.
+ * The load is read from the request rate and p99 latency of GET /restaurants, as recorded in
+ * the "http.server.requests" timers. While either is over its limit the radius shrinks by a step
+ * per evaluation, down to the minimum. It only grows back, a step at a time, once both are below
+ * the recovery ratio of their limits, so that the radius doesn't flap around a limit.
+ */
+@Component
+@Log4j2
+public class LoadAwareServingRadiusPolicy implements ServingRadiusPolicy {
+
+  static final String REQUESTS_METER = "http.server.requests";
+  static final String RESTAURANTS_URI =
+      RestaurantController.RESTAURANT_API_ENDPOINT + RestaurantController.RESTAURANTS_API;
+
+  private static final double P99 = 0.99;
+
+  private final MeterRegistry meterRegistry;
+  private final double normalHoursRadiusInKms;
+  private final double peakHoursRadiusInKms;
+  private final double minRadiusInKms;
+  private final double stepInKms;
+  private final double maxRequestsPerSecond;
+  private final double maxP99InMillis;
+  private final double recoveryRatio;
+
+  // Upper bound on the radius due to load, the normal hours radius when not overloaded.
+  private volatile double loadCapInKms;
+  private long lastRequestCount;
+  private long lastEvaluatedAtNanos;
+
+  public LoadAwareServingRadiusPolicy(MeterRegistry meterRegistry,
+      @Value("${qeats.radius.normal-hours-kms:5.0}") double normalHoursRadiusInKms,
+      @Value("${qeats.radius.peak-hours-kms:3.0}") double peakHoursRadiusInKms,
+      @Value("${qeats.radius.min-kms:1.0}") double minRadiusInKms,
+      @Value("${qeats.radius.step-kms:0.5}") double stepInKms,
+      @Value("${qeats.radius.max-requests-per-second:500}") double maxRequestsPerSecond,
+      @Value("${qeats.radius.max-p99-ms:300}") double maxP99InMillis,
+      @Value("${qeats.radius.recovery-ratio:0.7}") double recoveryRatio) {
+    if (minRadiusInKms <= 0 || minRadiusInKms > peakHoursRadiusInKms
+        || minRadiusInKms > normalHoursRadiusInKms || stepInKms <= 0) {
+      throw new IllegalArgumentException("Invalid serving radius bounds " + minRadiusInKms
+          + ", " + peakHoursRadiusInKms + ", " + normalHoursRadiusInKms + " step " + stepInKms);
+    }
+    this.meterRegistry = meterRegistry;
+    this.normalHoursRadiusInKms = normalHoursRadiusInKms;
+    this.peakHoursRadiusInKms = peakHoursRadiusInKms;
+    this.minRadiusInKms = minRadiusInKms;
+    this.stepInKms = stepInKms;
+    this.maxRequestsPerSecond = maxRequestsPerSecond;
+    this.maxP99InMillis = maxP99InMillis;
+    this.recoveryRatio = recoveryRatio;
+    this.loadCapInKms = Math.max(normalHoursRadiusInKms, peakHoursRadiusInKms);
+    meterRegistry.gauge("qeats.serving.radius.cap", this, policy -> policy.loadCapInKms);
+  }
+
+  @Override
+  public double servingRadiusInKms(double latitude, double longitude, LocalTime currentTime) {
+    return Math.max(minRadiusInKms, Math.min(scheduledRadiusInKms(currentTime), loadCapInKms));
+  }
+
+  private double scheduledRadiusInKms(LocalTime currentTime) {
+    return RestaurantServiceImpl.peakHourWindowOf(currentTime) >= 0
+        ? peakHoursRadiusInKms : normalHoursRadiusInKms;
+  }
+
+  /**
+   * Reads the load since the previous evaluation and adjusts the radius.
+   */
+  @Scheduled(fixedDelayString = "${qeats.radius.evaluate-interval-ms:5000}")
+  public void evaluate() {
+    evaluate(System.nanoTime(), LocalTime.now());
+  }
+
+  synchronized void evaluate(long nowNanos, LocalTime currentTime) {
+    long requestCount = 0;
+    double p99InMillis = 0;
+    for (Timer timer : meterRegistry.find(REQUESTS_METER).tag("uri", RESTAURANTS_URI).timers()) {
+      requestCount += timer.count();
+      for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+        if (percentile.percentile() == P99) {
+          p99InMillis = Math.max(p99InMillis, percentile.value(TimeUnit.MILLISECONDS));
+        }
+      }
+    }
+
+    if (lastEvaluatedAtNanos != 0 && nowNanos > lastEvaluatedAtNanos) {
+      double requestsPerSecond = (requestCount - lastRequestCount)
+          / ((nowNanos - lastEvaluatedAtNanos) / 1e9);
+      adjust(requestsPerSecond, p99InMillis, currentTime);
+    }
+    lastRequestCount = requestCount;
+    lastEvaluatedAtNanos = nowNanos;
+  }
+
+  private void adjust(double requestsPerSecond, double p99InMillis, LocalTime currentTime) {
+    double maxRadiusInKms = Math.max(normalHoursRadiusInKms, peakHoursRadiusInKms);
+    double loadCap = loadCapInKms;
+    if (requestsPerSecond > maxRequestsPerSecond || p99InMillis > maxP99InMillis) {
+      // Shrink from the radius actually served, not from a cap above it.
+      loadCap = Math.max(minRadiusInKms,
+          Math.min(loadCap, scheduledRadiusInKms(currentTime)) - stepInKms);
+    } else if (requestsPerSecond < recoveryRatio * maxRequestsPerSecond
+        && p99InMillis < recoveryRatio * maxP99InMillis) {
+      loadCap = Math.min(maxRadiusInKms, loadCap + stepInKms);
+    }
+
+    if (loadCap != loadCapInKms) {
+      log.info("Serving radius capped at {} km, {} requests/s with p99 {} ms", loadCap,
+          String.format("%.1f", requestsPerSecond), String.format("%.0f", p99InMillis));
+      loadCapInKms = loadCap;
+    }
+  }
+}
@@ -12,14 +12,18 @@ import com.crio.qeats.dto.Restaurant;
 import com.crio.qeats.exchanges.GetRestaurantsRequest;
 import com.crio.qeats.exchanges.GetRestaurantsResponse;
 import com.crio.qeats.repositoryservices.RestaurantRepositoryService;
+import com.crio.qeats.utils.GeoUtils;
+import com.crio.qeats.utils.RestaurantCursor;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -33,11 +37,20 @@ import org.springframework.stereotype.Service;
 @Log4j2
 public class RestaurantServiceImpl implements RestaurantService {
 
-  private final Double peakHoursServingRadiusInKms = 3.0;
-  private final Double normalHoursServingRadiusInKms = 5.0;
+  // Start and end of the peak hour windows, in which the serving radius shrinks, see
+  // ServingRadiusPolicy.
+  static final LocalTime[][] PEAK_HOURS = {
+      {LocalTime.of(8, 0), LocalTime.of(10, 0)},
+      {LocalTime.of(13, 0), LocalTime.of(14, 0)},
+      {LocalTime.of(19, 0), LocalTime.of(21, 0)}};
+
   private int numThreads = 5;
   @Autowired
   private RestaurantRepositoryService restaurantRepositoryService;
+  @Autowired
+  private HotCellTracker hotCellTracker;
+  @Autowired
+  private ServingRadiusPolicy servingRadiusPolicy;
 
 
   // TODO: CRIO_TASK_MODULE_RESTAURANTSAPI - Implement findAllRestaurantsCloseby.
@@ -46,27 +59,141 @@ public class RestaurantServiceImpl implements RestaurantService {
   public GetRestaurantsResponse findAllRestaurantsCloseBy(
       GetRestaurantsRequest getRestaurantsRequest, LocalTime currentTime) {
       List<Restaurant> restaurants ;
-      Double servingRadiusInKm = isPeakHour(currentTime) ? peakHoursServingRadiusInKms : normalHoursServingRadiusInKms;
-      restaurants = restaurantRepositoryService.
-      findAllRestaurantsCloseBy(getRestaurantsRequest.getLatitude(), getRestaurantsRequest.getLongitude(), currentTime, servingRadiusInKm);
-      GetRestaurantsResponse getRestaurantResponse = new GetRestaurantsResponse(restaurants);
+      Double servingRadiusInKm = servingRadiusPolicy.servingRadiusInKms(
+          getRestaurantsRequest.getLatitude(), getRestaurantsRequest.getLongitude(), currentTime);
+      hotCellTracker.record(getRestaurantsRequest.getLatitude(),
+          getRestaurantsRequest.getLongitude(), currentTime);
+      GetRestaurantsResponse getRestaurantResponse;
+      if (isNearestFirst(getRestaurantsRequest)) {
+        RestaurantCursor cursor = cursorOf(getRestaurantsRequest);
+        restaurants = restaurantRepositoryService.findNearestRestaurantsCloseBy(
+            latitudeOf(getRestaurantsRequest, cursor), longitudeOf(getRestaurantsRequest, cursor),
+            currentTime, servingRadiusInKm, limitOf(getRestaurantsRequest), cursor);
+        getRestaurantResponse = new GetRestaurantsResponse(restaurants,
+            nextCursorOf(getRestaurantsRequest, cursor, restaurants));
+      } else {
+        restaurants = restaurantRepositoryService.
+        findAllRestaurantsCloseBy(getRestaurantsRequest.getLatitude(), getRestaurantsRequest.getLongitude(), currentTime, servingRadiusInKm);
+        getRestaurantResponse = new GetRestaurantsResponse(restaurants);
+      }
+      getRestaurantResponse.setServingRadiusInKms(servingRadiusInKm);
       log.info(getRestaurantResponse);
     
     return getRestaurantResponse;
   }
 
-  
-  private boolean isPeakHour(LocalTime timeNow) {
-    return isTimeWithInRange(timeNow, LocalTime.of(7, 59, 59), LocalTime.of(10, 00, 01))
-        || isTimeWithInRange(timeNow, LocalTime.of(12, 59, 59), LocalTime.of(14, 00, 01))
-        || isTimeWithInRange(timeNow, LocalTime.of(18, 59, 59), LocalTime.of(21, 00, 01));
+  /**
+   * Index in {@link #PEAK_HOURS} of the peak hour window containing the given time, or -1.
+   */
+  static int peakHourWindowOf(LocalTime timeNow) {
+    for (int window = 0; window < PEAK_HOURS.length; window++) {
+      if (isTimeWithInRange(timeNow, PEAK_HOURS[window][0].minusSeconds(1),
+          PEAK_HOURS[window][1].plusSeconds(1))) {
+        return window;
+      }
+    }
+    return -1;
   }
 
-  private boolean isTimeWithInRange(LocalTime timeNow,
+  private static boolean isTimeWithInRange(LocalTime timeNow,
     LocalTime startTime, LocalTime endTime) {
     return timeNow.isAfter(startTime) && timeNow.isBefore(endTime);
   }
 
+  // Requests with a limit, a cursor or sorted by distance are served nearest first, so that a
+  // limit always keeps the nearest restaurants.
+  private boolean isNearestFirst(GetRestaurantsRequest getRestaurantsRequest) {
+    return getRestaurantsRequest.getLimit() != null || getRestaurantsRequest.getCursor() != null
+        || GetRestaurantsRequest.SORT_BY_DISTANCE.equals(getRestaurantsRequest.getSortBy());
+  }
+
+  private int limitOf(GetRestaurantsRequest getRestaurantsRequest) {
+    return getRestaurantsRequest.getLimit() != null
+        ? getRestaurantsRequest.getLimit() : Integer.MAX_VALUE;
+  }
+
+  // A cursor issued for another cell is ignored, the client has moved and starts over.
+  private RestaurantCursor cursorOf(GetRestaurantsRequest getRestaurantsRequest) {
+    if (getRestaurantsRequest.getCursor() == null) {
+      return null;
+    }
+    RestaurantCursor cursor = RestaurantCursor.decode(getRestaurantsRequest.getCursor());
+    return cursor.isIssuedFor(getRestaurantsRequest.getLatitude(),
+        getRestaurantsRequest.getLongitude()) ? cursor : null;
+  }
+
+  // Pages after a cursor are looked up and ranked from the location of the first page, so that
+  // their distances compare with the one of the cursor.
+  private static double latitudeOf(GetRestaurantsRequest getRestaurantsRequest,
+      RestaurantCursor cursor) {
+    return cursor != null ? cursor.getLatitude() : getRestaurantsRequest.getLatitude();
+  }
+
+  private static double longitudeOf(GetRestaurantsRequest getRestaurantsRequest,
+      RestaurantCursor cursor) {
+    return cursor != null ? cursor.getLongitude() : getRestaurantsRequest.getLongitude();
+  }
+
+  private String nextCursorOf(GetRestaurantsRequest getRestaurantsRequest,
+      RestaurantCursor cursor, List<Restaurant> page) {
+    if (getRestaurantsRequest.getLimit() == null
+        || page.size() < getRestaurantsRequest.getLimit()) {
+      return null;
+    }
+    Restaurant last = page.get(page.size() - 1);
+    if (cursor != null) {
+      return cursor.next(last.getDistanceInKm(), last.getRestaurantId()).encode();
+    }
+    return RestaurantCursor.after(getRestaurantsRequest.getLatitude(),
+        getRestaurantsRequest.getLongitude(), last.getDistanceInKm(), last.getRestaurantId())
+        .encode();
+  }
+
+  // Merges the search results into the requested page, nearest first. Restaurants of the previous
+  // pages are dropped before deduplication and only the page is ever sorted. The searches
+  // themselves are not bounded by the cursor, every page reads and maps their full results.
+  private GetRestaurantsResponse nearestPage(GetRestaurantsRequest getRestaurantsRequest,
+      RestaurantCursor after, List<List<Restaurant>> searchResults) {
+    double latitude = latitudeOf(getRestaurantsRequest, after);
+    double longitude = longitudeOf(getRestaurantsRequest, after);
+    int limit = limitOf(getRestaurantsRequest);
+    PriorityQueue<Restaurant> nearest = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)),
+        (first, second) -> RestaurantCursor.compare(second.getDistanceInKm(),
+            second.getRestaurantId(), first.getDistanceInKm(), first.getRestaurantId()));
+    Set<String> seen = new HashSet<>();
+    for (List<Restaurant> searchResult : searchResults) {
+      for (Restaurant restaurant : searchResult) {
+        double distanceInKm = GeoUtils.findDistanceInKm(latitude, longitude,
+            restaurant.getLatitude(), restaurant.getLongitude());
+        if ((after != null && !after.precedes(distanceInKm, restaurant.getRestaurantId()))
+            || !seen.add(restaurant.getRestaurantId())) {
+          continue;
+        }
+        restaurant.setDistanceInKm(distanceInKm);
+        if (nearest.size() < limit) {
+          nearest.add(restaurant);
+        } else if (nearest.comparator().compare(restaurant, nearest.peek()) > 0) {
+          nearest.poll();
+          nearest.add(restaurant);
+        }
+      }
+    }
+
+    Restaurant[] page = new Restaurant[nearest.size()];
+    for (int i = page.length - 1; i >= 0; i--) {
+      page[i] = nearest.poll();
+    }
+    List<Restaurant> restaurants = Arrays.asList(page);
+    return new GetRestaurantsResponse(restaurants,
+        nextCursorOf(getRestaurantsRequest, after, restaurants));
+  }
+
+  private static GetRestaurantsResponse withServingRadius(
+      GetRestaurantsResponse getRestaurantsResponse, Double servingRadiusInKm) {
+    getRestaurantsResponse.setServingRadiusInKms(servingRadiusInKm);
+    return getRestaurantsResponse;
+  }
+
 
   // TODO: CRIO_TASK_MODULE_RESTAURANTSEARCH
   // Implement findRestaurantsBySearchQuery. The request object has the search string.
@@ -82,9 +209,11 @@ public class RestaurantServiceImpl implements RestaurantService {
       GetRestaurantsRequest getRestaurantsRequest, LocalTime currentTime) {
     
         String searchFor = getRestaurantsRequest.getSearchFor();
-        Double latitude = getRestaurantsRequest.getLatitude();
-        Double longitude = getRestaurantsRequest.getLongitude();
-        Double servingRadiusInKm = isPeakHour(currentTime) ? peakHoursServingRadiusInKms : normalHoursServingRadiusInKms;
+        RestaurantCursor cursor = cursorOf(getRestaurantsRequest);
+        Double latitude = latitudeOf(getRestaurantsRequest, cursor);
+        Double longitude = longitudeOf(getRestaurantsRequest, cursor);
+        Double servingRadiusInKm =
+            servingRadiusPolicy.servingRadiusInKms(latitude, longitude, currentTime);
         
         final Long startTime = System.currentTimeMillis();
         if(searchFor.isEmpty()) return new GetRestaurantsResponse(Collections.emptyList());
@@ -103,6 +232,11 @@ public class RestaurantServiceImpl implements RestaurantService {
         
         Long endTime = System.currentTimeMillis() - startTime;
         System.out.println("Total time taken is " + endTime + " ms.");
+        if (isNearestFirst(getRestaurantsRequest)) {
+          return withServingRadius(nearestPage(getRestaurantsRequest, cursor, Arrays.asList(
+              restaurantsByName, restaurantsByCuisines, restaurantsByFoodItems,
+              restaurantsByFoodItemAttributes)), servingRadiusInKm);
+        }
         // Combine all the lists while ensuring uniqueness
         LinkedHashSet<Restaurant> combinedRestaurants = new LinkedHashSet<>();
         combinedRestaurants.addAll(restaurantsByName);
@@ -113,7 +247,8 @@ public class RestaurantServiceImpl implements RestaurantService {
         // Convert the set back to a list
         List<Restaurant> combinedRestaurantList = new ArrayList<>(combinedRestaurants);
         
-        return new GetRestaurantsResponse(combinedRestaurantList);
+        return withServingRadius(new GetRestaurantsResponse(combinedRestaurantList),
+            servingRadiusInKm);
   }
 
 
@@ -128,9 +263,11 @@ public class RestaurantServiceImpl implements RestaurantService {
         
         List<List<Restaurant>> restaurants = new ArrayList<>();
         String searchFor = getRestaurantsRequest.getSearchFor();
-        Double latitude = getRestaurantsRequest.getLatitude();
-        Double longitude = getRestaurantsRequest.getLongitude();
-        Double servingRadiusInKm = isPeakHour(currentTime) ? peakHoursServingRadiusInKms : normalHoursServingRadiusInKms;
+        RestaurantCursor cursor = cursorOf(getRestaurantsRequest);
+        Double latitude = latitudeOf(getRestaurantsRequest, cursor);
+        Double longitude = longitudeOf(getRestaurantsRequest, cursor);
+        Double servingRadiusInKm =
+            servingRadiusPolicy.servingRadiusInKms(latitude, longitude, currentTime);
 
         final Long startTime = System.currentTimeMillis();
         if(searchFor.isEmpty()) return new GetRestaurantsResponse(Collections.emptyList());
@@ -174,6 +311,10 @@ public class RestaurantServiceImpl implements RestaurantService {
 
         long endTime = System.currentTimeMillis() - startTime;
         System.out.println("time taken is " + endTime + " ms.");
+        if (isNearestFirst(getRestaurantsRequest)) {
+          return withServingRadius(nearestPage(getRestaurantsRequest, cursor, restaurants),
+              servingRadiusInKm);
+        }
         
         Set<String> set = new HashSet<>();
         List<Restaurant> result = new ArrayList<>();
@@ -188,7 +329,7 @@ public class RestaurantServiceImpl implements RestaurantService {
         }
 
 
-     return new GetRestaurantsResponse(result);
+     return withServingRadius(new GetRestaurantsResponse(result), servingRadiusInKm);
   }
 }
 
@@ -0,0 +1,23 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.services;
+
+import java.time.LocalTime;
+
+/**
+ * Picks the radius within which restaurants are served for a request.
+ * Declare another implementation as a primary bean to replace the default
+ * {@link LoadAwareServingRadiusPolicy}.
+ */
+public interface ServingRadiusPolicy {
+
+  /**
+   * Serving radius for a request from the given location at the given time.
+   */
+  double servingRadiusInKms(double latitude, double longitude, LocalTime currentTime);
+}
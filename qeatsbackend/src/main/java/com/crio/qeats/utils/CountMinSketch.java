@@ -0,0 +1,81 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch to estimate how often keys were seen in a fixed amount of memory.
+ * Estimates never undercount, and overcount by at most 2/width of the total count with
+ * probability 1 - 2^-depth. Safe to use from concurrent requests without locking.
+ */
+public class CountMinSketch {
+
+  private static final long[] SEEDS = {
+      0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0x27D4EB2F165667C5L,
+      0x85EBCA77C2B2AE63L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x94D049BB133111EBL};
+
+  private final int depth;
+  private final int width;
+  private final AtomicLongArray counts;
+
+  public CountMinSketch(int depth, int width) {
+    if (depth < 1 || depth > SEEDS.length || width < 1) {
+      throw new IllegalArgumentException("Invalid sketch size " + depth + "x" + width);
+    }
+    this.depth = depth;
+    this.width = width;
+    this.counts = new AtomicLongArray(depth * width);
+  }
+
+  /**
+   * Counts one more occurrence of the key.
+   * @return the estimated count of the key, including this occurrence
+   */
+  public long add(String key) {
+    int hash = key.hashCode();
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, counts.incrementAndGet(indexOf(row, hash)));
+    }
+    return estimate;
+  }
+
+  /**
+   * Estimated count of the key, never lower than the actual count.
+   */
+  public long estimate(String key) {
+    int hash = key.hashCode();
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, counts.get(indexOf(row, hash)));
+    }
+    return estimate;
+  }
+
+  /**
+   * Halves every count so that older occurrences weigh less than recent ones.
+   */
+  public void halve() {
+    for (int i = 0; i < counts.length(); i++) {
+      long count;
+      do {
+        count = counts.get(i);
+      } while (!counts.compareAndSet(i, count, count >>> 1));
+    }
+  }
+
+  private int indexOf(int row, int hash) {
+    // Mix the key hash with a seed per row, see the murmur3 finalizer.
+    long mixed = (hash ^ SEEDS[row]) * 0xFF51AFD7ED558CCDL;
+    mixed ^= mixed >>> 33;
+    mixed *= 0xC4CEB9FE1A85EC53L;
+    mixed ^= mixed >>> 33;
+    return row * width + (int) ((mixed >>> 1) % width);
+  }
+}
@@ -0,0 +1,153 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import ch.hsr.geohash.BoundingBox;
+import ch.hsr.geohash.GeoHash;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Helpers to work with geohash cells as a regular lat/long grid.
+ * A geohash of character precision p splits the world into 2^lonBits x 2^latBits cells, so the
+ * cells covering any bounding box can be enumerated without walking neighbours one by one.
+ */
+public class GeoHashCells {
+
+  private static final double EARTH_RADIUS_IN_KM = 6371.0;
+
+  private GeoHashCells() { /* utility */ }
+
+  /**
+   * Returns the geohash of the cell containing the given point.
+   */
+  public static String cellOf(double latitude, double longitude, int precision) {
+    return GeoHash.withCharacterPrecision(latitude, longitude, precision).toBase32();
+  }
+
+  /**
+   * Height of a cell of the given precision, in degrees of latitude.
+   */
+  public static double cellHeightInDegrees(int precision) {
+    return 180.0 / (1L << latitudeBits(precision));
+  }
+
+  /**
+   * Width of a cell of the given precision, in degrees of longitude.
+   */
+  public static double cellWidthInDegrees(int precision) {
+    return 360.0 / (1L << longitudeBits(precision));
+  }
+
+  /**
+   * Upper bound of the diagonal of a cell of the given precision, which is reached at the
+   * equator.
+   */
+  public static double cellDiagonalInKms(int precision) {
+    double kmsPerDegree = Math.toRadians(EARTH_RADIUS_IN_KM);
+    return Math.hypot(cellHeightInDegrees(precision) * kmsPerDegree,
+        cellWidthInDegrees(precision) * kmsPerDegree);
+  }
+
+  /**
+   * Returns all cells of the given precision that intersect the bounding box of the circle
+   * centered at (latitude, longitude) with the given radius. Every point within the radius is
+   * guaranteed to fall in one of the returned cells.
+   */
+  public static Set<String> coveringCells(double latitude, double longitude,
+      double radiusInKms, int precision) {
+    double angularRadius = radiusInKms / EARTH_RADIUS_IN_KM;
+    double latitudeDelta = Math.toDegrees(angularRadius);
+    double minLatitude = Math.max(-90.0, latitude - latitudeDelta);
+    double maxLatitude = Math.min(90.0, latitude + latitudeDelta);
+
+    double longitudeDelta = 180.0;
+    double cosLatitude = Math.cos(Math.toRadians(latitude));
+    if (minLatitude > -90.0 && maxLatitude < 90.0 && Math.sin(angularRadius) < cosLatitude) {
+      longitudeDelta = Math.toDegrees(Math.asin(Math.sin(angularRadius) / cosLatitude));
+    }
+
+    return cellsInBox(minLatitude, longitude - longitudeDelta,
+        maxLatitude, longitude + longitudeDelta, precision);
+  }
+
+  /**
+   * Returns the given cells except those entirely closer than minDistanceInKms to
+   * (latitude, longitude), i.e. the cells which may hold points at or beyond that distance.
+   * The cells covering a circle then become the cells covering a ring.
+   */
+  public static Set<String> cellsReaching(Set<String> cells, double latitude, double longitude,
+      double minDistanceInKms) {
+    if (minDistanceInKms <= 0) {
+      return cells;
+    }
+    Set<String> reaching = new LinkedHashSet<>();
+    for (String cell : cells) {
+      if (!isCellCloserThan(cell, latitude, longitude, minDistanceInKms)) {
+        reaching.add(cell);
+      }
+    }
+    return reaching;
+  }
+
+  // The farthest point of a cell is one of its corners. The margin absorbs the rounding of
+  // distances computed to the same points by other formulas.
+  private static boolean isCellCloserThan(String cell, double latitude, double longitude,
+      double distanceInKms) {
+    BoundingBox bounds = GeoHash.fromGeohashString(cell).getBoundingBox();
+    double limit = distanceInKms - 1e-6;
+    return GeoUtils.findDistanceInKm(latitude, longitude, bounds.getMinLat(),
+        bounds.getMinLon()) < limit
+        && GeoUtils.findDistanceInKm(latitude, longitude, bounds.getMinLat(),
+            bounds.getMaxLon()) < limit
+        && GeoUtils.findDistanceInKm(latitude, longitude, bounds.getMaxLat(),
+            bounds.getMinLon()) < limit
+        && GeoUtils.findDistanceInKm(latitude, longitude, bounds.getMaxLat(),
+            bounds.getMaxLon()) < limit;
+  }
+
+  /**
+   * Returns all cells of the given precision that intersect the bounding box. Longitudes outside
+   * [-180, 180] wrap around the antimeridian.
+   */
+  public static Set<String> cellsInBox(double minLatitude, double minLongitude,
+      double maxLatitude, double maxLongitude, int precision) {
+    double cellHeight = cellHeightInDegrees(precision);
+    double cellWidth = cellWidthInDegrees(precision);
+    long rows = 1L << latitudeBits(precision);
+    long columns = 1L << longitudeBits(precision);
+
+    long minRow = Math.max(0, (long) Math.floor((minLatitude + 90.0) / cellHeight));
+    long maxRow = Math.min(rows - 1, (long) Math.floor((maxLatitude + 90.0) / cellHeight));
+    long minColumn = (long) Math.floor((minLongitude + 180.0) / cellWidth);
+    long maxColumn = (long) Math.floor((maxLongitude + 180.0) / cellWidth);
+    if (maxColumn - minColumn >= columns) {
+      minColumn = 0;
+      maxColumn = columns - 1;
+    }
+
+    Set<String> cells = new LinkedHashSet<>();
+    for (long row = minRow; row <= maxRow; row++) {
+      double cellLatitude = -90.0 + (row + 0.5) * cellHeight;
+      for (long column = minColumn; column <= maxColumn; column++) {
+        long wrappedColumn = Math.floorMod(column, columns);
+        double cellLongitude = -180.0 + (wrappedColumn + 0.5) * cellWidth;
+        cells.add(cellOf(cellLatitude, cellLongitude, precision));
+      }
+    }
+    return cells;
+  }
+
+  private static int latitudeBits(int precision) {
+    return (5 * precision) / 2;
+  }
+
+  private static int longitudeBits(int precision) {
+    return (5 * precision + 1) / 2;
+  }
+}
@@ -14,42 +14,160 @@ import lombok.Data;
 @AllArgsConstructor
 public class GeoUtils {
 
+  private static final double EARTH_RADIUS_IN_KMS = 6371.0;
+
+  /**
+   * Haversine distance in km. Within 1e-9 km of the former atan2 based formula with the
+   * always-zero elevation term, at any distance.
+   */
   public static double findDistanceInKm(double srcLatitude, double srcLongitude,
       double dstLatitude, double dstLongitude) {
-    return distance(srcLatitude, dstLatitude, srcLongitude, dstLongitude, 0, 0);
+    return haversine(Math.toRadians(srcLatitude), Math.cos(Math.toRadians(srcLatitude)),
+        srcLongitude, dstLatitude, dstLongitude);
+  }
+
+  /**
+   * Computes the distances from one point to the points (latitudes[i], longitudes[i]) for
+   * i in [from, to), writing them to distancesInKms[i - from]. Same results as calling
+   * {@link #findDistanceInKm} for every point, without recomputing the source point terms.
+   */
+  public static void findDistancesInKm(double srcLatitude, double srcLongitude,
+      double[] latitudes, double[] longitudes, int from, int to, double[] distancesInKms) {
+    double srcLatitudeRadians = Math.toRadians(srcLatitude);
+    double cosSrcLatitude = Math.cos(srcLatitudeRadians);
+    for (int i = from; i < to; i++) {
+      distancesInKms[i - from] = haversine(srcLatitudeRadians, cosSrcLatitude, srcLongitude,
+          latitudes[i], longitudes[i]);
+    }
+  }
+
+  /**
+   * Returns a precomputed circle to test many points against the same radius, see
+   * {@link Circle#contains}.
+   */
+  public static Circle circle(double latitude, double longitude, double radiusInKms) {
+    return new Circle(latitude, longitude, radiusInKms);
+  }
+
+  // Haversine distance, in the asin form so that it needs a single square root.
+  private static double haversine(double srcLatitudeRadians, double cosSrcLatitude,
+      double srcLongitude, double dstLatitude, double dstLongitude) {
+    double dstLatitudeRadians = Math.toRadians(dstLatitude);
+    double sinHalfLatitudeDelta = Math.sin((dstLatitudeRadians - srcLatitudeRadians) / 2);
+    double sinHalfLongitudeDelta = Math.sin(Math.toRadians(dstLongitude - srcLongitude) / 2);
+    double a = sinHalfLatitudeDelta * sinHalfLatitudeDelta
+        + cosSrcLatitude * Math.cos(dstLatitudeRadians)
+        * sinHalfLongitudeDelta * sinHalfLongitudeDelta;
+    return 2 * EARTH_RADIUS_IN_KMS * Math.asin(Math.min(1.0, Math.sqrt(a)));
   }
 
   /**
-   * THIS IS BORROWED CODE. Calculate distance between two points in latitude and longitude taking
-   * into account height difference. If you are not interested in height difference pass 0.0. Uses
-   * Haversine method as its base.
-   *
-   * <p>lat1, lon1 Start point lat2, lon2 End point el1 Start altitude in meters el2 End altitude
-   * in
-   * meters
-   *
-   * @returns Distance in Kilo Meters
+   * A circle around a point, to check if points lie strictly within its radius.
+   * - Points outside the bounding box of the circle are rejected with four comparisons.
+   * - Other points get an equirectangular distance, without any trigonometry. Its relative error
+   *   against the haversine distance is below 0.01% for radii up to 50km at latitudes up to 70
+   *   degrees, so only points within {@link #BOUNDARY_BAND} of the radius fall back to the
+   *   haversine distance.
+   * Every decision is the same as {@code findDistanceInKm(...) < radiusInKms}. Circles that are
+   * larger, closer to the poles or cross the antimeridian always use the haversine distance.
    */
-  private static double distance(
-      double lat1, double lat2, double lon1, double lon2, double el1, double el2) {
+  public static final class Circle {
+
+    static final double BOUNDARY_BAND = 0.001;
+
+    private static final double MAX_FAST_PATH_RADIUS_IN_KMS = 50.0;
+    private static final double MAX_FAST_PATH_LATITUDE = 70.0;
+
+    private final double latitude;
+    private final double longitude;
+    private final double radiusInKms;
+
+    private final double minLatitude;
+    private final double maxLatitude;
+    private final double minLongitude;
+    private final double maxLongitude;
+
+    private final boolean fastPath;
+    private final double cosLatitude;
+    private final double sinLatitude;
+    private final double insideSquared;
+    private final double outsideSquared;
+
+    private Circle(double latitude, double longitude, double radiusInKms) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.radiusInKms = radiusInKms;
+
+      double angularRadius = radiusInKms / EARTH_RADIUS_IN_KMS;
+      // Slightly widened so that rounding never rejects a point within the radius.
+      double latitudeDelta = Math.toDegrees(angularRadius) * (1 + 1e-9) + 1e-9;
+      this.cosLatitude = Math.cos(Math.toRadians(latitude));
+      this.sinLatitude = Math.sin(Math.toRadians(latitude));
+
+      minLatitude = latitude - latitudeDelta;
+      maxLatitude = latitude + latitudeDelta;
+      double longitudeDelta = Double.POSITIVE_INFINITY;
+      if (minLatitude > -90 && maxLatitude < 90 && Math.sin(angularRadius) < cosLatitude) {
+        longitudeDelta = Math.toDegrees(Math.asin(Math.sin(angularRadius) / cosLatitude))
+            * (1 + 1e-9) + 1e-9;
+      }
+      boolean crossesAntimeridian = longitude - longitudeDelta < -180
+          || longitude + longitudeDelta > 180;
+      minLongitude = crossesAntimeridian ? Double.NEGATIVE_INFINITY : longitude - longitudeDelta;
+      maxLongitude = crossesAntimeridian ? Double.POSITIVE_INFINITY : longitude + longitudeDelta;
+
+      fastPath = !crossesAntimeridian && radiusInKms <= MAX_FAST_PATH_RADIUS_IN_KMS
+          && Math.abs(latitude) <= MAX_FAST_PATH_LATITUDE;
+      double inside = radiusInKms * (1 - BOUNDARY_BAND) / EARTH_RADIUS_IN_KMS;
+      double outside = radiusInKms * (1 + BOUNDARY_BAND) / EARTH_RADIUS_IN_KMS;
+      insideSquared = inside * inside;
+      outsideSquared = outside * outside;
+    }
 
-    final int R = 6371; // Radius of the earth
+    public double getRadiusInKms() {
+      return radiusInKms;
+    }
 
-    double latDistance = Math.toRadians(lat2 - lat1);
-    double lonDistance = Math.toRadians(lon2 - lon1);
-    double a =
-        Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-            + Math.cos(Math.toRadians(lat1))
-            * Math.cos(Math.toRadians(lat2))
-            * Math.sin(lonDistance / 2)
-            * Math.sin(lonDistance / 2);
-    double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-    double distance = R * c;
+    /**
+     * Box containing the circle, as {minLatitude, maxLatitude, minLongitude, maxLongitude}
+     * clamped to valid coordinates.
+     */
+    public double[] boundingBox() {
+      return new double[] {Math.max(minLatitude, -90), Math.min(maxLatitude, 90),
+          Math.max(minLongitude, -180), Math.min(maxLongitude, 180)};
+    }
 
-    double height = el1 - el2;
+    /**
+     * Checks if the point is strictly within the radius of the circle.
+     */
+    public boolean contains(double pointLatitude, double pointLongitude) {
+      if (pointLatitude < minLatitude || pointLatitude > maxLatitude
+          || pointLongitude < minLongitude || pointLongitude > maxLongitude) {
+        return false;
+      }
 
-    distance = Math.pow(distance, 2) + Math.pow(height, 2);
+      if (fastPath) {
+        double latitudeDelta = Math.toRadians(pointLatitude - latitude);
+        // cos of the mean latitude, to first order around the center of the circle.
+        double cosMeanLatitude = cosLatitude - sinLatitude * latitudeDelta / 2;
+        double x = Math.toRadians(pointLongitude - longitude) * cosMeanLatitude;
+        double angularDistanceSquared = x * x + latitudeDelta * latitudeDelta;
+        if (angularDistanceSquared < insideSquared) {
+          return true;
+        }
+        if (angularDistanceSquared > outsideSquared) {
+          return false;
+        }
+      }
+      return distanceInKm(pointLatitude, pointLongitude) < radiusInKms;
+    }
 
-    return Math.sqrt(distance);
+    /**
+     * Exact haversine distance from the center of the circle.
+     */
+    public double distanceInKm(double pointLatitude, double pointLongitude) {
+      return haversine(Math.toRadians(latitude), cosLatitude, longitude, pointLatitude,
+          pointLongitude);
+    }
   }
 }
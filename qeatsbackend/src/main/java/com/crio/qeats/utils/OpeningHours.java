@@ -0,0 +1,139 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening hours of a restaurant, parsed once into a packed minute-of-day range.
+ * - A restaurant is open strictly after it opens and strictly before it closes.
+ * - Windows where closesAt is before opensAt run overnight, e.g. 18:00 to 02:00.
+ * - Missing or unparseable hours mean the restaurant is never open.
+ */
+public final class OpeningHours {
+
+  public static final int MINUTES_PER_DAY = 24 * 60;
+
+  private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+  private static final OpeningHours NEVER_OPEN = new OpeningHours(0, 0);
+
+  // opensAt minute in the high 16 bits, closesAt minute in the low 16 bits.
+  private final int packedRange;
+
+  private OpeningHours(int opensAtMinute, int closesAtMinute) {
+    this.packedRange = (opensAtMinute << 16) | closesAtMinute;
+  }
+
+  /**
+   * Parses opening hours given as "HH:mm" strings.
+   * @return parsed hours, or hours that are never open if either value is missing or invalid
+   */
+  public static OpeningHours of(String opensAt, String closesAt) {
+    int opensAtMinute = parseMinuteOfDay(opensAt);
+    int closesAtMinute = parseMinuteOfDay(closesAt);
+    if (opensAtMinute < 0 || closesAtMinute < 0) {
+      return NEVER_OPEN;
+    }
+    return new OpeningHours(opensAtMinute, closesAtMinute);
+  }
+
+  /**
+   * Opening hours from minutes of the day, as returned by {@link #opensAtMinute()} and
+   * {@link #closesAtMinute()}.
+   */
+  public static OpeningHours ofMinutes(int opensAtMinute, int closesAtMinute) {
+    if (opensAtMinute < 0 || opensAtMinute >= MINUTES_PER_DAY || closesAtMinute < 0
+        || closesAtMinute >= MINUTES_PER_DAY) {
+      return NEVER_OPEN;
+    }
+    return new OpeningHours(opensAtMinute, closesAtMinute);
+  }
+
+  public int opensAtMinute() {
+    return packedRange >>> 16;
+  }
+
+  public int closesAtMinute() {
+    return packedRange & 0xFFFF;
+  }
+
+  public boolean isOvernight() {
+    return closesAtMinute() < opensAtMinute();
+  }
+
+  /**
+   * Checks if the restaurant is open at the given time, with the same strict bounds as
+   * comparing {@link LocalTime#isAfter} and {@link LocalTime#isBefore}.
+   */
+  public boolean isOpenAt(LocalTime time) {
+    long nanoOfDay = time.toNanoOfDay();
+    long opensAtNanos = opensAtMinute() * NANOS_PER_MINUTE;
+    long closesAtNanos = closesAtMinute() * NANOS_PER_MINUTE;
+    if (isOvernight()) {
+      return nanoOfDay > opensAtNanos || nanoOfDay < closesAtNanos;
+    }
+    return nanoOfDay > opensAtNanos && nanoOfDay < closesAtNanos;
+  }
+
+  /**
+   * Checks if the restaurant is open at some point during the given minute of the day.
+   */
+  public boolean isOpenDuringMinute(int minuteOfDay) {
+    // Open during [m, m + 1) iff some instant in it is strictly inside the window.
+    if (isOvernight()) {
+      return minuteOfDay >= opensAtMinute() || minuteOfDay < closesAtMinute();
+    }
+    return minuteOfDay >= opensAtMinute() && minuteOfDay < closesAtMinute();
+  }
+
+  // Minute of the day for "H:mm" / "HH:mm" (optionally with seconds), or -1 if invalid.
+  private static int parseMinuteOfDay(String time) {
+    if (time == null) {
+      return -1;
+    }
+    int colon = time.indexOf(':');
+    if (colon < 1 || colon > 2 || time.length() < colon + 3) {
+      return -1;
+    }
+    int hours = parseDigits(time, 0, colon);
+    int minutes = parseDigits(time, colon + 1, colon + 3);
+    if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+      return -1;
+    }
+    return hours * 60 + minutes;
+  }
+
+  private static int parseDigits(String value, int from, int to) {
+    int result = 0;
+    for (int i = from; i < to; i++) {
+      char digit = value.charAt(i);
+      if (digit < '0' || digit > '9') {
+        return -1;
+      }
+      result = result * 10 + (digit - '0');
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof OpeningHours && ((OpeningHours) obj).packedRange == packedRange;
+  }
+
+  @Override
+  public int hashCode() {
+    return packedRange;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%02d:%02d-%02d:%02d", opensAtMinute() / 60, opensAtMinute() % 60,
+        closesAtMinute() / 60, closesAtMinute() % 60);
+  }
+}
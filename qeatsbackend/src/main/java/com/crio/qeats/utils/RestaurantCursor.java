@@ -0,0 +1,108 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import lombok.Value;
+
+/**
+ * Continuation cursor for restaurants paged nearest first.
+ * Pages are ordered by (distance, restaurantId), so the next page is fully described by the last
+ * restaurant returned: it holds the restaurants strictly after that position. Its distance is a
+ * lower bound for the next page, so geohash cells entirely closer than it are not read again,
+ * while the restaurants of previous pages in the remaining cells are dropped before ranking.
+ * Distances are only comparable from the same point, so the cursor keeps the location of the
+ * first page and the following pages are ranked from it. A client which has moved out of the
+ * geohash cell of that location starts over instead.
+ * Clients get the cursor as an opaque url safe string.
+ */
+@Value
+public class RestaurantCursor {
+
+  // Cells of precision 6 are roughly 1.2km x 0.6km, small moves keep the cursor valid.
+  static final int CELL_PRECISION = 6;
+
+  private static final String VERSION = "2";
+  private static final String SEPARATOR = "|";
+
+  private final double latitude;
+  private final double longitude;
+  private final double distanceInKm;
+  private final String restaurantId;
+
+  /**
+   * Cursor resuming after the restaurant at the given distance from the given location.
+   */
+  public static RestaurantCursor after(double latitude, double longitude, double distanceInKm,
+      String restaurantId) {
+    return new RestaurantCursor(latitude, longitude, distanceInKm, restaurantId);
+  }
+
+  /**
+   * Cursor resuming after the restaurant at the given distance from the location of this one.
+   */
+  public RestaurantCursor next(double distanceInKm, String restaurantId) {
+    return new RestaurantCursor(latitude, longitude, distanceInKm, restaurantId);
+  }
+
+  /**
+   * Decodes a cursor returned by {@link #encode()}.
+   * @throws InvalidCursorException if the cursor is malformed
+   */
+  public static RestaurantCursor decode(String cursor) {
+    try {
+      String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      String[] parts = decoded.split("\\" + SEPARATOR, 5);
+      if (parts.length != 5 || !VERSION.equals(parts[0])) {
+        throw new InvalidCursorException("Invalid cursor " + cursor);
+      }
+      return new RestaurantCursor(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+          Double.parseDouble(parts[3]), parts[4]);
+    } catch (IllegalArgumentException e) {
+      // Not base64 or not a number.
+      throw new InvalidCursorException("Invalid cursor " + cursor, e);
+    }
+  }
+
+  public String encode() {
+    // Double.toString round trips exactly, so distances compare equal after decoding.
+    String decoded = VERSION + SEPARATOR + latitude + SEPARATOR + longitude + SEPARATOR
+        + distanceInKm + SEPARATOR + restaurantId;
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Checks if the given location is in the same cell as the one the cursor was issued for.
+   */
+  public boolean isIssuedFor(double latitude, double longitude) {
+    return GeoHashCells.cellOf(this.latitude, this.longitude, CELL_PRECISION)
+        .equals(GeoHashCells.cellOf(latitude, longitude, CELL_PRECISION));
+  }
+
+  /**
+   * Checks if a restaurant at the given distance belongs to a page after the cursor.
+   */
+  public boolean precedes(double distanceInKm, String restaurantId) {
+    return compare(this.distanceInKm, this.restaurantId, distanceInKm, restaurantId) < 0;
+  }
+
+  /**
+   * Order of the pages, nearest first and by restaurant id between equally distant ones.
+   */
+  public static int compare(double distanceInKm, String restaurantId,
+      double otherDistanceInKm, String otherRestaurantId) {
+    int byDistance = Double.compare(distanceInKm, otherDistanceInKm);
+    if (byDistance != 0) {
+      return byDistance;
+    }
+    return Objects.toString(restaurantId, "").compareTo(Objects.toString(otherRestaurantId, ""));
+  }
+}
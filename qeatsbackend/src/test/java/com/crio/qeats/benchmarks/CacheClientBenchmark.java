@@ -0,0 +1,125 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.benchmarks;
+
+import com.crio.qeats.cache.CacheClient;
+import com.crio.qeats.cache.JedisCacheClient;
+import com.crio.qeats.cache.LettuceCacheClient;
+import com.crio.qeats.configs.RedisCircuitBreaker;
+import com.crio.qeats.configs.RedisConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.embedded.RedisServer;
+
+/**
+ * Compares the Jedis and Lettuce cache clients on the reads of a close-by request, an MGET of
+ * the covering cells followed by an HGETALL per restaurant, against the embedded Redis of the
+ * tests. More threads than pooled Jedis connections model a burst. Sample time reports the
+ * percentiles next to the average. Run with `./gradlew jmh`.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(256)
+@State(Scope.Benchmark)
+public class CacheClientBenchmark {
+
+  private static final int REDIS_PORT = 6391;
+  private static final int CELLS = 9;
+  private static final int RESTAURANTS = 30;
+
+  @Param({"jedis", "lettuce"})
+  private String client;
+
+  private RedisServer redisServer;
+  private CacheClient cacheClient;
+  private List<String> cellKeys;
+  private List<String> restaurantKeys;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    redisServer = new RedisServer(REDIS_PORT);
+    redisServer.start();
+    RedisCircuitBreaker redisCircuitBreaker =
+        new RedisCircuitBreaker(new SimpleMeterRegistry(), 20, 5, 0.5, 250, 5000, 3);
+    RedisConfiguration redisConfiguration = new RedisConfiguration();
+    redisConfiguration.setRedisPort(REDIS_PORT);
+    redisConfiguration.setRedisCircuitBreaker(redisCircuitBreaker);
+    redisConfiguration.initCache();
+    cacheClient = "jedis".equals(client)
+        ? new JedisCacheClient(redisConfiguration, redisCircuitBreaker)
+        : new LettuceCacheClient(redisConfiguration, redisCircuitBreaker, 4, 2000);
+
+    cellKeys = new ArrayList<>();
+    restaurantKeys = new ArrayList<>();
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      for (int i = 0; i < CELLS; i++) {
+        cellKeys.add("closeby:r3:s72:{cell" + i + "}");
+        batch.setex(cellKeys.get(i), 3600, new byte[64]);
+      }
+      for (int i = 0; i < RESTAURANTS; i++) {
+        Map<String, String> hash = new HashMap<>();
+        hash.put("restaurantId", String.valueOf(i));
+        hash.put("name", "Restaurant " + i);
+        restaurantKeys.add("restaurant:" + i);
+        batch.hmset(restaurantKeys.get(i), hash);
+      }
+      batch.execute();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (cacheClient instanceof JedisCacheClient) {
+      ((JedisCacheClient) cacheClient).stop();
+    } else {
+      ((LettuceCacheClient) cacheClient).stop();
+    }
+    redisServer.stop();
+  }
+
+  @Benchmark
+  public int closeByReads() {
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<List<byte[]>> entries = batch.mget(cellKeys);
+      batch.execute();
+      List<Supplier<Map<String, String>>> bodies = new ArrayList<>(restaurantKeys.size());
+      for (String restaurantKey : restaurantKeys) {
+        bodies.add(batch.hgetAll(restaurantKey));
+      }
+      batch.execute();
+      int fields = entries.get().size();
+      for (Supplier<Map<String, String>> body : bodies) {
+        fields += body.get().size();
+      }
+      return fields;
+    }
+  }
+}
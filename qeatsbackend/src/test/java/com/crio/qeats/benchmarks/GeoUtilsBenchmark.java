@@ -0,0 +1,124 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.benchmarks;
+
+import com.crio.qeats.utils.GeoUtils;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares ways of checking which of a set of candidates lie within a 5km serving radius, with
+ * candidates spread over a 20km x 20km area. Run with `./gradlew jmh`.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeoUtilsBenchmark {
+
+  private static final int CANDIDATES = 10_000;
+  private static final double LATITUDE = 12.9;
+  private static final double LONGITUDE = 77.6;
+  private static final double RADIUS_IN_KMS = 5.0;
+
+  private double[] latitudes;
+  private double[] longitudes;
+  private double[] distances;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    latitudes = new double[CANDIDATES];
+    longitudes = new double[CANDIDATES];
+    distances = new double[CANDIDATES];
+    for (int i = 0; i < CANDIDATES; i++) {
+      latitudes[i] = LATITUDE + (random.nextDouble() - 0.5) * 0.18;
+      longitudes[i] = LONGITUDE + (random.nextDouble() - 0.5) * 0.18;
+    }
+  }
+
+  @Benchmark
+  public int previousHaversine() {
+    int within = 0;
+    for (int i = 0; i < CANDIDATES; i++) {
+      if (previousDistance(LATITUDE, latitudes[i], LONGITUDE, longitudes[i], 0, 0)
+          < RADIUS_IN_KMS) {
+        within++;
+      }
+    }
+    return within;
+  }
+
+  @Benchmark
+  public int haversine() {
+    int within = 0;
+    for (int i = 0; i < CANDIDATES; i++) {
+      if (GeoUtils.findDistanceInKm(LATITUDE, LONGITUDE, latitudes[i], longitudes[i])
+          < RADIUS_IN_KMS) {
+        within++;
+      }
+    }
+    return within;
+  }
+
+  @Benchmark
+  public int batchHaversine() {
+    GeoUtils.findDistancesInKm(LATITUDE, LONGITUDE, latitudes, longitudes, 0, CANDIDATES,
+        distances);
+    int within = 0;
+    for (int i = 0; i < CANDIDATES; i++) {
+      if (distances[i] < RADIUS_IN_KMS) {
+        within++;
+      }
+    }
+    return within;
+  }
+
+  @Benchmark
+  public int circle() {
+    GeoUtils.Circle circle = GeoUtils.circle(LATITUDE, LONGITUDE, RADIUS_IN_KMS);
+    int within = 0;
+    for (int i = 0; i < CANDIDATES; i++) {
+      if (circle.contains(latitudes[i], longitudes[i])) {
+        within++;
+      }
+    }
+    return within;
+  }
+
+  // GeoUtils.distance as it was before the fast paths.
+  private static double previousDistance(
+      double lat1, double lat2, double lon1, double lon2, double el1, double el2) {
+    final int R = 6371;
+    double latDistance = Math.toRadians(lat2 - lat1);
+    double lonDistance = Math.toRadians(lon2 - lon1);
+    double a =
+        Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
+            + Math.cos(Math.toRadians(lat1))
+            * Math.cos(Math.toRadians(lat2))
+            * Math.sin(lonDistance / 2)
+            * Math.sin(lonDistance / 2);
+    double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    double distance = R * c;
+    double height = el1 - el2;
+    distance = Math.pow(distance, 2) + Math.pow(height, 2);
+    return Math.sqrt(distance);
+  }
+}
@@ -0,0 +1,83 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.benchmarks;
+
+import com.crio.qeats.utils.OpeningHours;
+import java.time.LocalTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the parse-per-request opening hours check with the precomputed one, over the same
+ * set of restaurants. Run with `./gradlew jmh`.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpeningHoursBenchmark {
+
+  private static final int RESTAURANTS = 10_000;
+
+  private String[] opensAt;
+  private String[] closesAt;
+  private OpeningHours[] openingHours;
+  private LocalTime now;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    opensAt = new String[RESTAURANTS];
+    closesAt = new String[RESTAURANTS];
+    openingHours = new OpeningHours[RESTAURANTS];
+    for (int i = 0; i < RESTAURANTS; i++) {
+      int opens = random.nextInt(12 * 60);
+      int closes = opens + 60 + random.nextInt(10 * 60);
+      opensAt[i] = String.format("%02d:%02d", opens / 60, opens % 60);
+      closesAt[i] = String.format("%02d:%02d", closes / 60, closes % 60);
+      openingHours[i] = OpeningHours.of(opensAt[i], closesAt[i]);
+    }
+    now = LocalTime.of(13, 30);
+  }
+
+  @Benchmark
+  public int parsePerRequest() {
+    int open = 0;
+    for (int i = 0; i < RESTAURANTS; i++) {
+      LocalTime openingTime = LocalTime.parse(opensAt[i]);
+      LocalTime closingTime = LocalTime.parse(closesAt[i]);
+      if (now.isAfter(openingTime) && now.isBefore(closingTime)) {
+        open++;
+      }
+    }
+    return open;
+  }
+
+  @Benchmark
+  public int precomputed() {
+    int open = 0;
+    for (int i = 0; i < RESTAURANTS; i++) {
+      if (openingHours[i].isOpenAt(now)) {
+        open++;
+      }
+    }
+    return open;
+  }
+}
@@ -0,0 +1,59 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CachedCellCodecTest {
+
+  @Test
+  void cachedCellRoundTrips() throws IOException {
+    CachedCell cachedCell = new CachedCell(1234L, restaurantIds(3));
+
+    for (CachedCellCodec codec : new CachedCellCodec[] {new BinaryCachedCellCodec(2048),
+        new BinaryCachedCellCodec(0), new JsonCachedCellCodec(2048),
+        new JsonCachedCellCodec(0)}) {
+      assertEquals(cachedCell, codec.decode(codec.encode(cachedCell)));
+    }
+  }
+
+  @Test
+  void largeEntriesAreCompressed() throws IOException {
+    CachedCell cachedCell = new CachedCell(1234L, restaurantIds(200));
+
+    assertTrue(new BinaryCachedCellCodec(0).encode(cachedCell).length
+        < new BinaryCachedCellCodec(Integer.MAX_VALUE).encode(cachedCell).length);
+  }
+
+  @Test
+  void entriesOfOtherFormatsAreIgnored() throws IOException {
+    CachedCell cachedCell = new CachedCell(1234L, restaurantIds(3));
+
+    assertNull(new BinaryCachedCellCodec(2048).decode(
+        new JsonCachedCellCodec(2048).encode(cachedCell)));
+    // Plain JSON entries written before the codecs were versioned.
+    assertNull(new BinaryCachedCellCodec(2048).decode(
+        "[{\"restaurantId\":\"10\"}]".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static List<String> restaurantIds(int count) {
+    List<String> restaurantIds = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      restaurantIds.add(String.format("5c8f9ad7ad5fb5d3%08x", i));
+    }
+    return restaurantIds;
+  }
+}
@@ -0,0 +1,91 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.crio.qeats.configs.RedisCircuitBreaker;
+import com.crio.qeats.configs.RedisConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.util.SafeEncoder;
+import redis.embedded.RedisServer;
+
+class JedisCacheClientTest {
+
+  private static final int PORT = 6396;
+
+  private RedisServer redisServer;
+  private RedisCircuitBreaker redisCircuitBreaker;
+  private RedisConfiguration redisConfiguration;
+  private JedisCacheClient cacheClient;
+
+  @BeforeEach
+  void setup() throws Exception {
+    redisServer = new RedisServer(PORT);
+    redisServer.start();
+    // Opens on the first failed call, or call slower than 100 ms.
+    redisCircuitBreaker = new RedisCircuitBreaker(new SimpleMeterRegistry(), 1, 1, 0.5, 100,
+        5000, 1);
+    redisConfiguration = new RedisConfiguration();
+    redisConfiguration.setRedisPort(PORT);
+    redisConfiguration.setRedisCircuitBreaker(redisCircuitBreaker);
+    redisConfiguration.initCache();
+    cacheClient = new JedisCacheClient(redisConfiguration, redisCircuitBreaker);
+  }
+
+  @AfterEach
+  void teardown() {
+    cacheClient.stop();
+    redisConfiguration.getJedisPool().destroy();
+    redisServer.stop();
+  }
+
+  @Test
+  void holdingConnectionIsNotSlowCall() throws InterruptedException {
+    String key = "closeby:r3:s72:{tsq4d2}";
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Thread.sleep(200);
+      batch.setex(key, 3600, SafeEncoder.encode("value"));
+      batch.execute();
+    }
+
+    List<byte[]> values;
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<List<byte[]>> reply = batch.mget(Collections.singletonList(key));
+      batch.execute();
+      values = reply.get();
+    }
+
+    assertArrayEquals(SafeEncoder.encode("value"), values.get(0));
+    assertEquals(RedisCircuitBreaker.State.CLOSED, redisCircuitBreaker.getState());
+  }
+
+  @Test
+  void failedBatchOpensBreaker() {
+    redisServer.stop();
+
+    assertThrows(CacheClientException.class, () -> {
+      try (CacheClient.Batch batch = cacheClient.batch()) {
+        batch.setex("closeby:r3:s72:{tsq4d2}", 3600, SafeEncoder.encode("value"));
+        batch.execute();
+      }
+    });
+
+    assertEquals(RedisCircuitBreaker.State.OPEN, redisCircuitBreaker.getState());
+    assertFalse(cacheClient.isAvailable());
+  }
+}
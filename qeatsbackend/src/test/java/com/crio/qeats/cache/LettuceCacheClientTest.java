@@ -0,0 +1,161 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.configs.RedisCircuitBreaker;
+import com.crio.qeats.configs.RedisConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.util.SafeEncoder;
+import redis.embedded.RedisServer;
+
+class LettuceCacheClientTest {
+
+  private static final int PORT = 6397;
+
+  private RedisServer redisServer;
+  private RedisCircuitBreaker redisCircuitBreaker;
+  private RedisConfiguration redisConfiguration;
+  private LettuceCacheClient cacheClient;
+
+  @BeforeEach
+  void setup() throws Exception {
+    redisServer = new RedisServer(PORT);
+    redisServer.start();
+    // Opens on the first failed call, or call slower than 100 ms.
+    redisCircuitBreaker = new RedisCircuitBreaker(new SimpleMeterRegistry(), 1, 1, 0.5, 100,
+        5000, 1);
+    redisConfiguration = new RedisConfiguration();
+    redisConfiguration.setRedisPort(PORT);
+    redisConfiguration.setRedisCircuitBreaker(redisCircuitBreaker);
+    redisConfiguration.initCache();
+    cacheClient = new LettuceCacheClient(redisConfiguration, redisCircuitBreaker, 2, 500);
+  }
+
+  @AfterEach
+  void teardown() {
+    cacheClient.stop();
+    redisConfiguration.getJedisPool().destroy();
+    redisServer.stop();
+  }
+
+  @Test
+  void mgetKeepsOrderOfKeysAcrossConnections() {
+    List<String> keys = new ArrayList<>();
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      for (int i = 0; i < 30; i++) {
+        keys.add("closeby:r3:s72:{cell" + i + "}");
+        if (i % 3 != 0) {
+          batch.setex(keys.get(i), 3600, SafeEncoder.encode("value" + i));
+        }
+      }
+      batch.execute();
+    }
+
+    List<byte[]> values;
+    // On the other connection.
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<List<byte[]>> reply = batch.mget(keys);
+      batch.execute();
+      values = reply.get();
+    }
+
+    for (int i = 0; i < keys.size(); i++) {
+      if (i % 3 == 0) {
+        assertNull(values.get(i));
+      } else {
+        assertArrayEquals(SafeEncoder.encode("value" + i), values.get(i));
+      }
+    }
+    assertEquals(RedisCircuitBreaker.State.CLOSED, redisCircuitBreaker.getState());
+  }
+
+  @Test
+  void scriptRunsOnKeysAndArgs() {
+    String script = "redis.call('SET', KEYS[1], ARGV[1]) "
+        + "redis.call('SET', KEYS[2], ARGV[1]) return 1";
+    String lockKey = RestaurantCellCache.lockKeyOf("r3", 72, "tsq4d2");
+    String key = RestaurantCellCache.keyOf("r3", 72, "tsq4d2");
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<Long> reply = batch.eval(script, Arrays.asList(lockKey, key),
+          Collections.singletonList(SafeEncoder.encode("11")));
+      Supplier<Boolean> exists = batch.exists(key);
+      batch.execute();
+
+      assertEquals(1L, (long) reply.get());
+      assertTrue(exists.get());
+    }
+  }
+
+  @Test
+  void publishedMessageReachesSubscriber() throws InterruptedException {
+    BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    CountDownLatch subscribed = new CountDownLatch(1);
+    cacheClient.subscribe(RestaurantCellCache.INVALIDATION_CHANNEL, messages::add,
+        subscribed::countDown);
+    assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      batch.publish(RestaurantCellCache.INVALIDATION_CHANNEL, "node closeby:r3:s72:{tsq4d2}");
+      batch.execute();
+    }
+
+    assertEquals("node closeby:r3:s72:{tsq4d2}", messages.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void commandErrorIsNotBreakerFailure() {
+    String key = RestaurantCellCache.cellIndexKeyOf("tsq4d2");
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      batch.sadd(key, "closeby:r3:s72:{tsq4d2}");
+      // WRONGTYPE, the key holds a set.
+      Supplier<Long> reply = batch.incrBy(key, 1);
+      Supplier<Boolean> exists = batch.exists(key);
+      batch.execute();
+
+      assertThrows(CacheClientException.class, reply::get);
+      assertTrue(exists.get());
+    }
+
+    assertEquals(RedisCircuitBreaker.State.CLOSED, redisCircuitBreaker.getState());
+    assertTrue(cacheClient.isAvailable());
+  }
+
+  @Test
+  void failedBatchOpensBreaker() {
+    redisServer.stop();
+
+    assertThrows(CacheClientException.class, () -> {
+      try (CacheClient.Batch batch = cacheClient.batch()) {
+        batch.setex("closeby:r3:s72:{tsq4d2}", 3600, SafeEncoder.encode("value"));
+        batch.execute();
+      }
+    });
+
+    assertEquals(RedisCircuitBreaker.State.OPEN, redisCircuitBreaker.getState());
+    assertFalse(cacheClient.isAvailable());
+  }
+}
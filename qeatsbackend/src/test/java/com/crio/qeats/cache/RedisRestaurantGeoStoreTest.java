@@ -0,0 +1,194 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.repositories.RestaurantRepository;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import redis.clients.jedis.Jedis;
+
+// The embedded Redis predates the GEO commands, they are recorded instead of sent.
+@SpringBootTest(classes = {QEatsApplication.class}, properties = {
+    "qeats.closeby.backend=redis-geo", "qeats.redis-geo.initial-delay-ms=3600000"})
+@DirtiesContext
+@ActiveProfiles("test")
+class RedisRestaurantGeoStoreTest {
+
+  private static final String SYNC_LOCK_KEY = "{restaurants:geo}:sync-lock";
+
+  @Autowired
+  private RedisRestaurantGeoStore redisRestaurantGeoStore;
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+
+  @SpyBean
+  private CacheClient cacheClient;
+  @MockBean
+  private RestaurantRepository restaurantRepository;
+
+  // Name and arguments of the GEO commands and scripts, in the order sent.
+  private final List<List<Object>> commands = Collections.synchronizedList(new ArrayList<>());
+
+  @BeforeEach
+  void setupCache() {
+    redisConfiguration.initCache();
+    doAnswer(invocation -> recording((CacheClient.Batch) invocation.callRealMethod()))
+        .when(cacheClient).batch();
+  }
+
+  @AfterEach
+  void teardown() {
+    redisConfiguration.destroyCache();
+  }
+
+  @Test
+  void changeDuringReloadIsReplayedBeforeTheSwap() {
+    when(restaurantRepository.findAll()).thenAnswer(invocation -> {
+      // Read before the restaurant moved.
+      List<RestaurantEntity> restaurantEntities =
+          Collections.singletonList(restaurantAt("11", 20.0, 30.0));
+      redisRestaurantGeoStore.onRestaurantsChanged(
+          Collections.singletonList(restaurantAt("11", 20.1, 30.0)), Collections.emptySet());
+      return restaurantEntities;
+    });
+
+    redisRestaurantGeoStore.sync();
+
+    List<Object> lastGeoadd = null;
+    for (List<Object> command : commands) {
+      if (command.get(0).equals("geoadd")) {
+        lastGeoadd = command;
+      } else if (command.get(0).equals("eval")) {
+        break;
+      }
+    }
+    assertTrue(((String) lastGeoadd.get(1)).startsWith("{restaurants:geo}:loading:"));
+    assertEquals(20.1, (double) lastGeoadd.get(3), 1e-9);
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      assertFalse(jedis.exists(SYNC_LOCK_KEY));
+      assertTrue(jedis.exists("{restaurants:geo}:synced"));
+    }
+  }
+
+  @Test
+  void reloadOutlivingItsLockIsNotSwappedIn() {
+    when(restaurantRepository.findAll()).thenAnswer(invocation -> {
+      // Meanwhile the lock expired and another node took it over.
+      try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+        jedis.set(SYNC_LOCK_KEY, "another-node");
+      }
+      return Collections.singletonList(restaurantAt("11", 20.0, 30.0));
+    });
+
+    redisRestaurantGeoStore.sync();
+
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      assertEquals("another-node", jedis.get(SYNC_LOCK_KEY));
+      assertFalse(jedis.exists("{restaurants:geo}:synced"));
+    }
+  }
+
+  @Test
+  void changeFailingToBeWrittenIsWrittenOnNextSync() {
+    redisRestaurantGeoStore.sync();
+    assertTrue(redisRestaurantGeoStore.isEnabled());
+    doThrow(new CacheClientException("Redis is down"))
+        .doAnswer(invocation -> recording((CacheClient.Batch) invocation.callRealMethod()))
+        .when(cacheClient).batch();
+    commands.clear();
+
+    // Doesn't fail the change feed.
+    redisRestaurantGeoStore.onRestaurantsChanged(
+        Collections.singletonList(restaurantAt("11", 20.1, 30.0)), Collections.emptySet());
+
+    assertFalse(redisRestaurantGeoStore.isEnabled());
+    assertTrue(commands.isEmpty());
+
+    redisRestaurantGeoStore.sync();
+
+    assertEquals("geoadd", commands.get(0).get(0));
+    assertEquals("{restaurants:geo}", commands.get(0).get(1));
+    assertTrue(redisRestaurantGeoStore.isEnabled());
+  }
+
+  @Test
+  void radiusIsWidenedToTheEarthOfRedis() {
+    redisRestaurantGeoStore.findWithin(20.0, 30.0, 3.0);
+
+    List<Object> georadius = commands.get(0);
+    assertEquals("georadius", georadius.get(0));
+    assertTrue((double) georadius.get(4) >= 3.0 * 6372.797 / 6371.0);
+  }
+
+  private CacheClient.Batch recording(CacheClient.Batch batch) {
+    return (CacheClient.Batch) Proxy.newProxyInstance(CacheClient.Batch.class.getClassLoader(),
+        new Class<?>[]{CacheClient.Batch.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "geoadd":
+            case "zrem":
+              commands.add(commandOf(method.getName(), args));
+              return null;
+            case "georadius":
+              commands.add(commandOf(method.getName(), args));
+              return (Supplier<List<String>>) Collections::emptyList;
+            case "eval":
+              commands.add(commandOf(method.getName(), args));
+              break;
+            default:
+              break;
+          }
+          try {
+            return method.invoke(batch, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  private static List<Object> commandOf(String name, Object[] args) {
+    List<Object> command = new ArrayList<>();
+    command.add(name);
+    command.addAll(Arrays.asList(args));
+    return command;
+  }
+
+  private static RestaurantEntity restaurantAt(String id, double latitude, double longitude) {
+    RestaurantEntity restaurantEntity = new RestaurantEntity();
+    restaurantEntity.setId(id);
+    restaurantEntity.setRestaurantId(id);
+    restaurantEntity.setName("A2B");
+    restaurantEntity.setLatitude(latitude);
+    restaurantEntity.setLongitude(longitude);
+    restaurantEntity.setAttributes(Collections.emptyList());
+    return restaurantEntity;
+  }
+}
@@ -0,0 +1,439 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+
+import ch.hsr.geohash.GeoHash;
+import ch.hsr.geohash.WGS84Point;
+import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.models.RestaurantEntity;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+@SpringBootTest(classes = {QEatsApplication.class}, properties = {
+    "qeats.cache.near.enabled=true", "qeats.cache.pending-changes-retry-ms=3600000"})
+@DirtiesContext
+@ActiveProfiles("test")
+class RestaurantCellCacheTest {
+
+  private static final String CELL = "tsq4d2";
+
+  @Autowired
+  private RestaurantCellCache restaurantCellCache;
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+  @Autowired
+  private CachedCellCodec cachedCellCodec;
+  @SpyBean
+  private CacheClient cacheClient;
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @BeforeEach
+  void setupCache() {
+    redisConfiguration.initCache();
+  }
+
+  @AfterEach
+  void teardown() {
+    restaurantCellCache.flush();
+    restaurantCellCache.invalidateNearCache();
+    redisConfiguration.destroyCache();
+  }
+
+  @Test
+  void concurrentMissesOnSameCellAreLoadedOnce() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Map<String, List<RestaurantEntity>>>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(() -> restaurantCellCache.getOrLoadCells("r3", 72,
+            Collections.singleton(CELL), slowLoader("11"))));
+      }
+
+      for (Future<Map<String, List<RestaurantEntity>>> result : results) {
+        assertEquals("11", result.get().get(CELL).get(0).getRestaurantId());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void missReadBeforeAnotherLoadIsWrittenIsNotLoadedAgain() throws Exception {
+    CountDownLatch missRead = new CountDownLatch(1);
+    CountDownLatch loadWritten = new CountDownLatch(1);
+    Thread missing = new Thread(() -> restaurantCellCache.getOrLoadCells("r3", 72,
+        Collections.singleton(CELL), slowLoader("11")));
+    pauseAfterFirstBatch(missing, missRead, loadWritten);
+
+    missing.start();
+    missRead.await();
+    restaurantCellCache.getOrLoadCells("r3", 72, Collections.singleton(CELL), slowLoader("11"));
+    restaurantCellCache.flush();
+    loadWritten.countDown();
+    missing.join();
+
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void loadedCellIsWrittenBehind() {
+    restaurantCellCache.getOrLoadCells("r3", 72, Collections.singleton(CELL), slowLoader("11"));
+    restaurantCellCache.flush();
+    restaurantCellCache.invalidateNearCache();
+
+    assertEquals("11", restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL))
+        .get(CELL).get(0).getRestaurantId());
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      assertNull(jedis.get(RestaurantCellCache.lockKeyOf("r3", 72, CELL)));
+    }
+  }
+
+  @Test
+  void cellLockedByAnotherNodeIsReadOnceWritten() throws Exception {
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      jedis.set(RestaurantCellCache.lockKeyOf("r3", 72, CELL), "another-node");
+    }
+    Thread otherNode = new Thread(() -> {
+      sleep(200);
+      restaurantCellCache.putCells("r3", 72, loaded("12"));
+    });
+    otherNode.start();
+
+    Map<String, List<RestaurantEntity>> restaurantsByCell = restaurantCellCache.getOrLoadCells(
+        "r3", 72, Collections.singleton(CELL), slowLoader("11"));
+
+    otherNode.join();
+    assertEquals(0, loads.get());
+    assertEquals("12", restaurantsByCell.get(CELL).get(0).getRestaurantId());
+  }
+
+  @Test
+  void loadOutlivingItsLockIsNotWritten() throws Exception {
+    Function<Set<String>, Map<String, List<RestaurantEntity>>> stalledLoader = cells -> {
+      // Meanwhile the lock expired and another node took it over.
+      try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+        jedis.set(RestaurantCellCache.lockKeyOf("r3", 72, CELL), "another-node");
+      }
+      return loaded("11");
+    };
+
+    Map<String, List<RestaurantEntity>> restaurantsByCell = restaurantCellCache.getOrLoadCells(
+        "r3", 72, Collections.singleton(CELL), stalledLoader);
+
+    assertEquals("11", restaurantsByCell.get(CELL).get(0).getRestaurantId());
+    restaurantCellCache.flush();
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      assertNull(jedis.get(RestaurantCellCache.keyOf("r3", 72, CELL)));
+      assertEquals("another-node", jedis.get(RestaurantCellCache.lockKeyOf("r3", 72, CELL)));
+    }
+  }
+
+  @Test
+  void staleCellIsServedAndRefreshedOnceInBackground() throws Exception {
+    restaurantCellCache.putCells("r3", 72, loaded("12"));
+    restaurantCellCache.invalidateNearCache();
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      jedis.setex(SafeEncoder.encode(RestaurantCellCache.keyOf("r3", 72, CELL)), 3600,
+          cachedCellCodec.encode(new CachedCell(0, Collections.singletonList("12"))));
+    }
+
+    for (int i = 0; i < 3; i++) {
+      Map<String, List<RestaurantEntity>> restaurantsByCell = restaurantCellCache.getOrLoadCells(
+          "r3", 72, Collections.singleton(CELL), slowLoader("11"));
+      assertEquals("12", restaurantsByCell.get(CELL).get(0).getRestaurantId());
+    }
+
+    // Refreshed in the background meanwhile.
+    Map<String, List<RestaurantEntity>> restaurantsByCell = null;
+    for (int i = 0; i < 50; i++) {
+      restaurantsByCell = restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL));
+      if ("11".equals(restaurantsByCell.get(CELL).get(0).getRestaurantId())) {
+        break;
+      }
+      sleep(50);
+    }
+    assertEquals(1, loads.get());
+    assertEquals("11", restaurantsByCell.get(CELL).get(0).getRestaurantId());
+  }
+
+  @Test
+  void writtenCellIsServedFromNearCache() {
+    restaurantCellCache.putCells("r3", 72, loaded("11"));
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      jedis.flushAll();
+    }
+
+    Map<String, List<RestaurantEntity>> restaurantsByCell =
+        restaurantCellCache.getNearCells("r3", 72, Collections.singleton(CELL));
+
+    assertEquals("11", restaurantsByCell.get(CELL).get(0).getRestaurantId());
+  }
+
+  @Test
+  void writeOfAnotherNodeDropsNearCacheEntry() {
+    restaurantCellCache.putCells("r3", 72, loaded("11"));
+
+    // Until the subscription of this node is up.
+    for (int i = 0; i < 100 && !restaurantCellCache.getNearCells("r3", 72,
+        Collections.singleton(CELL)).isEmpty(); i++) {
+      try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+        jedis.publish(RestaurantCellCache.INVALIDATION_CHANNEL,
+            "another-node " + RestaurantCellCache.keyOf("r3", 72, CELL));
+      }
+      sleep(50);
+    }
+
+    assertTrue(restaurantCellCache.getNearCells("r3", 72, Collections.singleton(CELL))
+        .isEmpty());
+    assertEquals("11", restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL))
+        .get(CELL).get(0).getRestaurantId());
+  }
+
+  @Test
+  void restaurantBodiesAreStoredOnceAcrossEntries() {
+    restaurantCellCache.putCells("r3", 72, loaded("11"));
+    restaurantCellCache.putCells("r5", 73, loaded("11"));
+    restaurantCellCache.invalidateNearCache();
+
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      assertEquals("11", jedis.hget(RestaurantHashes.keyOf("11"), "restaurantId"));
+      jedis.hset(RestaurantHashes.keyOf("11"), "name", "A2B");
+    }
+
+    // Both entries see the changed body.
+    assertEquals("A2B", restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL))
+        .get(CELL).get(0).getName());
+    assertEquals("A2B", restaurantCellCache.getCells("r5", 73, Collections.singleton(CELL))
+        .get(CELL).get(0).getName());
+  }
+
+  @Test
+  void entryWithExpiredBodiesIsMiss() {
+    restaurantCellCache.putCells("r3", 72, loaded("11"));
+    restaurantCellCache.invalidateNearCache();
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      jedis.del(RestaurantHashes.keyOf("11"));
+    }
+
+    assertTrue(restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL)).isEmpty());
+  }
+
+  @Test
+  void changedRestaurantDropsEntriesOfItsCell() {
+    restaurantCellCache.putCells("r3", 72, loaded("11"));
+    restaurantCellCache.putCells("r5", 73, loaded("11"));
+    RestaurantEntity changed = restaurantInCell("11");
+    changed.setName("A2B");
+
+    restaurantCellCache.onRestaurantsChanged(Collections.singletonList(changed),
+        Collections.emptySet());
+
+    assertTrue(restaurantCellCache.getNearCells("r3", 72, Collections.singleton(CELL))
+        .isEmpty());
+    assertTrue(restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL)).isEmpty());
+    assertTrue(restaurantCellCache.getCells("r5", 73, Collections.singleton(CELL)).isEmpty());
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      assertEquals("A2B", jedis.hget(RestaurantHashes.keyOf("11"), "name"));
+      assertTrue(jedis.ttl(RestaurantHashes.keyOf("11")) > 0);
+      assertTrue(jedis.smembers(RestaurantCellCache.cellIndexKeyOf(CELL)).isEmpty());
+    }
+  }
+
+  @Test
+  void loadRacingRestaurantChangeIsNotWritten() {
+    Function<Set<String>, Map<String, List<RestaurantEntity>>> racingLoader = cells -> {
+      // Changed after the load read the restaurant.
+      restaurantCellCache.onRestaurantsChanged(Collections.singletonList(restaurantInCell("11")),
+          Collections.emptySet());
+      return loaded("11");
+    };
+
+    restaurantCellCache.getOrLoadCells("r3", 72, Collections.singleton(CELL), racingLoader);
+    restaurantCellCache.flush();
+
+    try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+      assertNull(jedis.get(RestaurantCellCache.keyOf("r3", 72, CELL)));
+    }
+  }
+
+  @Test
+  void deletedRestaurantTurnsEntriesIntoMisses() {
+    restaurantCellCache.putCells("r3", 72, loaded("11"));
+    restaurantCellCache.invalidateNearCache();
+
+    restaurantCellCache.onRestaurantsChanged(Collections.emptyList(),
+        Collections.singleton("11"));
+
+    assertTrue(restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL)).isEmpty());
+  }
+
+  // Pauses the thread once its first batch is closed, until released.
+  @Test
+  void movedRestaurantDropsEntriesOfItsPreviousCell() {
+    Map<String, List<RestaurantEntity>> restaurantsByCell = new HashMap<>();
+    restaurantsByCell.put(CELL, Collections.singletonList(restaurantInCell("11")));
+    restaurantCellCache.putCells("r3", 72, restaurantsByCell);
+    RestaurantEntity moved = restaurantInCell("11");
+    moved.setLatitude(20.0);
+    moved.setLongitude(30.0);
+
+    restaurantCellCache.onRestaurantsChanged(Collections.singletonList(moved),
+        Collections.emptySet());
+
+    assertTrue(restaurantCellCache.getNearCells("r3", 72, Collections.singleton(CELL))
+        .isEmpty());
+    assertTrue(restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL)).isEmpty());
+  }
+
+  @Test
+  void changeSeenWhileRedisIsDownIsAppliedOnRetry() {
+    Map<String, List<RestaurantEntity>> restaurantsByCell = new HashMap<>();
+    restaurantsByCell.put(CELL, Collections.singletonList(restaurantInCell("11")));
+    restaurantCellCache.putCells("r3", 72, restaurantsByCell);
+    RestaurantEntity moved = restaurantInCell("11");
+    moved.setLatitude(20.0);
+    moved.setLongitude(30.0);
+    doThrow(new CacheClientException("Redis is down")).doCallRealMethod()
+        .when(cacheClient).batch();
+
+    // Doesn't fail the change feed.
+    restaurantCellCache.onRestaurantsChanged(Collections.singletonList(moved),
+        Collections.emptySet());
+
+    assertTrue(restaurantCellCache.getNearCells("r3", 72, Collections.singleton(CELL))
+        .isEmpty());
+    assertEquals(1, restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL)).size());
+
+    restaurantCellCache.applyPendingChanges();
+
+    assertTrue(restaurantCellCache.getCells("r3", 72, Collections.singleton(CELL)).isEmpty());
+  }
+
+  @Test
+  void deletedRestaurantDropsNearCacheEntriesHoldingIt() {
+    // Listed in the cell, but located elsewhere.
+    restaurantCellCache.putCells("r3", 72, loaded("11"));
+
+    restaurantCellCache.onRestaurantsChanged(Collections.emptyList(),
+        Collections.singleton("11"));
+
+    assertTrue(restaurantCellCache.getNearCells("r3", 72, Collections.singleton(CELL))
+        .isEmpty());
+  }
+
+  @Test
+  void restaurantChangeOfAnotherNodeDropsNearCacheEntriesHoldingIt() {
+    restaurantCellCache.putCells("r3", 72, loaded("11"));
+
+    // Until the subscription of this node is up.
+    for (int i = 0; i < 100 && !restaurantCellCache.getNearCells("r3", 72,
+        Collections.singleton(CELL)).isEmpty(); i++) {
+      try (Jedis jedis = redisConfiguration.getJedisPool().getResource()) {
+        jedis.publish(RestaurantCellCache.INVALIDATION_CHANNEL,
+            "another-node " + RestaurantHashes.keyOf("11"));
+      }
+      sleep(50);
+    }
+
+    assertTrue(restaurantCellCache.getNearCells("r3", 72, Collections.singleton(CELL))
+        .isEmpty());
+  }
+
+  private void pauseAfterFirstBatch(Thread thread, CountDownLatch paused,
+      CountDownLatch released) {
+    doAnswer(invocation -> {
+      CacheClient.Batch batch = (CacheClient.Batch) invocation.callRealMethod();
+      if (Thread.currentThread() != thread || paused.getCount() == 0) {
+        return batch;
+      }
+      return Proxy.newProxyInstance(CacheClient.Batch.class.getClassLoader(),
+          new Class<?>[]{CacheClient.Batch.class}, (proxy, method, args) -> {
+            Object result;
+            try {
+              result = method.invoke(batch, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+            if (method.getName().equals("close")) {
+              paused.countDown();
+              released.await();
+            }
+            return result;
+          });
+    }).when(cacheClient).batch();
+  }
+
+  private Function<Set<String>, Map<String, List<RestaurantEntity>>> slowLoader(
+      String restaurantId) {
+    return cells -> {
+      loads.incrementAndGet();
+      sleep(300);
+      return loaded(restaurantId);
+    };
+  }
+
+  private static Map<String, List<RestaurantEntity>> loaded(String restaurantId) {
+    RestaurantEntity restaurantEntity = new RestaurantEntity();
+    restaurantEntity.setId(restaurantId);
+    restaurantEntity.setRestaurantId(restaurantId);
+    restaurantEntity.setLatitude(20.0);
+    restaurantEntity.setLongitude(30.0);
+    Map<String, List<RestaurantEntity>> restaurantsByCell = new HashMap<>();
+    restaurantsByCell.put(CELL, Collections.singletonList(restaurantEntity));
+    return restaurantsByCell;
+  }
+
+  private static RestaurantEntity restaurantInCell(String restaurantId) {
+    WGS84Point center = GeoHash.fromGeohashString(CELL).getBoundingBoxCenterPoint();
+    RestaurantEntity restaurantEntity = new RestaurantEntity();
+    restaurantEntity.setId(restaurantId);
+    restaurantEntity.setRestaurantId(restaurantId);
+    restaurantEntity.setLatitude(center.getLatitude());
+    restaurantEntity.setLongitude(center.getLongitude());
+    return restaurantEntity;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
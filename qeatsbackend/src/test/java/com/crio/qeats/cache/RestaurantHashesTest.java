@@ -0,0 +1,43 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+// The embedded redis used by the other tests predates GEO commands, so the geo store is only
+// covered through the restaurant hash encoding it shares with the cell cache.
+class RestaurantHashesTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+
+  @Test
+  void restaurantHashRoundTrips() throws IOException {
+    for (RestaurantEntity restaurantEntity : listOfRestaurants()) {
+      Map<String, String> hash = RestaurantHashes.toHash(restaurantEntity);
+
+      assertEquals(restaurantEntity, RestaurantHashes.fromHash(hash));
+    }
+  }
+
+  private List<RestaurantEntity> listOfRestaurants() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+
+    return new ObjectMapper().readValue(fixture, new TypeReference<List<RestaurantEntity>>() {
+    });
+  }
+}
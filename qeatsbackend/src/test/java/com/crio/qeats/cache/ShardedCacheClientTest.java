@@ -0,0 +1,177 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.configs.RedisCircuitBreaker;
+import com.crio.qeats.configs.RedisConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+import redis.embedded.RedisServer;
+
+class ShardedCacheClientTest {
+
+  private static final int[] PORTS = {6392, 6393, 6394};
+  private static final String SHARDS = "localhost:6392,localhost:6393,localhost:6394";
+
+  private final List<RedisServer> redisServers = new ArrayList<>();
+  private RedisCircuitBreaker redisCircuitBreaker;
+  private RedisConfiguration redisConfiguration;
+  private ShardedCacheClient cacheClient;
+
+  @BeforeEach
+  void setup() throws Exception {
+    for (int port : PORTS) {
+      RedisServer redisServer = new RedisServer(port);
+      redisServer.start();
+      redisServers.add(redisServer);
+    }
+    redisCircuitBreaker =
+        new RedisCircuitBreaker(new SimpleMeterRegistry(), 20, 5, 0.5, 250, 5000, 3);
+    redisConfiguration = new RedisConfiguration();
+    redisConfiguration.setRedisPort(PORTS[0]);
+    redisConfiguration.setRedisCircuitBreaker(redisCircuitBreaker);
+    redisConfiguration.initCache();
+    cacheClient = newClient(SHARDS);
+  }
+
+  @AfterEach
+  void teardown() {
+    cacheClient.stop();
+    redisConfiguration.getJedisPool().destroy();
+    redisServers.forEach(RedisServer::stop);
+  }
+
+  @Test
+  void keysOfCellShareShardAndCellsSpreadOverAll() {
+    Set<String> nodes = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      String cell = "tsq4d" + i;
+      String node = cacheClient.nodeOf(RestaurantCellCache.keyOf("r3", 72, cell));
+      assertEquals(node, cacheClient.nodeOf(RestaurantCellCache.keyOf("r5", 73, cell)));
+      assertEquals(node, cacheClient.nodeOf(RestaurantCellCache.lockKeyOf("r3", 72, cell)));
+      nodes.add(node);
+    }
+    assertEquals(3, nodes.size());
+  }
+
+  @Test
+  void mgetAcrossShardsKeepsOrderOfKeys() {
+    List<String> keys = new ArrayList<>();
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      for (int i = 0; i < 30; i++) {
+        keys.add("closeby:r3:s72:{cell" + i + "}");
+        if (i % 3 != 0) {
+          batch.setex(keys.get(i), 3600, SafeEncoder.encode("value" + i));
+        }
+      }
+      batch.execute();
+    }
+
+    List<byte[]> values;
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<List<byte[]>> reply = batch.mget(keys);
+      batch.execute();
+      values = reply.get();
+    }
+
+    for (int i = 0; i < keys.size(); i++) {
+      if (i % 3 == 0) {
+        assertNull(values.get(i));
+      } else {
+        assertArrayEquals(SafeEncoder.encode("value" + i), values.get(i));
+        // Written to its own node only.
+        String node = cacheClient.nodeOf(keys.get(i));
+        for (int port : PORTS) {
+          try (Jedis jedis = new Jedis("localhost", port)) {
+            assertEquals(node.equals("localhost:" + port), jedis.exists(keys.get(i)));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void scriptRunsOnKeysOfOneHashTagOnly() {
+    String script = "redis.call('SET', KEYS[1], ARGV[1]) "
+        + "redis.call('SET', KEYS[2], ARGV[1]) return 1";
+    try (CacheClient.Batch batch = cacheClient.batch()) {
+      Supplier<Long> reply = batch.eval(script,
+          Arrays.asList(RestaurantCellCache.lockKeyOf("r3", 72, "tsq4d2"),
+              RestaurantCellCache.keyOf("r3", 72, "tsq4d2")),
+          Collections.singletonList(SafeEncoder.encode("11")));
+      batch.execute();
+      assertEquals(1L, (long) reply.get());
+
+      assertThrows(IllegalArgumentException.class, () -> batch.eval(script,
+          Arrays.asList(RestaurantCellCache.keyOf("r3", 72, "tsq4d2"),
+              RestaurantCellCache.keyOf("r3", 72, "tsq4d3")),
+          Collections.singletonList(SafeEncoder.encode("11"))));
+    }
+  }
+
+  @Test
+  void addedShardOnlyTakesOverKeys() {
+    // Never connected to, placing keys doesn't need the nodes.
+    ShardedCacheClient grownCacheClient = newClient(SHARDS + ",localhost:6395");
+    try {
+      int moved = 0;
+      for (int i = 0; i < 1000; i++) {
+        String key = "restaurant:" + i;
+        String node = grownCacheClient.nodeOf(key);
+        if (!node.equals(cacheClient.nodeOf(key))) {
+          assertEquals("localhost:6395", node);
+          moved++;
+        }
+      }
+      // A quarter of the keys on average.
+      assertTrue(moved > 150 && moved < 350, "Moved " + moved + " keys");
+    } finally {
+      grownCacheClient.stop();
+    }
+  }
+
+  @Test
+  void destroyedCacheIsNotAvailable() {
+    assertTrue(cacheClient.isAvailable());
+
+    redisConfiguration.destroyCache();
+
+    assertFalse(cacheClient.isAvailable());
+    redisConfiguration.initCache();
+  }
+
+  @Test
+  void hashTagIsFirstNonEmptyBraces() {
+    assertEquals("tsq4d2", ShardedCacheClient.hashTagOf("closeby:r3:s72:{tsq4d2}"));
+    assertEquals("a", ShardedCacheClient.hashTagOf("x{a}{b}"));
+    assertEquals("x{}{b}", ShardedCacheClient.hashTagOf("x{}{b}"));
+    assertEquals("restaurant:11", ShardedCacheClient.hashTagOf("restaurant:11"));
+  }
+
+  private ShardedCacheClient newClient(String shards) {
+    return new ShardedCacheClient(redisConfiguration, redisCircuitBreaker, shards);
+  }
+}
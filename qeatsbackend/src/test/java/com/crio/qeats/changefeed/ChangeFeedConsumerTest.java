@@ -0,0 +1,137 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.changefeed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.models.RestaurantEntity;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(classes = {QEatsApplication.class})
+@DirtiesContext
+@ActiveProfiles("test")
+class ChangeFeedConsumerTest {
+
+  @Autowired
+  private MongoTemplate mongoTemplate;
+
+  private ResumeTokenStore resumeTokenStore;
+  private List<String> changedIds;
+
+  @BeforeEach
+  void setup() throws IOException {
+    resumeTokenStore =
+        new ResumeTokenStore(Files.createTempDirectory("changefeed").toString());
+    changedIds = new ArrayList<>();
+  }
+
+  @AfterEach
+  void teardown() {
+    mongoTemplate.dropCollection(ChangeFeedConsumer.RESTAURANTS);
+  }
+
+  @Test
+  void standaloneServerIsPolledForUpdatedRestaurants() throws IOException {
+    ChangeFeedConsumer changeFeedConsumer = newConsumer();
+    changeFeedConsumer.poll();
+
+    RestaurantEntity restaurantEntity = save("10");
+    changeFeedConsumer.poll();
+    changeFeedConsumer.poll();
+
+    assertTrue(changeFeedConsumer.isPolling());
+    assertNotNull(restaurantEntity.getUpdatedAt());
+    assertEquals(Collections.singletonList("10"), changedIds);
+  }
+
+  @Test
+  void restartedConsumerOnlyReplaysMissedChanges() throws IOException {
+    ChangeFeedConsumer changeFeedConsumer = newConsumer();
+    changeFeedConsumer.poll();
+    save("10");
+    changeFeedConsumer.poll();
+
+    // Written while the node was down.
+    save("11");
+    newConsumer().poll();
+
+    assertEquals(Arrays.asList("10", "11"), changedIds);
+    assertTrue(resumeTokenStore.load(ChangeFeedConsumer.RESTAURANTS + ".poll").isPresent());
+  }
+
+  @Test
+  void failedBatchIsRetriedOnNextPoll() throws IOException {
+    List<RestaurantChangeListener> listeners = new ArrayList<>();
+    listeners.add(new RestaurantChangeListener() {
+      private boolean failed;
+
+      @Override
+      public void onRestaurantsChanged(List<RestaurantEntity> changed, Set<String> deletedIds) {
+        if (!failed) {
+          failed = true;
+          throw new IllegalStateException("Redis is down");
+        }
+      }
+    });
+    listeners.add(recordingListener());
+    ChangeFeedConsumer changeFeedConsumer =
+        new ChangeFeedConsumer(mongoTemplate, listeners, resumeTokenStore, true, 500, 1000);
+    changeFeedConsumer.poll();
+
+    save("10");
+    changeFeedConsumer.poll();
+    changeFeedConsumer.poll();
+
+    assertEquals(Collections.singletonList("10"), changedIds);
+  }
+
+  private ChangeFeedConsumer newConsumer() {
+    return new ChangeFeedConsumer(mongoTemplate,
+        Collections.singletonList(recordingListener()), resumeTokenStore, true, 500, 1000);
+  }
+
+  private RestaurantChangeListener recordingListener() {
+    return new RestaurantChangeListener() {
+      @Override
+      public void onRestaurantsChanged(List<RestaurantEntity> changed, Set<String> deletedIds) {
+        for (RestaurantEntity restaurantEntity : changed) {
+          changedIds.add(restaurantEntity.getRestaurantId());
+        }
+      }
+    };
+  }
+
+  private RestaurantEntity save(String restaurantId) {
+    RestaurantEntity restaurantEntity = new RestaurantEntity();
+    restaurantEntity.setRestaurantId(restaurantId);
+    restaurantEntity.setName("A2B");
+    restaurantEntity.setLatitude(20.0);
+    restaurantEntity.setLongitude(30.0);
+    restaurantEntity.setOpensAt("18:00");
+    restaurantEntity.setClosesAt("23:00");
+    mongoTemplate.save(restaurantEntity);
+    return restaurantEntity;
+  }
+}
@@ -0,0 +1,131 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RedisCircuitBreakerTest {
+
+  private RedisCircuitBreaker breaker;
+
+  @BeforeEach
+  void setup() {
+    // Opens once half of the last 10 calls (at least 4) failed, for 1 second, with 2 probes.
+    breaker = new RedisCircuitBreaker(new SimpleMeterRegistry(), 10, 4, 0.5, 100, 1000, 2);
+  }
+
+  @Test
+  void opensOnceEnoughCallsFail() {
+    // Too few calls yet.
+    breaker.record(true, 0);
+    breaker.record(true, 0);
+    breaker.record(true, 0);
+    assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+    setup();
+
+    breaker.record(false, 0);
+    breaker.record(false, 0);
+    breaker.record(false, 0);
+    breaker.record(true, 0);
+    breaker.record(true, 0);
+    assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+
+    breaker.record(true, 0);
+    assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest(0));
+  }
+
+  @Test
+  void onlyTheLastCallsAreCounted() {
+    for (int i = 0; i < 4; i++) {
+      breaker.record(false, 0);
+      breaker.record(false, 0);
+      breaker.record(true, 0);
+    }
+    assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  void slowCallsOpenTheBreaker() {
+    for (int i = 0; i < 4; i++) {
+      breaker.recordSuccess(500);
+    }
+    assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  @Test
+  void probesCloseTheBreakerAfterTheOpenTime() {
+    open(0);
+    assertFalse(breaker.allowRequest(999));
+
+    assertTrue(breaker.allowRequest(1000));
+    assertTrue(breaker.allowRequest(1000));
+    // Only the probes go through while half open.
+    assertFalse(breaker.allowRequest(1000));
+    assertEquals(RedisCircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+    breaker.record(false, 1010);
+    breaker.record(false, 1010);
+    assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest(1010));
+
+    // Starts over with an empty window.
+    breaker.record(true, 1020);
+    breaker.record(true, 1020);
+    assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  void availabilityChecksDoNotUseUpProbes() {
+    open(0);
+    assertFalse(breaker.isAvailable(999));
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(breaker.isAvailable(1000));
+    }
+    assertTrue(breaker.allowRequest(1000));
+    assertTrue(breaker.isAvailable(1000));
+    assertTrue(breaker.allowRequest(1000));
+    // Every probe is out.
+    assertFalse(breaker.isAvailable(1000));
+  }
+
+  @Test
+  void failedProbeReopensTheBreaker() {
+    open(0);
+    assertTrue(breaker.allowRequest(1000));
+    breaker.record(true, 1010);
+
+    assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest(1500));
+    assertTrue(breaker.allowRequest(2010));
+  }
+
+  @Test
+  void probesThatNeverReportBackAreGrantedAgain() {
+    open(0);
+    assertTrue(breaker.allowRequest(1000));
+    assertTrue(breaker.allowRequest(1000));
+    assertFalse(breaker.allowRequest(1500));
+
+    assertTrue(breaker.allowRequest(2000));
+  }
+
+  private void open(long nowMillis) {
+    for (int i = 0; i < 4; i++) {
+      breaker.record(true, nowMillis);
+    }
+    assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+  }
+}
@@ -0,0 +1,48 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.utils.OpeningHours;
+import java.time.LocalTime;
+import org.junit.jupiter.api.Test;
+
+class OpenRestaurantsBySlotTest {
+
+  @Test
+  void slotsFollowTheTimeOfDay() {
+    assertEquals(0, OpenRestaurantsBySlot.slotOf(LocalTime.of(0, 0)));
+    assertEquals(1, OpenRestaurantsBySlot.slotOf(LocalTime.of(0, 15)));
+    assertEquals(OpenRestaurantsBySlot.SLOTS_PER_DAY - 1,
+        OpenRestaurantsBySlot.slotOf(LocalTime.of(23, 59, 59)));
+  }
+
+  @Test
+  void restaurantIsOpenInEverySlotOverlappingItsHours() {
+    OpenRestaurantsBySlot openSlots = OpenRestaurantsBySlot.of(new OpeningHours[] {
+        OpeningHours.of("10:10", "12:00"),
+        OpeningHours.of("22:00", "01:20"),
+        OpeningHours.of(null, "12:00")});
+
+    assertFalse(openSlots.mayBeOpen(0, LocalTime.of(9, 59)));
+    assertTrue(openSlots.mayBeOpen(0, LocalTime.of(10, 0)));
+    assertTrue(openSlots.mayBeOpen(0, LocalTime.of(11, 59)));
+    assertFalse(openSlots.mayBeOpen(0, LocalTime.of(12, 0)));
+
+    assertFalse(openSlots.mayBeOpen(1, LocalTime.of(21, 59)));
+    assertTrue(openSlots.mayBeOpen(1, LocalTime.of(23, 30)));
+    assertTrue(openSlots.mayBeOpen(1, LocalTime.of(1, 25)));
+    assertFalse(openSlots.mayBeOpen(1, LocalTime.of(1, 30)));
+
+    // Restaurants with invalid hours are never open.
+    assertEquals(-1, openSlots.openDuringSlotOf(LocalTime.of(11, 0)).nextSetBit(1));
+  }
+}
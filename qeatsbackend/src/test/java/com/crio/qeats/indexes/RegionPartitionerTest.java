@@ -0,0 +1,55 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class RegionPartitionerTest {
+
+  @Test
+  void emptyConfigurationServesEveryRegion() {
+    RegionPartitioner regionPartitioner = new RegionPartitioner(" ");
+
+    assertTrue(regionPartitioner.servesAll());
+    assertTrue(regionPartitioner.servesCircle(12.9, 77.6, 5000.0));
+  }
+
+  @Test
+  void servesRegionsUnderConfiguredPrefixes() {
+    RegionPartitioner regionPartitioner = new RegionPartitioner("TDR, se");
+
+    assertEquals(Arrays.asList("tdr", "se"), regionPartitioner.getServedPrefixes());
+    assertEquals("set", regionPartitioner.regionOf(20.0, 30.0));
+    assertTrue(regionPartitioner.serves(20.0, 30.0));
+    assertTrue(regionPartitioner.serves(12.9, 77.6));
+    assertFalse(regionPartitioner.serves(28.6, 77.2));
+    assertTrue(regionPartitioner.servesCircle(12.9, 77.6, 5.0));
+    // Region tdr is about 156km wide, a large circle reaches into unserved regions.
+    assertFalse(regionPartitioner.servesCircle(12.9, 77.6, 200.0));
+  }
+
+  @Test
+  void boundsOfPrefixContainItsRegion() {
+    double[] bounds = RegionPartitioner.boundsOf("s");
+
+    assertArrayEquals(new double[] {0.0, 45.0, 0.0, 45.0}, bounds);
+  }
+
+  @Test
+  void invalidPrefixesAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> new RegionPartitioner("tdra"));
+    assertThrows(IllegalArgumentException.class, () -> new RegionPartitioner("ta"));
+  }
+}
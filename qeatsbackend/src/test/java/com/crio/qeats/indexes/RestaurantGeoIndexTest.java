@@ -0,0 +1,261 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.repositories.RestaurantRepository;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RestaurantGeoIndexTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+  private static final LocalTime OPEN_TIME = LocalTime.of(18, 1);
+  private static final LocalTime CLOSED_TIME = LocalTime.of(3, 0);
+
+  private RestaurantRepository restaurantRepository;
+
+  @BeforeEach
+  void setup() throws IOException {
+    restaurantRepository = mock(RestaurantRepository.class);
+    when(restaurantRepository.findAll()).thenReturn(listOfRestaurants());
+  }
+
+  @Test
+  void indexIsNotReadyBeforeFirstRefresh() {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, "");
+
+    assertFalse(restaurantGeoIndex.isReady());
+    assertTrue(restaurantGeoIndex.findCandidatesWithin(20.0, 30.0, 3.0, OPEN_TIME).isEmpty());
+  }
+
+  @Test
+  void candidatesIncludeEveryRestaurantWithinRadius() {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, "");
+    restaurantGeoIndex.refresh();
+
+    Set<String> candidateIds = restaurantGeoIndex.findCandidatesWithin(20.0, 30.0, 3.0, OPEN_TIME).stream()
+        .map(RestaurantEntity::getRestaurantId)
+        .collect(Collectors.toSet());
+
+    assertTrue(restaurantGeoIndex.isReady());
+    assertTrue(candidateIds.containsAll(Arrays.asList("11", "12")));
+    // Just outside the radius, in the same cell as 11.
+    assertFalse(candidateIds.contains("10"));
+    assertFalse(candidateIds.contains("13"));
+    assertFalse(candidateIds.contains("14"));
+    verify(restaurantRepository, times(1)).findAll();
+  }
+
+  @Test
+  void candidatesSkipCellsWithinMinDistance() {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, "");
+    restaurantGeoIndex.refresh();
+
+    // 12 is at the center, 11 about 2km away.
+    Set<String> candidateIds = restaurantGeoIndex.findCandidatesWithin(20.015, 30.015, 2.0,
+        5.0, OPEN_TIME).stream()
+        .map(RestaurantEntity::getRestaurantId)
+        .collect(Collectors.toSet());
+
+    assertFalse(candidateIds.contains("12"));
+    assertTrue(candidateIds.contains("11"));
+  }
+
+  @Test
+  void disabledIndexNeverLoads() {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), false, "");
+    restaurantGeoIndex.refresh();
+
+    assertFalse(restaurantGeoIndex.isReady());
+    verify(restaurantRepository, times(0)).findAll();
+  }
+
+  @Test
+  void farAwayQueryHasNoCandidates() {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, "");
+    restaurantGeoIndex.refresh();
+
+    assertEquals(0, restaurantGeoIndex.findCandidatesWithin(-20.0, -30.0, 5.0, OPEN_TIME).size());
+  }
+
+  @Test
+  void closedRestaurantsAreNotCandidates() {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, "");
+    restaurantGeoIndex.refresh();
+
+    assertTrue(restaurantGeoIndex.findCandidatesWithin(20.0, 30.0, 3.0, CLOSED_TIME).isEmpty());
+  }
+
+  @Test
+  void retainMayBeOpenDropsRestaurantsClosedInSlot() throws IOException {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, "");
+    List<RestaurantEntity> restaurantEntities = listOfRestaurants();
+
+    // Nothing is dropped until the index is loaded.
+    assertEquals(restaurantEntities.size(),
+        restaurantGeoIndex.retainMayBeOpen(restaurantEntities, CLOSED_TIME).size());
+
+    restaurantGeoIndex.refresh();
+    RestaurantEntity unindexed = new RestaurantEntity();
+    unindexed.setId("unindexed");
+    List<RestaurantEntity> withUnindexed = new ArrayList<>(restaurantEntities);
+    withUnindexed.add(unindexed);
+
+    assertEquals(restaurantEntities.size(),
+        restaurantGeoIndex.retainMayBeOpen(restaurantEntities, OPEN_TIME).size());
+    assertEquals(Arrays.asList(unindexed),
+        restaurantGeoIndex.retainMayBeOpen(withUnindexed, CLOSED_TIME));
+  }
+
+  @Test
+  void nearestOpenRestaurantsAreSortedByDistance() {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, "");
+    restaurantGeoIndex.refresh();
+
+    List<String> nearest = restaurantGeoIndex.findNearestOpen(20.0, 30.0, 3, 50.0, OPEN_TIME)
+        .stream()
+        .map(RestaurantEntity::getRestaurantId)
+        .collect(Collectors.toList());
+
+    assertEquals(Arrays.asList("12", "11", "10"), nearest);
+    assertTrue(restaurantGeoIndex.findNearestOpen(20.0, 30.0, 3, 50.0, CLOSED_TIME).isEmpty());
+  }
+
+  @Test
+  void partitionedIndexOnlyLoadsServedRegions() throws IOException {
+    // Box queries may return restaurants on the edge of neighbouring regions.
+    when(restaurantRepository.findRestaurantsInBox(any(), any(), any(), any()))
+        .thenReturn(listOfRestaurants());
+    RestaurantGeoIndex servingIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner("se"), true, "");
+    RestaurantGeoIndex otherIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner("tdr"), true, "");
+    servingIndex.refresh();
+    otherIndex.refresh();
+
+    assertEquals(3, servingIndex.findNearestOpen(20.0, 30.0, 3, 50.0, OPEN_TIME).size());
+    assertTrue(otherIndex.findNearestOpen(20.0, 30.0, 3, 50.0, OPEN_TIME).isEmpty());
+    verify(restaurantRepository, times(0)).findAll();
+  }
+
+  @Test
+  void changedRestaurantsAreAppliedWithoutReloading() throws IOException {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, "");
+    restaurantGeoIndex.refresh();
+    RestaurantEntity moved = listOfRestaurants().get(3);
+    moved.setLatitude(20.001);
+    moved.setLongitude(30.001);
+
+    restaurantGeoIndex.onRestaurantsChanged(Arrays.asList(moved),
+        Collections.singleton("11"));
+
+    List<String> nearest = restaurantGeoIndex.findNearestOpen(20.0, 30.0, 3, 50.0, OPEN_TIME)
+        .stream()
+        .map(RestaurantEntity::getRestaurantId)
+        .collect(Collectors.toList());
+    assertEquals(Arrays.asList("13", "12", "10"), nearest);
+    Set<String> candidateIds = restaurantGeoIndex.findCandidatesWithin(20.0, 30.0, 3.0,
+        OPEN_TIME).stream()
+        .map(RestaurantEntity::getRestaurantId)
+        .collect(Collectors.toSet());
+    assertTrue(candidateIds.contains("13"));
+    assertFalse(candidateIds.contains("11"));
+    verify(restaurantRepository, times(1)).findAll();
+  }
+
+  @Test
+  void changedRestaurantsAreFoldedInOnRefresh() throws IOException {
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, "");
+    restaurantGeoIndex.refresh();
+    List<RestaurantEntity> restaurantEntities = listOfRestaurants();
+    RestaurantEntity moved = restaurantEntities.get(3);
+    moved.setLatitude(20.001);
+    moved.setLongitude(30.001);
+    restaurantGeoIndex.onRestaurantsChanged(Arrays.asList(moved), Collections.emptySet());
+    List<RestaurantEntity> beforeRefresh =
+        restaurantGeoIndex.findNearestOpen(20.0, 30.0, 3, 50.0, OPEN_TIME);
+
+    when(restaurantRepository.findAll()).thenReturn(restaurantEntities);
+    restaurantGeoIndex.refresh();
+
+    assertEquals(beforeRefresh, restaurantGeoIndex.findNearestOpen(20.0, 30.0, 3, 50.0,
+        OPEN_TIME));
+    assertEquals("13", beforeRefresh.get(0).getRestaurantId());
+  }
+
+  @Test
+  void restartedIndexIsLoadedFromSnapshotFile() throws IOException {
+    String snapshotFile =
+        Files.createTempDirectory("index").resolve("restaurants.snapshot").toString();
+    RestaurantGeoIndex restaurantGeoIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, snapshotFile);
+    restaurantGeoIndex.refresh();
+
+    RestaurantGeoIndex restartedIndex = new RestaurantGeoIndex(restaurantRepository,
+        new RegionPartitioner(""), true, snapshotFile);
+    restartedIndex.loadSnapshotFile();
+
+    assertTrue(restartedIndex.isReady());
+    assertEquals(restaurantGeoIndex.findNearestOpen(20.0, 30.0, 3, 50.0, OPEN_TIME),
+        restartedIndex.findNearestOpen(20.0, 30.0, 3, 50.0, OPEN_TIME));
+    verify(restaurantRepository, times(1)).findAll();
+
+    RestaurantEntity moved = listOfRestaurants().get(3);
+    moved.setLatitude(20.001);
+    moved.setLongitude(30.001);
+    restartedIndex.onRestaurantsChanged(Arrays.asList(moved), Collections.singleton("11"));
+
+    List<String> nearest = restartedIndex.findNearestOpen(20.0, 30.0, 3, 50.0, OPEN_TIME)
+        .stream()
+        .map(RestaurantEntity::getRestaurantId)
+        .collect(Collectors.toList());
+    assertEquals(Arrays.asList("13", "12", "10"), nearest);
+    assertEquals(1, restartedIndex.retainMayBeOpen(listOfRestaurants().subList(3, 4), OPEN_TIME)
+        .size());
+  }
+
+  private List<RestaurantEntity> listOfRestaurants() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+
+    return new ObjectMapper().readValue(fixture, new TypeReference<List<RestaurantEntity>>() {
+    });
+  }
+}
@@ -0,0 +1,92 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.crio.qeats.utils.GeoUtils;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class RestaurantRTreeTest {
+
+  private static final int POINTS = 5000;
+
+  private final Random random = new Random(42);
+
+  @Test
+  void nearestMatchesBruteForce() {
+    double[] latitudes = new double[POINTS];
+    double[] longitudes = new double[POINTS];
+    for (int i = 0; i < POINTS; i++) {
+      // Half in a city sized area, half spread over the globe including the antimeridian.
+      if (i % 2 == 0) {
+        latitudes[i] = 12.9 + random.nextDouble() * 0.2;
+        longitudes[i] = 77.5 + random.nextDouble() * 0.2;
+      } else {
+        latitudes[i] = -89 + random.nextDouble() * 178;
+        longitudes[i] = -180 + random.nextDouble() * 360;
+      }
+    }
+    RestaurantRTree tree = RestaurantRTree.build(latitudes, longitudes);
+    IntPredicate even = ordinal -> ordinal % 2 == 0;
+
+    double[][] queries = {{13.0, 77.6}, {0, 179.99}, {-45, -179.9}, {88, 10}, {13.2, 77.4}};
+    for (double[] query : queries) {
+      for (int k : new int[] {1, 10, 100}) {
+        assertArrayEquals(bruteForceNearest(latitudes, longitudes, query, k, ordinal -> true),
+            tree.nearest(query[0], query[1], k, ordinal -> true));
+        assertArrayEquals(bruteForceNearest(latitudes, longitudes, query, k, even),
+            tree.nearest(query[0], query[1], k, even));
+      }
+    }
+  }
+
+  @Test
+  void nearestStaysWithinMaxDistance() {
+    double[] latitudes = new double[POINTS];
+    double[] longitudes = new double[POINTS];
+    for (int i = 0; i < POINTS; i++) {
+      latitudes[i] = 12.9 + random.nextDouble() * 0.4;
+      longitudes[i] = 77.5 + random.nextDouble() * 0.4;
+    }
+    RestaurantRTree tree = RestaurantRTree.build(latitudes, longitudes);
+    double[] query = {13.0, 77.6};
+    IntPredicate within = ordinal -> GeoUtils.findDistanceInKm(query[0], query[1],
+        latitudes[ordinal], longitudes[ordinal]) <= 2.0;
+
+    assertArrayEquals(bruteForceNearest(latitudes, longitudes, query, POINTS, within),
+        tree.nearest(query[0], query[1], POINTS, 2.0, ordinal -> true));
+    assertEquals(0, tree.nearest(-45, -170, 10, 2.0, ordinal -> true).length);
+  }
+
+  @Test
+  void emptyAndTinyTrees() {
+    RestaurantRTree empty = RestaurantRTree.build(new double[0], new double[0]);
+    assertEquals(0, empty.nearest(0, 0, 5, ordinal -> true).length);
+
+    RestaurantRTree single = RestaurantRTree.build(new double[] {1}, new double[] {1});
+    assertArrayEquals(new int[] {0}, single.nearest(0, 0, 5, ordinal -> true));
+  }
+
+  private static int[] bruteForceNearest(double[] latitudes, double[] longitudes,
+      double[] query, int k, IntPredicate accept) {
+    return IntStream.range(0, latitudes.length)
+        .filter(accept)
+        .boxed()
+        .sorted(Comparator.comparingDouble(i -> GeoUtils.findDistanceInKm(query[0], query[1],
+            latitudes[i], longitudes[i])))
+        .limit(k)
+        .mapToInt(Integer::intValue)
+        .toArray();
+  }
+}
@@ -0,0 +1,73 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.indexes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.OpeningHours;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RestaurantSnapshotFileTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+
+  @Test
+  void readsBackWhatWasWritten() throws IOException {
+    List<RestaurantEntity> restaurantEntities = listOfRestaurants();
+    RestaurantEntity unnamed = new RestaurantEntity();
+    unnamed.setId("15");
+    unnamed.setLatitude(20.1);
+    unnamed.setLongitude(30.1);
+    unnamed.setAttributes(new ArrayList<>());
+    restaurantEntities.add(unnamed);
+    RestaurantEntity unlocated = new RestaurantEntity();
+    unlocated.setId("16");
+    restaurantEntities.add(unlocated);
+    Path file = Files.createTempDirectory("snapshot").resolve("restaurants.snapshot");
+
+    assertEquals(6, RestaurantSnapshotFile.write(file, restaurantEntities));
+    RestaurantSnapshotFile snapshotFile = RestaurantSnapshotFile.map(file);
+
+    assertEquals(6, snapshotFile.size());
+    for (int ordinal = 0; ordinal < 5; ordinal++) {
+      assertEquals(restaurantEntities.get(ordinal), snapshotFile.restaurantAt(ordinal));
+      assertEquals(restaurantEntities.get(ordinal).getId(), snapshotFile.idOf(ordinal));
+    }
+    assertEquals(OpeningHours.of("18:00", "23:00"), snapshotFile.openingHoursOf(0));
+    assertEquals(unnamed, snapshotFile.restaurantAt(5));
+    assertNull(snapshotFile.restaurantAt(5).getName());
+  }
+
+  @Test
+  void otherFilesAreRejected() throws IOException {
+    Path file = Files.createTempFile("restaurants", ".snapshot");
+    Files.write(file, "not a snapshot".getBytes(StandardCharsets.UTF_8));
+
+    assertThrows(IOException.class, () -> RestaurantSnapshotFile.map(file));
+  }
+
+  private List<RestaurantEntity> listOfRestaurants() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+
+    return new ObjectMapper().readValue(fixture, new TypeReference<List<RestaurantEntity>>() {
+    });
+  }
+}
@@ -2,12 +2,15 @@ package com.crio.qeats.repositoryservices;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ch.hsr.geohash.GeoHash;
 import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.cache.RestaurantCellCache;
 import com.crio.qeats.configs.RedisConfiguration;
 import com.crio.qeats.dto.Restaurant;
 import com.crio.qeats.models.RestaurantEntity;
@@ -18,6 +21,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.time.LocalTime;
 import java.util.List;
+import java.util.Optional;
 import javax.inject.Provider;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -47,6 +51,8 @@ class RestaurantRepositoryServiceCacheTest {
   @Autowired
   private RedisConfiguration redisConfiguration;
   @Autowired
+  private RestaurantCellCache restaurantCellCache;
+  @Autowired
   private ObjectMapper objectMapper;
   @Autowired
   private Provider<ModelMapper> modelMapperProvider;
@@ -59,8 +65,14 @@ class RestaurantRepositoryServiceCacheTest {
   @MockBean
   private RestaurantRepository mockRestaurantRepository;
 
+  @BeforeEach
+  void setupCache() {
+    redisConfiguration.initCache();
+  }
+
   @AfterEach
   void teardown() {
+    restaurantCellCache.flush();
     redisConfiguration.destroyCache();
   }
 
@@ -70,7 +82,8 @@ class RestaurantRepositoryServiceCacheTest {
     assertNotNull(mongoTemplate);
     assertNotNull(restaurantRepositoryService);
 
-    when(mockRestaurantRepository.findAll()).thenReturn(listOfRestaurants());
+    when(mockRestaurantRepository.findRestaurantsCloseBy(any(), any(), any()))
+        .thenReturn(Optional.of(listOfRestaurants()));
 
     Jedis jedis = redisConfiguration.getJedisPool().getResource();
 
@@ -79,15 +92,59 @@ class RestaurantRepositoryServiceCacheTest {
         .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
     allRestaurantsCloseBy = restaurantRepositoryService
         .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
-    GeoHash geoHash = GeoHash.withCharacterPrecision(20.0, 30.0, 7);
+    restaurantCellCache.flush();
+    GeoHash geoHash = GeoHash.withCharacterPrecision(20.0, 30.0, 6);
 
-    verify(mockRestaurantRepository, times(1)).findAll();
-    assertNotNull(jedis.get(geoHash.toBase32()));
+    verify(mockRestaurantRepository, times(1)).findRestaurantsCloseBy(any(), any(), any());
+    assertNotNull(jedis.get("closeby:r3:s72:{" + geoHash.toBase32() + "}"));
     assertEquals(2, allRestaurantsCloseBy.size());
     assertEquals("11", allRestaurantsCloseBy.get(0).getRestaurantId());
     assertEquals("12", allRestaurantsCloseBy.get(1).getRestaurantId());
   }
 
+  @Test
+  void cacheEntriesAreSeparatedByRadiusClassAndSlot() throws IOException {
+    when(mockRestaurantRepository.findRestaurantsCloseBy(any(), any(), any()))
+        .thenReturn(Optional.of(listOfRestaurants()));
+
+    restaurantRepositoryService.findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+    // Same slot and radius class from a neighbouring user, served from the cache.
+    restaurantRepositoryService.findAllRestaurantsCloseBy(20.001, 30.001, LocalTime.of(18, 14),
+        2.5);
+    verify(mockRestaurantRepository, times(1)).findRestaurantsCloseBy(any(), any(), any());
+
+    // Peak radius class.
+    List<Restaurant> restaurantsInLargerRadius = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 5.0);
+    verify(mockRestaurantRepository, times(2)).findRestaurantsCloseBy(any(), any(), any());
+    assertEquals(3, restaurantsInLargerRadius.size());
+
+    // Next slot, where nothing that was cached for 18:00 can be reused.
+    restaurantRepositoryService.findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 15), 3.0);
+    verify(mockRestaurantRepository, times(3)).findRestaurantsCloseBy(any(), any(), any());
+  }
+
+  @Test
+  void warmedUpCellsArePinnedAndServeRequests() throws IOException {
+    when(mockRestaurantRepository.findRestaurantsCloseBy(any(), any(), any()))
+        .thenReturn(Optional.of(listOfRestaurants()));
+
+    int precomputed = restaurantRepositoryService.warmUpRestaurantsCloseBy(20.0, 30.0, 0.1,
+        LocalTime.of(18, 0), 3.0, 7200);
+    // Cells already cached are not loaded again.
+    assertEquals(0, restaurantRepositoryService.warmUpRestaurantsCloseBy(20.0, 30.0, 0.1,
+        LocalTime.of(18, 0), 3.0, 7200));
+    List<Restaurant> allRestaurantsCloseBy = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0005, 30.0005, LocalTime.of(18, 1), 3.0);
+
+    Jedis jedis = redisConfiguration.getJedisPool().getResource();
+    GeoHash geoHash = GeoHash.withCharacterPrecision(20.0, 30.0, 6);
+    assertTrue(precomputed > 0);
+    assertTrue(jedis.ttl("closeby:r3:s72:{" + geoHash.toBase32() + "}") > 3600);
+    verify(mockRestaurantRepository, times(1)).findRestaurantsCloseBy(any(), any(), any());
+    assertEquals(3, allRestaurantsCloseBy.size());
+  }
+
   private List<RestaurantEntity> listOfRestaurants() throws IOException {
     String fixture =
         FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
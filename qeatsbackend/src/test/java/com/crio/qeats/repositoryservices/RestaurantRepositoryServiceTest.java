@@ -9,23 +9,30 @@ package com.crio.qeats.repositoryservices;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.crio.qeats.QEatsApplication;
 import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.configs.RestaurantLocationMigration;
 import com.crio.qeats.dto.Restaurant;
 import com.crio.qeats.models.RestaurantEntity;
 import com.crio.qeats.repositories.RestaurantRepository;
 import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoUtils;
+import com.crio.qeats.utils.RestaurantCursor;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import javax.inject.Provider;
@@ -37,6 +44,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
@@ -61,6 +70,9 @@ public class RestaurantRepositoryServiceTest {
   @MockBean
   private RestaurantRepository restaurantRepository;
 
+  @SpyBean
+  private RestaurantLocationMigration restaurantLocationMigration;
+
   @Autowired
   private RedisConfiguration redisConfiguration;
 
@@ -82,7 +94,8 @@ public class RestaurantRepositoryServiceTest {
     for (RestaurantEntity restaurantEntity : allRestaurants) {
       mongoTemplate.save(restaurantEntity, "restaurants");
     }
-    when(restaurantRepository.findAll()).thenReturn(allRestaurants);
+    when(restaurantRepository.findRestaurantsCloseByAndOpen(any(), any(), any(), any()))
+        .thenReturn(Optional.of(allRestaurants));
   }
 
   @AfterEach
@@ -95,17 +108,125 @@ public class RestaurantRepositoryServiceTest {
   void restaurantsCloseByAndOpenNow() {
     assertNotNull(restaurantRepositoryService);
 
-    when(restaurantRepository.findAll()).thenReturn(allRestaurants);
+    when(restaurantRepository.findRestaurantsCloseByAndOpen(any(), any(), any(), any()))
+        .thenReturn(Optional.of(allRestaurants));
 
     List<Restaurant> allRestaurantsCloseBy = restaurantRepositoryService
         .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
 
-    verify(restaurantRepository, times(1)).findAll();
+    verify(restaurantRepository, times(1))
+        .findRestaurantsCloseByAndOpen(20.0, 30.0, 3.0 / 6371.0, "18:01");
+    verify(restaurantRepository, times(0)).findAll();
     assertEquals(2, allRestaurantsCloseBy.size());
     assertEquals("11", allRestaurantsCloseBy.get(0).getRestaurantId());
     assertEquals("12", allRestaurantsCloseBy.get(1).getRestaurantId());
   }
 
+  @Test
+  void restaurantsCloseByFromCoordinatesUntilLocationsAreBackfilled() {
+    doReturn(false).when(restaurantLocationMigration).isComplete();
+    when(restaurantRepository.findRestaurantsInBox(any(), any(), any(), any()))
+        .thenReturn(allRestaurants);
+
+    List<Restaurant> allRestaurantsCloseBy = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+
+    verify(restaurantRepository, never())
+        .findRestaurantsCloseByAndOpen(any(), any(), any(), any());
+    assertEquals(2, allRestaurantsCloseBy.size());
+    assertEquals("11", allRestaurantsCloseBy.get(0).getRestaurantId());
+    assertEquals("12", allRestaurantsCloseBy.get(1).getRestaurantId());
+  }
+
+  @Test
+  void restaurantsSavedWithoutLocationGetOne() {
+    RestaurantEntity restaurantEntity = allRestaurants.get(0);
+    restaurantEntity.setLocation(null);
+    mongoTemplate.save(restaurantEntity, "restaurants");
+
+    RestaurantEntity saved = mongoTemplate.findById(restaurantEntity.getId(),
+        RestaurantEntity.class, "restaurants");
+    assertEquals(restaurantEntity.getLongitude(), saved.getLocation().getX(), 1e-9);
+    assertEquals(restaurantEntity.getLatitude(), saved.getLocation().getY(), 1e-9);
+    assertTrue(restaurantLocationMigration.isComplete());
+  }
+
+  @Test
+  void nearestRestaurantsCloseByAreSortedAndLimited() {
+    when(restaurantRepository.findRestaurantsCloseByAndOpen(any(), any(), any(), any()))
+        .thenReturn(Optional.of(allRestaurants));
+
+    List<Restaurant> nearestRestaurants = restaurantRepositoryService
+        .findNearestRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 5.0, 2, null);
+
+    assertEquals(2, nearestRestaurants.size());
+    assertEquals("12", nearestRestaurants.get(0).getRestaurantId());
+    assertEquals("11", nearestRestaurants.get(1).getRestaurantId());
+    assertEquals(GeoUtils.findDistanceInKm(20.0, 30.0, 20.015, 30.015),
+        nearestRestaurants.get(0).getDistanceInKm(), 1e-9);
+    assertEquals(GeoUtils.findDistanceInKm(20.0, 30.0, 20.0269, 30.0),
+        nearestRestaurants.get(1).getDistanceInKm(), 1e-9);
+  }
+
+  @Test
+  void nearestRestaurantsReadsPagesUntilEnoughAreOpen() {
+    // 11 passes the coarse filter of the query but is closed on the exact check.
+    allRestaurants.get(1).setClosesAt("18:00");
+    when(restaurantRepository.findRestaurantsNearestAndOpen(any(), any(), any(), any(),
+        eq(PageRequest.of(0, 2))))
+        .thenReturn(Arrays.asList(allRestaurants.get(2), allRestaurants.get(1)));
+    when(restaurantRepository.findRestaurantsNearestAndOpen(any(), any(), any(), any(),
+        eq(PageRequest.of(1, 2))))
+        .thenReturn(Arrays.asList(allRestaurants.get(0)));
+
+    List<Restaurant> nearestRestaurants = restaurantRepositoryService
+        .findNearestRestaurants(20.0, 30.0, 2, LocalTime.of(18, 1));
+
+    assertEquals(2, nearestRestaurants.size());
+    assertEquals("12", nearestRestaurants.get(0).getRestaurantId());
+    assertEquals("10", nearestRestaurants.get(1).getRestaurantId());
+    assertEquals(GeoUtils.findDistanceInKm(20.0, 30.0, 20.027, 30.0),
+        nearestRestaurants.get(1).getDistanceInKm(), 1e-9);
+    verify(restaurantRepository, never()).findRestaurantsNearestAndOpen(any(), any(), any(), any(),
+        eq(PageRequest.of(2, 2)));
+  }
+
+  @Test
+  void nearestRestaurantsStopAtMaxDistanceAndPages() {
+    // Every restaurant passes the coarse filter of the query but is closed on the exact check.
+    allRestaurants.forEach(restaurantEntity -> restaurantEntity.setClosesAt("18:00"));
+    when(restaurantRepository.findRestaurantsNearestAndOpen(any(), any(), any(), any(), any()))
+        .thenReturn(allRestaurants.subList(0, 1));
+
+    assertTrue(restaurantRepositoryService
+        .findNearestRestaurants(20.0, 30.0, 1, LocalTime.of(18, 1)).isEmpty());
+
+    verify(restaurantRepository, times(5)).findRestaurantsNearestAndOpen(eq(20.0), eq(30.0),
+        eq("18:01"), eq(20000.0), any());
+  }
+
+  @Test
+  void nextPageResumesAfterCursor() {
+    when(restaurantRepository.findRestaurantsCloseByAndOpen(any(), any(), any(), any()))
+        .thenReturn(Optional.of(allRestaurants));
+
+    List<String> pagedRestaurantIds = new ArrayList<>();
+    RestaurantCursor cursor = null;
+    for (int page = 0; page < 4; page++) {
+      List<Restaurant> restaurants = restaurantRepositoryService
+          .findNearestRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 5.0, 1, cursor);
+      if (restaurants.isEmpty()) {
+        break;
+      }
+      Restaurant last = restaurants.get(restaurants.size() - 1);
+      cursor = RestaurantCursor.after(20.0, 30.0, last.getDistanceInKm(),
+          last.getRestaurantId());
+      pagedRestaurantIds.add(last.getRestaurantId());
+    }
+
+    assertEquals(Arrays.asList("12", "11", "10"), pagedRestaurantIds);
+  }
+
 
   @Test
   void noRestaurantsNearBy(@Autowired MongoTemplate mongoTemplate) {
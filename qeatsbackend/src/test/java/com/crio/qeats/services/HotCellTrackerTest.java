@@ -0,0 +1,86 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.crio.qeats.repositoryservices.RestaurantRepositoryService;
+import com.crio.qeats.utils.GeoHashCells;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class HotCellTrackerTest {
+
+  private static final LocalDate TODAY = LocalDate.of(2019, 6, 3);
+
+  private RestaurantRepositoryService restaurantRepositoryService;
+  private HotCellTracker hotCellTracker;
+
+  @BeforeEach
+  void setup() {
+    restaurantRepositoryService = mock(RestaurantRepositoryService.class);
+    hotCellTracker = new HotCellTracker(true, 2, 5, 2);
+    ReflectionTestUtils.setField(hotCellTracker, "restaurantRepositoryService",
+        restaurantRepositoryService);
+    ReflectionTestUtils.setField(hotCellTracker, "servingRadiusPolicy",
+        new LoadAwareServingRadiusPolicy(new SimpleMeterRegistry(), 5.0, 3.0, 1.0, 0.5, 500, 300,
+            0.7));
+  }
+
+  @Test
+  void busiestCellsOfEachPeakWindowAreTracked() {
+    for (int i = 0; i < 5; i++) {
+      hotCellTracker.record(12.9168, 77.6072, LocalTime.of(13, 10));
+    }
+    for (int i = 0; i < 3; i++) {
+      hotCellTracker.record(12.9138, 77.6351, LocalTime.of(13, 20));
+    }
+    hotCellTracker.record(12.9716, 77.5946, LocalTime.of(13, 30));
+    // Outside of peak hours nothing is counted.
+    hotCellTracker.record(12.9716, 77.5946, LocalTime.of(11, 0));
+
+    assertEquals(Arrays.asList(cellOf(12.9168, 77.6072), cellOf(12.9138, 77.6351)),
+        hotCellTracker.findHotCells(1).subList(0, 2));
+    assertTrue(hotCellTracker.findHotCells(0).isEmpty());
+  }
+
+  @Test
+  void hotCellsAreWarmedUpOnceBeforeTheirWindow() {
+    hotCellTracker.record(12.9168, 77.6072, LocalTime.of(13, 10));
+
+    hotCellTracker.warmUpUpcomingWindows(TODAY.atTime(12, 50));
+    verify(restaurantRepositoryService, never()).warmUpRestaurantsCloseBy(anyDouble(),
+        anyDouble(), anyDouble(), eq(LocalTime.of(13, 0)), anyDouble(), anyInt());
+
+    hotCellTracker.warmUpUpcomingWindows(TODAY.atTime(12, 56));
+    hotCellTracker.warmUpUpcomingWindows(TODAY.atTime(12, 57));
+
+    // The first two slots of the window, pinned until the end of each slot.
+    verify(restaurantRepositoryService, times(1)).warmUpRestaurantsCloseBy(anyDouble(),
+        anyDouble(), anyDouble(), eq(LocalTime.of(13, 0)), eq(3.0), eq(19 * 60 + 60));
+    verify(restaurantRepositoryService, times(1)).warmUpRestaurantsCloseBy(anyDouble(),
+        anyDouble(), anyDouble(), eq(LocalTime.of(13, 15)), eq(3.0), eq(34 * 60 + 60));
+  }
+
+  private static String cellOf(double latitude, double longitude) {
+    return GeoHashCells.cellOf(latitude, longitude, HotCellTracker.CELL_PRECISION);
+  }
+}
@@ -0,0 +1,93 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LoadAwareServingRadiusPolicyTest {
+
+  private static final LocalTime NORMAL_HOURS = LocalTime.of(22, 0);
+  private static final LocalTime PEAK_HOURS = LocalTime.of(19, 30);
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private Timer requests;
+  private LoadAwareServingRadiusPolicy policy;
+
+  @BeforeEach
+  void setup() {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    requests = Timer.builder(LoadAwareServingRadiusPolicy.REQUESTS_METER)
+        .tag("uri", LoadAwareServingRadiusPolicy.RESTAURANTS_URI)
+        .publishPercentiles(0.99)
+        .register(meterRegistry);
+    // At most 10 requests per second with a p99 under 100 ms.
+    policy = new LoadAwareServingRadiusPolicy(meterRegistry, 5.0, 3.0, 2.0, 0.5, 10, 100, 0.5);
+    policy.evaluate(SECOND, NORMAL_HOURS);
+  }
+
+  @Test
+  void peakHoursRadiusIsServedWithoutLoad() {
+    assertEquals(5.0, radiusAt(NORMAL_HOURS));
+    assertEquals(3.0, radiusAt(PEAK_HOURS));
+  }
+
+  @Test
+  void radiusShrinksUnderLoadDownToTheMinimum() {
+    record(50, 10);
+    policy.evaluate(2 * SECOND, PEAK_HOURS);
+    assertEquals(2.5, radiusAt(PEAK_HOURS));
+    assertEquals(2.5, radiusAt(NORMAL_HOURS));
+
+    for (int second = 3; second < 6; second++) {
+      record(50, 10);
+      policy.evaluate(second * SECOND, PEAK_HOURS);
+    }
+    assertEquals(2.0, radiusAt(PEAK_HOURS));
+  }
+
+  @Test
+  void radiusOnlyGrowsBackWellBelowTheLimits() {
+    record(50, 10);
+    policy.evaluate(2 * SECOND, NORMAL_HOURS);
+    assertEquals(4.5, radiusAt(NORMAL_HOURS));
+
+    // Slow but under the limits, the radius holds.
+    record(8, 10);
+    policy.evaluate(3 * SECOND, NORMAL_HOURS);
+    assertEquals(4.5, radiusAt(NORMAL_HOURS));
+
+    policy.evaluate(4 * SECOND, NORMAL_HOURS);
+    assertEquals(5.0, radiusAt(NORMAL_HOURS));
+  }
+
+  @Test
+  void slowRequestsShrinkTheRadius() {
+    record(2, 1000);
+    policy.evaluate(2 * SECOND, NORMAL_HOURS);
+
+    assertEquals(4.5, radiusAt(NORMAL_HOURS));
+  }
+
+  private void record(int count, long millis) {
+    for (int i = 0; i < count; i++) {
+      requests.record(millis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private double radiusAt(LocalTime currentTime) {
+    return policy.servingRadiusInKms(20.0, 30.0, currentTime);
+  }
+}
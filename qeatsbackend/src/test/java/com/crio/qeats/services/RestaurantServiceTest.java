@@ -9,7 +9,12 @@ package com.crio.qeats.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -20,16 +25,20 @@ import com.crio.qeats.exchanges.GetRestaurantsRequest;
 import com.crio.qeats.exchanges.GetRestaurantsResponse;
 import com.crio.qeats.repositoryservices.RestaurantRepositoryService;
 import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.RestaurantCursor;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -49,6 +58,11 @@ class RestaurantServiceTest {
   private RestaurantServiceImpl restaurantService;
   @MockBean
   private RestaurantRepositoryService restaurantRepositoryServiceMock;
+  @MockBean
+  private HotCellTracker hotCellTracker;
+  @Spy
+  private ServingRadiusPolicy servingRadiusPolicy = new LoadAwareServingRadiusPolicy(
+      new SimpleMeterRegistry(), 5.0, 3.0, 1.0, 0.5, 500, 300, 0.7);
   private ObjectMapper objectMapper;
 
   @BeforeEach
@@ -111,6 +125,7 @@ class RestaurantServiceTest {
         .findAllRestaurantsCloseBy(any(Double.class), any(Double.class), any(LocalTime.class),
             servingRadiusInKms.capture());
     assertEquals(servingRadiusInKms.getValue().toString(), "5.0");
+    assertEquals(Double.valueOf(5.0), allRestaurantsCloseBy.getServingRadiusInKms());
 
     // assertEquals(getServingRadius(loadRestaurantsDuringPeakHours(), LocalTime.of(19, 0)), "3.0");
 
@@ -118,6 +133,100 @@ class RestaurantServiceTest {
 
 
 
+  @Test
+  void limitReturnsNearestRestaurants() throws IOException {
+    List<Restaurant> restaurants = loadRestaurantsDuringNormalHours().subList(0, 2);
+    restaurants.get(0).setDistanceInKm(2.9);
+    restaurants.get(1).setDistanceInKm(3.0);
+    when(restaurantRepositoryServiceMock
+        .findNearestRestaurantsCloseBy(any(Double.class), any(Double.class), any(LocalTime.class),
+            any(Double.class), anyInt(), isNull()))
+        .thenReturn(restaurants);
+
+    GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0, 30.0);
+    getRestaurantsRequest.setLimit(2);
+    GetRestaurantsResponse nearestRestaurants = restaurantService
+        .findAllRestaurantsCloseBy(getRestaurantsRequest, LocalTime.of(22, 0));
+
+    assertEquals(restaurants, nearestRestaurants.getRestaurants());
+    assertEquals(RestaurantCursor.after(20.0, 30.0, restaurants.get(1).getDistanceInKm(),
+        restaurants.get(1).getRestaurantId()).encode(), nearestRestaurants.getNextCursor());
+    verify(restaurantRepositoryServiceMock, times(1))
+        .findNearestRestaurantsCloseBy(20.0, 30.0, LocalTime.of(22, 0), 5.0, 2, null);
+    verify(restaurantRepositoryServiceMock, times(0))
+        .findAllRestaurantsCloseBy(any(Double.class), any(Double.class), any(LocalTime.class),
+            any(Double.class));
+  }
+
+  @Test
+  void limitKeepsToServingRadiusWhenNothingIsOpenWithinIt() throws IOException {
+    when(restaurantRepositoryServiceMock
+        .findNearestRestaurantsCloseBy(any(Double.class), any(Double.class), any(LocalTime.class),
+            any(Double.class), anyInt(), isNull()))
+        .thenReturn(new ArrayList<>());
+
+    GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0, 30.0);
+    getRestaurantsRequest.setLimit(2);
+    GetRestaurantsResponse nearestRestaurants = restaurantService
+        .findAllRestaurantsCloseBy(getRestaurantsRequest, LocalTime.of(22, 0));
+
+    assertTrue(nearestRestaurants.getRestaurants().isEmpty());
+    assertNull(nearestRestaurants.getNextCursor());
+    assertEquals(5.0, nearestRestaurants.getServingRadiusInKms(), 1e-9);
+    verify(restaurantRepositoryServiceMock, never()).findNearestRestaurants(any(Double.class),
+        any(Double.class), anyInt(), any(LocalTime.class));
+  }
+
+  @Test
+  void pageAfterCursorIsRankedFromLocationOfFirstPage() throws IOException {
+    List<Restaurant> restaurants = loadRestaurantsDuringNormalHours().subList(0, 1);
+    restaurants.get(0).setDistanceInKm(3.5);
+    when(restaurantRepositoryServiceMock
+        .findNearestRestaurantsCloseBy(any(Double.class), any(Double.class), any(LocalTime.class),
+            any(Double.class), anyInt(), any(RestaurantCursor.class)))
+        .thenReturn(restaurants);
+    RestaurantCursor cursor = RestaurantCursor.after(20.0, 30.0, 2.5, "11");
+
+    // Moved a few meters, within the cell of the first page.
+    GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0001, 30.0001);
+    getRestaurantsRequest.setLimit(1);
+    getRestaurantsRequest.setCursor(cursor.encode());
+    GetRestaurantsResponse nextPage = restaurantService
+        .findAllRestaurantsCloseBy(getRestaurantsRequest, LocalTime.of(22, 0));
+
+    verify(restaurantRepositoryServiceMock, times(1))
+        .findNearestRestaurantsCloseBy(20.0, 30.0, LocalTime.of(22, 0), 5.0, 1, cursor);
+    assertEquals(RestaurantCursor.after(20.0, 30.0, 3.5, restaurants.get(0).getRestaurantId()),
+        RestaurantCursor.decode(nextPage.getNextCursor()));
+  }
+
+  @Test
+  void searchResultsArePagedNearestFirst() throws IOException {
+    when(restaurantRepositoryServiceMock.findRestaurantsByName(any(Double.class),
+        any(Double.class), any(String.class), any(LocalTime.class), any(Double.class)))
+        .thenReturn(loadRestaurantsDuringNormalHours());
+    List<Restaurant> restaurantsByAttributes = loadRestaurantsSearchedByAttributes();
+    restaurantsByAttributes.addAll(loadRestaurantsDuringNormalHours());
+    when(restaurantRepositoryServiceMock.findRestaurantsByAttributes(any(Double.class),
+        any(Double.class), any(String.class), any(LocalTime.class), any(Double.class)))
+        .thenReturn(restaurantsByAttributes);
+
+    GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0, 30.0, "Test");
+    getRestaurantsRequest.setLimit(2);
+    GetRestaurantsResponse firstPage = restaurantService
+        .findRestaurantsBySearchQuery(getRestaurantsRequest, LocalTime.of(22, 0));
+    getRestaurantsRequest.setCursor(firstPage.getNextCursor());
+    GetRestaurantsResponse secondPage = restaurantService
+        .findRestaurantsBySearchQueryMt(getRestaurantsRequest, LocalTime.of(22, 0));
+
+    assertEquals("12", firstPage.getRestaurants().get(0).getRestaurantId());
+    assertEquals("11", firstPage.getRestaurants().get(1).getRestaurantId());
+    assertEquals(2, secondPage.getRestaurants().size());
+    assertEquals("10", secondPage.getRestaurants().get(0).getRestaurantId());
+    assertEquals("abcdc864835e31495d621234",
+        secondPage.getRestaurants().get(1).getRestaurantId());
+  }
+
   @Test
   void normalHourFindRestaurantsSearchQuery() throws IOException {
     when(restaurantRepositoryServiceMock.findRestaurantsByName(any(Double.class),
@@ -0,0 +1,54 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CountMinSketchTest {
+
+  @Test
+  public void estimatesNeverUndercount() {
+    CountMinSketch sketch = new CountMinSketch(4, 256);
+    Map<String, Long> counts = new HashMap<>();
+    Random random = new Random(3);
+    for (int i = 0; i < 20_000; i++) {
+      // Skewed keys, a few of them are far more frequent than the others.
+      String key = "cell" + (int) (Math.pow(random.nextDouble(), 4) * 1000);
+      counts.merge(key, 1L, Long::sum);
+      sketch.add(key);
+    }
+
+    long overcount = 0;
+    for (Map.Entry<String, Long> count : counts.entrySet()) {
+      long estimate = sketch.estimate(count.getKey());
+      assertTrue(estimate >= count.getValue());
+      overcount += estimate - count.getValue();
+    }
+    // Most estimates are within 2/width of the total count, see CountMinSketch.
+    assertTrue(overcount / counts.size() <= 2 * 20_000 / 256);
+  }
+
+  @Test
+  public void halvingDecaysCounts() {
+    CountMinSketch sketch = new CountMinSketch(2, 64);
+    for (int i = 0; i < 10; i++) {
+      sketch.add("tdr1y6q");
+    }
+
+    sketch.halve();
+
+    assertEquals(5, sketch.estimate("tdr1y6q"));
+    assertEquals(6, sketch.add("tdr1y6q"));
+  }
+}
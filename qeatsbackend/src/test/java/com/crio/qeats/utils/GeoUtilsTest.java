@@ -11,6 +11,7 @@ package com.crio.qeats.utils;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.util.Random;
 import org.junit.jupiter.api.Test;
 
 class GeoUtilsTest {
@@ -29,4 +30,78 @@ class GeoUtilsTest {
     assertEquals(3.04, distanceBetweenA2bHsrAndA2bBtm, 0.1);
   }
 
+  @Test
+  public void distanceMatchesPreviousFormula() {
+    Random random = new Random(7);
+    for (int i = 0; i < 10_000; i++) {
+      double[] points = randomPoints(random);
+
+      assertEquals(previousDistance(points[0], points[1], points[2], points[3]),
+          GeoUtils.findDistanceInKm(points[0], points[1], points[2], points[3]), 1e-9);
+    }
+  }
+
+  @Test
+  public void batchDistancesMatchSingleDistances() {
+    Random random = new Random(11);
+    double[] latitudes = new double[100];
+    double[] longitudes = new double[100];
+    for (int i = 0; i < latitudes.length; i++) {
+      latitudes[i] = -90 + random.nextDouble() * 180;
+      longitudes[i] = -180 + random.nextDouble() * 360;
+    }
+
+    double[] distances = new double[50];
+    GeoUtils.findDistancesInKm(12.9, 77.6, latitudes, longitudes, 25, 75, distances);
+    for (int i = 25; i < 75; i++) {
+      assertEquals(GeoUtils.findDistanceInKm(12.9, 77.6, latitudes[i], longitudes[i]),
+          distances[i - 25]);
+    }
+  }
+
+  @Test
+  public void circleDecisionsMatchHaversine() {
+    Random random = new Random(13);
+    double[] radii = {0.5, 3.0, 5.0, 20.0, 50.0, 200.0};
+    double[][] centers = {{12.9, 77.6}, {20.0, 30.0}, {69.9, 18.9}, {-85, 0}, {10, 179.98}};
+    for (double[] center : centers) {
+      for (double radius : radii) {
+        GeoUtils.Circle circle = GeoUtils.circle(center[0], center[1], radius);
+        double spread = Math.toDegrees(2 * radius / 6371.0);
+        for (int i = 0; i < 20_000; i++) {
+          double latitude = Math.max(-90, Math.min(90,
+              center[0] + (random.nextDouble() * 2 - 1) * spread));
+          double longitude = center[1] + (random.nextDouble() * 2 - 1) * spread
+              / Math.max(0.05, Math.cos(Math.toRadians(center[0])));
+          longitude = ((longitude + 540) % 360) - 180;
+
+          assertEquals(
+              GeoUtils.findDistanceInKm(center[0], center[1], latitude, longitude) < radius,
+              circle.contains(latitude, longitude),
+              () -> "center " + center[0] + "," + center[1] + " radius " + radius);
+        }
+      }
+    }
+  }
+
+  private static double[] randomPoints(Random random) {
+    double latitude = -80 + random.nextDouble() * 160;
+    double longitude = -180 + random.nextDouble() * 360;
+    // Mostly nearby points, some anywhere on the globe.
+    double spread = random.nextBoolean() ? 0.1 : 180;
+    return new double[] {latitude, longitude,
+        Math.max(-90, Math.min(90, latitude + (random.nextDouble() * 2 - 1) * spread)),
+        longitude + (random.nextDouble() * 2 - 1) * spread};
+  }
+
+  // The haversine formula GeoUtils used before the asin form, with zero elevation.
+  private static double previousDistance(double lat1, double lon1, double lat2, double lon2) {
+    double latDistance = Math.toRadians(lat2 - lat1);
+    double lonDistance = Math.toRadians(lon2 - lon1);
+    double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
+        + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+        * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
+    double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    return Math.sqrt(Math.pow(6371 * c, 2));
+  }
 }
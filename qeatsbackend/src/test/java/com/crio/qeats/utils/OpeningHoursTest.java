@@ -0,0 +1,61 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalTime;
+import org.junit.jupiter.api.Test;
+
+class OpeningHoursTest {
+
+  @Test
+  public void openStrictlyBetweenOpeningAndClosing() {
+    OpeningHours openingHours = OpeningHours.of("18:00", "23:00");
+
+    assertFalse(openingHours.isOpenAt(LocalTime.of(17, 59)));
+    assertFalse(openingHours.isOpenAt(LocalTime.of(18, 0)));
+    assertTrue(openingHours.isOpenAt(LocalTime.of(18, 0, 1)));
+    assertTrue(openingHours.isOpenAt(LocalTime.of(22, 59, 59)));
+    assertFalse(openingHours.isOpenAt(LocalTime.of(23, 0)));
+    assertFalse(openingHours.isOpenAt(LocalTime.of(23, 1)));
+  }
+
+  @Test
+  public void overnightWindowWrapsAroundMidnight() {
+    OpeningHours openingHours = OpeningHours.of("19:30", "02:00");
+
+    assertTrue(openingHours.isOvernight());
+    assertTrue(openingHours.isOpenAt(LocalTime.of(23, 0)));
+    assertTrue(openingHours.isOpenAt(LocalTime.of(0, 30)));
+    assertFalse(openingHours.isOpenAt(LocalTime.of(2, 0)));
+    assertFalse(openingHours.isOpenAt(LocalTime.of(12, 0)));
+  }
+
+  @Test
+  public void matchesParseBasedCheckForEveryMinute() {
+    OpeningHours openingHours = OpeningHours.of("08:15", "21:45");
+    LocalTime opensAt = LocalTime.parse("08:15");
+    LocalTime closesAt = LocalTime.parse("21:45");
+
+    for (int minute = 0; minute < OpeningHours.MINUTES_PER_DAY; minute++) {
+      LocalTime time = LocalTime.of(minute / 60, minute % 60, 30);
+      assertEquals(time.isAfter(opensAt) && time.isBefore(closesAt),
+          openingHours.isOpenAt(time));
+    }
+  }
+
+  @Test
+  public void invalidHoursAreNeverOpen() {
+    assertFalse(OpeningHours.of(null, "23:00").isOpenAt(LocalTime.NOON));
+    assertFalse(OpeningHours.of("noon", "23:00").isOpenAt(LocalTime.NOON));
+    assertFalse(OpeningHours.of("25:00", "23:00").isOpenAt(LocalTime.NOON));
+  }
+}
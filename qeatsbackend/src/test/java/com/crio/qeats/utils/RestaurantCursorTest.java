@@ -0,0 +1,61 @@
+
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RestaurantCursorTest {
+
+  @Test
+  public void decodesWhatItEncodes() {
+    RestaurantCursor cursor = RestaurantCursor.after(20.0, 30.0,
+        GeoUtils.findDistanceInKm(20.0, 30.0, 20.015, 30.015), "1|2");
+
+    RestaurantCursor decoded = RestaurantCursor.decode(cursor.encode());
+
+    assertEquals(cursor, decoded);
+    assertTrue(decoded.isIssuedFor(20.0001, 30.0001));
+    assertFalse(decoded.isIssuedFor(20.1, 30.0));
+  }
+
+  @Test
+  public void nextCursorKeepsTheLocationOfTheFirstPage() {
+    RestaurantCursor next = RestaurantCursor.after(20.0, 30.0, 2.5, "11").next(3.5, "12");
+
+    assertEquals(20.0, next.getLatitude(), 1e-9);
+    assertEquals(30.0, next.getLongitude(), 1e-9);
+    assertEquals(3.5, next.getDistanceInKm(), 1e-9);
+    assertEquals("12", next.getRestaurantId());
+  }
+
+  @Test
+  public void restaurantsAfterTheCursorAreOrderedByDistanceThenId() {
+    RestaurantCursor cursor = RestaurantCursor.after(20.0, 30.0, 2.5, "11");
+
+    assertTrue(cursor.precedes(2.6, "10"));
+    assertTrue(cursor.precedes(2.5, "12"));
+    assertFalse(cursor.precedes(2.5, "11"));
+    assertFalse(cursor.precedes(2.5, "10"));
+    assertFalse(cursor.precedes(2.4, "12"));
+  }
+
+  @Test
+  public void malformedCursorsAreRejected() {
+    assertThrows(InvalidCursorException.class, () -> RestaurantCursor.decode("not a cursor"));
+    // Version 1 cursor, without the location.
+    assertThrows(InvalidCursorException.class, () -> RestaurantCursor.decode("MXx0c3E0ZDJ8eA"));
+    // "2|20.0|x|2.5|11"
+    assertThrows(InvalidCursorException.class,
+        () -> RestaurantCursor.decode("MnwyMC4wfHh8Mi41fDEx"));
+  }
+}